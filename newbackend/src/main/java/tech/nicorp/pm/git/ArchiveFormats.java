@@ -0,0 +1,216 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.api.ArchiveCommand;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Zip and tar.gz writers for JGit's {@link ArchiveCommand}, on top of {@code java.util.zip} (the
+ * {@code org.eclipse.jgit.archive} module would pull in commons-compress). Both write straight to the
+ * given stream. Entry times come from the {@link #MTIME} format option (epoch seconds).
+ */
+final class ArchiveFormats {
+
+    static final String ZIP = "pm-zip";
+    static final String TGZ = "pm-tgz";
+    static final String MTIME = "mtime";
+
+    static {
+        ArchiveCommand.registerFormat(ZIP, new Zip());
+        ArchiveCommand.registerFormat(TGZ, new Tgz());
+    }
+
+    private ArchiveFormats() {
+    }
+
+    /**
+     * Makes sure the formats are registered with {@link ArchiveCommand}.
+     */
+    static void register() {
+        // the static initializer does the work
+    }
+
+    private static long mtime(Map<String, Object> options) {
+        Object value = options == null ? null : options.get(MTIME);
+        return value instanceof Number n ? n.longValue() : 0L;
+    }
+
+    static final class Zip implements ArchiveCommand.Format<ZipOutputStream> {
+        private static final class Out extends ZipOutputStream {
+            final long mtime;
+
+            Out(OutputStream out, long mtime) {
+                super(out, StandardCharsets.UTF_8);
+                this.mtime = mtime;
+            }
+        }
+
+        @Override
+        public ZipOutputStream createArchiveOutputStream(OutputStream s) {
+            return createArchiveOutputStream(s, Map.of());
+        }
+
+        @Override
+        public ZipOutputStream createArchiveOutputStream(OutputStream s, Map<String, Object> o) {
+            return new Out(s, mtime(o));
+        }
+
+        @Override
+        public void putEntry(ZipOutputStream out, ObjectId tree, String path, FileMode mode, ObjectLoader loader) throws IOException {
+            boolean dir = mode == FileMode.TREE || mode == FileMode.GITLINK;
+            ZipEntry entry = new ZipEntry(dir && !path.endsWith("/") ? path + "/" : path);
+            entry.setLastModifiedTime(FileTime.fromMillis(((Out) out).mtime * 1000L));
+            out.putNextEntry(entry);
+            // symlinks are stored as a file holding the target; java.util.zip cannot set unix modes
+            if (!dir && loader != null) loader.copyTo(out);
+            out.closeEntry();
+        }
+
+        @Override
+        public Iterable<String> suffixes() {
+            return List.of(".zip");
+        }
+    }
+
+    static final class Tgz implements ArchiveCommand.Format<Tgz.TarOutput> {
+
+        /**
+         * Minimal POSIX (pax) tar writer: ustar headers, pax records for names and link targets that do
+         * not fit, gzip on top.
+         */
+        static final class TarOutput implements Closeable {
+            private static final int BLOCK = 512;
+
+            private final GZIPOutputStream out;
+            private final long mtime;
+
+            TarOutput(OutputStream out, long mtime) throws IOException {
+                this.out = new GZIPOutputStream(out, 64 * 1024);
+                this.mtime = mtime;
+            }
+
+            void file(String path, int mode, ObjectLoader loader) throws IOException {
+                long size = loader.getSize();
+                header(path, mode, size, '0', "");
+                loader.copyTo(out);
+                pad(size);
+            }
+
+            void directory(String path) throws IOException {
+                header(path.endsWith("/") ? path : path + "/", 0755, 0, '5', "");
+            }
+
+            void symlink(String path, String target) throws IOException {
+                header(path, 0777, 0, '2', target);
+            }
+
+            private void header(String name, int mode, long size, char type, String link) throws IOException {
+                byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                byte[] linkBytes = link.getBytes(StandardCharsets.UTF_8);
+                if (nameBytes.length > 100 || linkBytes.length > 100) {
+                    StringBuilder pax = new StringBuilder();
+                    if (nameBytes.length > 100) pax.append(paxRecord("path", name));
+                    if (linkBytes.length > 100) pax.append(paxRecord("linkpath", link));
+                    byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+                    out.write(block("PaxHeader", 0644, records.length, 'x', new byte[0]));
+                    out.write(records);
+                    pad(records.length);
+                    nameBytes = Arrays.copyOf(nameBytes, Math.min(nameBytes.length, 100));
+                    linkBytes = Arrays.copyOf(linkBytes, Math.min(linkBytes.length, 100));
+                }
+                out.write(block(nameBytes, mode, size, type, linkBytes));
+            }
+
+            private byte[] block(String name, int mode, long size, char type, byte[] link) {
+                return block(name.getBytes(StandardCharsets.UTF_8), mode, size, type, link);
+            }
+
+            private byte[] block(byte[] name, int mode, long size, char type, byte[] link) {
+                byte[] h = new byte[BLOCK];
+                System.arraycopy(name, 0, h, 0, name.length);
+                octal(h, 100, 8, mode);
+                octal(h, 108, 8, 0);
+                octal(h, 116, 8, 0);
+                octal(h, 124, 12, size);
+                octal(h, 136, 12, mtime);
+                Arrays.fill(h, 148, 156, (byte) ' ');
+                h[156] = (byte) type;
+                System.arraycopy(link, 0, h, 157, link.length);
+                System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, h, 257, 8);
+                long sum = 0;
+                for (byte b : h) sum += b & 0xFF;
+                octal(h, 148, 7, sum);
+                return h;
+            }
+
+            // zero-padded octal, NUL terminated
+            private static void octal(byte[] h, int offset, int length, long value) {
+                String s = Long.toOctalString(value);
+                int digits = length - 1;
+                for (int i = 0; i < digits; i++) {
+                    int from = digits - s.length();
+                    h[offset + i] = (byte) (i < from ? '0' : s.charAt(i - from));
+                }
+                h[offset + digits] = 0;
+            }
+
+            // "<len> key=value\n", where len counts the whole record including its own digits
+            private static String paxRecord(String key, String value) {
+                int body = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+                int len = body + String.valueOf(body).length();
+                if (String.valueOf(len).length() != String.valueOf(body).length()) len++;
+                return len + " " + key + "=" + value + "\n";
+            }
+
+            private void pad(long size) throws IOException {
+                int rest = (int) (size % BLOCK);
+                if (rest != 0) out.write(new byte[BLOCK - rest]);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.write(new byte[2 * BLOCK]);
+                out.close();
+            }
+        }
+
+        @Override
+        public TarOutput createArchiveOutputStream(OutputStream s) throws IOException {
+            return createArchiveOutputStream(s, Map.of());
+        }
+
+        @Override
+        public TarOutput createArchiveOutputStream(OutputStream s, Map<String, Object> o) throws IOException {
+            return new TarOutput(s, mtime(o));
+        }
+
+        @Override
+        public void putEntry(TarOutput out, ObjectId tree, String path, FileMode mode, ObjectLoader loader) throws IOException {
+            if (mode == FileMode.TREE || mode == FileMode.GITLINK || loader == null) {
+                out.directory(path);
+            } else if (mode == FileMode.SYMLINK) {
+                out.symlink(path, new String(loader.getCachedBytes(), StandardCharsets.UTF_8));
+            } else {
+                out.file(path, mode == FileMode.EXECUTABLE_FILE ? 0755 : 0644, loader);
+            }
+        }
+
+        @Override
+        public Iterable<String> suffixes() {
+            return List.of(".tar.gz", ".tgz");
+        }
+    }
+}
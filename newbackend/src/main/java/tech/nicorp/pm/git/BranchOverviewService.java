@@ -0,0 +1,163 @@
+package tech.nicorp.pm.git;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Branch list with last commit and divergence from the default branch, replacing one commits call
+ * per branch from the UI.
+ * <p>
+ * Everything runs in one {@link RevWalk}, so all branches share its object reader and the commits it
+ * has already parsed. Only tips are parsed to sort the full list; ahead/behind counts are computed for
+ * the requested page alone and cached by (tip, default tip), which stays valid until either branch moves.
+ */
+@Service
+public class BranchOverviewService implements MeterBinder {
+
+    public enum Sort {
+        /** Most recently committed first. */
+        RECENT,
+        NAME;
+
+        public static Sort parse(String value) {
+            if (value == null || value.isBlank()) return RECENT;
+            return Sort.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public record Page(String defaultBranch, int total, List<Map<String, Object>> branches, String next) {}
+
+    private record Divergence(int ahead, int behind) {}
+
+    private record Tip(String name, RevCommit commit) {}
+
+    private final GitRepositoryPool pool;
+    private final CommitGraphService commitGraphs;
+    private final GitService git;
+    private final WeightedLruCache divergence;
+
+    public BranchOverviewService(GitRepositoryPool pool, CommitGraphService commitGraphs, GitService git,
+                                 @Value("${git.branch-overview.cache-max-bytes:4194304}") long cacheMaxBytes) {
+        this.pool = pool;
+        this.commitGraphs = commitGraphs;
+        this.git = git;
+        this.divergence = new WeightedLruCache(cacheMaxBytes);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        divergence.bindTo(registry, "git.branch.divergence.cache");
+    }
+
+    /**
+     * One page of branches after the cursor returned by the previous page. The cursor is
+     * {@code <commit time>:<name>} of the last branch on that page, so a branch created or moved between
+     * requests does not shift the rest of the list.
+     */
+    public Page overview(UUID repoId, Sort sort, String after, int limit) throws IOException {
+        try (Repository r = pool.open(repoId); RevWalk walk = new RevWalk(r)) {
+            String defaultBranch = git.defaultBranch(repoId);
+            commitGraphs.ensure(repoId, r);
+            List<Tip> tips = new ArrayList<>();
+            for (Ref ref : r.getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+                ObjectId id = ref.getObjectId();
+                if (id == null) continue;
+                RevCommit commit = walk.lookupCommit(id);
+                walk.parseHeaders(commit);
+                tips.add(new Tip(ref.getName().substring(Constants.R_HEADS.length()), commit));
+            }
+            Comparator<Tip> order = sort == Sort.NAME
+                    ? Comparator.comparing(Tip::name)
+                    : Comparator.comparingInt((Tip t) -> t.commit().getCommitTime()).reversed().thenComparing(Tip::name);
+            tips.sort(order);
+
+            int from = 0;
+            if (after != null && !after.isBlank()) {
+                int colon = after.indexOf(':');
+                if (colon <= 0) throw new IllegalArgumentException("Invalid cursor");
+                int time = Integer.parseInt(after.substring(0, colon));
+                String name = after.substring(colon + 1);
+                while (from < tips.size() && !isAfter(tips.get(from), sort, time, name)) from++;
+            }
+            List<Tip> page = tips.subList(from, Math.min(tips.size(), from + limit));
+
+            Ref defaultRef = r.exactRef(Constants.R_HEADS + defaultBranch);
+            RevCommit defaultTip = defaultRef != null && defaultRef.getObjectId() != null
+                    ? walk.parseCommit(defaultRef.getObjectId()) : null;
+            List<Map<String, Object>> branches = new ArrayList<>(page.size());
+            for (Tip tip : page) {
+                RevCommit c = tip.commit();
+                walk.parseBody(c);
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("name", tip.name());
+                entry.put("default", tip.name().equals(defaultBranch));
+                entry.put("sha", c.getName());
+                entry.put("message", c.getShortMessage());
+                entry.put("author", c.getAuthorIdent().getName());
+                entry.put("author_email", c.getAuthorIdent().getEmailAddress());
+                entry.put("date", c.getCommitterIdent().getWhenAsInstant().toString());
+                if (defaultTip != null) {
+                    Divergence d = divergence(repoId, walk, c, defaultTip);
+                    entry.put("ahead", d.ahead());
+                    entry.put("behind", d.behind());
+                } else {
+                    entry.put("ahead", null);
+                    entry.put("behind", null);
+                }
+                branches.add(entry);
+            }
+
+            String next = null;
+            if (from + page.size() < tips.size() && !page.isEmpty()) {
+                Tip last = page.get(page.size() - 1);
+                next = last.commit().getCommitTime() + ":" + last.name();
+            }
+            return new Page(defaultBranch, tips.size(), branches, next);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private static boolean isAfter(Tip tip, Sort sort, int time, String name) {
+        if (sort == Sort.RECENT && tip.commit().getCommitTime() != time) {
+            return tip.commit().getCommitTime() < time;
+        }
+        return tip.name().compareTo(name) > 0;
+    }
+
+    private Divergence divergence(UUID repoId, RevWalk walk, RevCommit tip, RevCommit defaultTip) throws IOException {
+        if (tip.equals(defaultTip)) return new Divergence(0, 0);
+        return divergence.getOrLoad(repoId + ":" + tip.name() + ":" + defaultTip.name(),
+                () -> new Divergence(count(walk, tip, defaultTip), count(walk, defaultTip, tip)),
+                d -> 16);
+    }
+
+    // commits reachable from start but not from exclude, reusing commits the walk has already parsed
+    private static int count(RevWalk walk, RevCommit start, RevCommit exclude) throws IOException {
+        walk.reset();
+        walk.setRevFilter(RevFilter.ALL);
+        walk.markStart(start);
+        walk.markUninteresting(exclude);
+        int n = 0;
+        while (walk.next() != null) n++;
+        return n;
+    }
+}
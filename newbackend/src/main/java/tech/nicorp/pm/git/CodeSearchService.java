@@ -0,0 +1,530 @@
+package tech.nicorp.pm.git;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Code search over the default branch of a repository, backed by an in-memory {@link TrigramIndex}.
+ * <p>
+ * The first search of a repository starts building its index on the {@code code-search-indexer}
+ * thread and is answered by scanning the branch directly (within the same time budget, reported with
+ * {@code indexing}); searches only use the index once it is complete. The index remembers the commit it
+ * reflects. When the default branch moves, only the paths from {@link GitService#listChangedPaths} are
+ * re-indexed: eagerly from the post-receive queue, or at the latest by the next search. A query is
+ * narrowed to the files containing all trigrams of its literal (or of the literals a regex cannot match
+ * without), and only those blobs are read and matched line by line.
+ * <p>
+ * Bounds: files over {@code git.search.max-file-bytes} and binary files are not searchable, each index
+ * stops collecting trigrams once its estimated heap use reaches {@code git.search.max-index-bytes}
+ * (later files are scanned instead), at most {@code git.search.max-indexes} repositories are kept in
+ * memory, and a search stops after
+ * {@code git.search.timeout-millis} (checked while matching, so a pathological regex cannot hold the
+ * request thread) or the requested number of matches, reporting {@code truncated}.
+ */
+@Slf4j
+@Service
+public class CodeSearchService {
+
+    private static final int MAX_LINE_CHARS = 500;
+
+    public record Match(String path, int line, String text) {}
+
+    /**
+     * {@code indexing}: the index was not ready, the branch was scanned without it.
+     */
+    public record Result(String branch, String commit, int candidates, int scanned, int matches,
+                         boolean truncated, long durationMillis, boolean indexing) {}
+
+    private static final class RepoIndex {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final AtomicBoolean building = new AtomicBoolean();
+        TrigramIndex index;
+        String branch;
+        ObjectId commit;
+    }
+
+    private static final class Tally {
+        int scanned;
+        int matches;
+        boolean truncated;
+    }
+
+    private final GitRepositoryPool pool;
+    private final GitService git;
+    private final int maxFileBytes;
+    private final long maxIndexBytes;
+    private final int maxIndexes;
+    private final long timeoutNanos;
+    private final ThreadPoolExecutor executor;
+
+    // access-ordered: the least recently searched repository is dropped first
+    private final Map<UUID, RepoIndex> indexes;
+
+    public CodeSearchService(GitRepositoryPool pool, GitService git,
+                             @Value("${git.search.max-file-bytes:262144}") int maxFileBytes,
+                             @Value("${git.search.max-index-bytes:67108864}") long maxIndexBytes,
+                             @Value("${git.search.max-indexes:8}") int maxIndexes,
+                             @Value("${git.search.timeout-millis:5000}") long timeoutMillis) {
+        this.pool = pool;
+        this.git = git;
+        this.maxFileBytes = maxFileBytes;
+        this.maxIndexBytes = maxIndexBytes;
+        this.maxIndexes = maxIndexes;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.indexes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, RepoIndex> eldest) {
+                return size() > CodeSearchService.this.maxIndexes;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64), r -> {
+            Thread t = new Thread(r, "code-search-indexer");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Compiles a query; literal queries are quoted. Throws {@link java.util.regex.PatternSyntaxException}
+     * for an invalid regex.
+     */
+    public static Pattern compile(String query, boolean regex, boolean caseSensitive) {
+        int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        return Pattern.compile(regex ? query : Pattern.quote(query), flags);
+    }
+
+    /**
+     * Streams matching lines of the default branch to {@code sink}, in path order of the index.
+     */
+    public Result search(UUID repoId, String query, boolean regex, boolean caseSensitive, String pathPrefix,
+                         int limit, Consumer<Match> sink) throws IOException {
+        long start = System.nanoTime();
+        Pattern pattern = compile(query, regex, caseSensitive);
+        List<String> required = regex ? requiredLiterals(query) : List.of(query);
+        if (!caseSensitive) {
+            // trigrams only fold ASCII letters
+            required = required.stream().filter(s -> s.chars().allMatch(ch -> ch < 0x80)).toList();
+        }
+        String prefix = pathPrefix == null || pathPrefix.isBlank() ? null : pathPrefix.replaceAll("^/+", "");
+
+        RepoIndex entry = current(repoId);
+        List<TrigramIndex.Doc> candidates;
+        String branch;
+        ObjectId commit;
+        entry.lock.readLock().lock();
+        try {
+            branch = entry.branch;
+            if (entry.index == null) {
+                candidates = null;
+                commit = null;
+            } else {
+                candidates = entry.index.candidates(required);
+                commit = entry.commit;
+            }
+        } finally {
+            entry.lock.readLock().unlock();
+        }
+
+        Tally tally = new Tally();
+        Matcher matcher = pattern.matcher("");
+        try (Repository r = pool.open(repoId); ObjectReader reader = r.newObjectReader()) {
+            if (candidates == null) {
+                // not indexed yet: walk the branch, within the same budget
+                ObjectId head = branch == null ? null : r.resolve(Constants.R_HEADS + branch);
+                if (head == null) return new Result(branch, null, 0, 0, 0, false, elapsedMillis(start), false);
+                int files = 0;
+                try (RevWalk walk = new RevWalk(reader); TreeWalk tw = new TreeWalk(reader)) {
+                    tw.addTree(walk.parseCommit(head).getTree());
+                    tw.setRecursive(true);
+                    while (tw.next()) {
+                        if (!isFile(tw.getFileMode(0))) continue;
+                        files++;
+                        if (!matchFile(reader, tw.getPathString(), tw.getObjectId(0), prefix, matcher, limit, start, tally, sink)) break;
+                    }
+                }
+                return new Result(branch, head.name(), files, tally.scanned, tally.matches, tally.truncated,
+                        elapsedMillis(start), true);
+            }
+            for (TrigramIndex.Doc doc : candidates) {
+                if (!matchFile(reader, doc.path(), doc.blobId(), prefix, matcher, limit, start, tally, sink)) break;
+            }
+        }
+        return new Result(branch, commit.name(), candidates.size(), tally.scanned, tally.matches, tally.truncated,
+                elapsedMillis(start), false);
+    }
+
+    // matches one file line by line; false once the limit or the time budget is reached
+    private boolean matchFile(ObjectReader reader, String path, ObjectId blobId, String prefix, Matcher matcher,
+                              int limit, long start, Tally tally, Consumer<Match> sink) throws IOException {
+        if (prefix != null && !path.startsWith(prefix)) return true;
+        if (System.nanoTime() - start > timeoutNanos) {
+            tally.truncated = true;
+            return false;
+        }
+        byte[] bytes = content(reader, blobId);
+        if (bytes == null) return true;
+        tally.scanned++;
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        // a backtracking regex can run far past the budget on a single line, so the matcher checks it too
+        matcher.reset(new DeadlineText(text, start + timeoutNanos));
+        int line = 1;
+        int from = 0;
+        while (from < text.length()) {
+            int end = text.indexOf('\n', from);
+            if (end < 0) end = text.length();
+            boolean found;
+            try {
+                found = matcher.region(from, end).find();
+            } catch (DeadlineText.Expired e) {
+                tally.truncated = true;
+                return false;
+            }
+            if (found) {
+                if (tally.matches == limit) {
+                    tally.truncated = true;
+                    return false;
+                }
+                tally.matches++;
+                String lineText = text.substring(from, end);
+                if (lineText.length() > MAX_LINE_CHARS) lineText = lineText.substring(0, MAX_LINE_CHARS);
+                sink.accept(new Match(path, line, lineText.stripTrailing()));
+            }
+            from = end + 1;
+            line++;
+        }
+        return true;
+    }
+
+    /**
+     * File content for the matcher that throws {@link Expired} from {@link #charAt} once the deadline
+     * has passed; the clock is read every few thousand characters.
+     */
+    private static final class DeadlineText implements CharSequence {
+        private static final int CHECK_EVERY = 4096;
+
+        static final class Expired extends RuntimeException {
+            Expired() {
+                super(null, null, false, false);
+            }
+        }
+
+        private final String text;
+        private final long deadlineNanos;
+        private int reads;
+
+        DeadlineText(String text, long deadlineNanos) {
+            this.text = text;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHECK_EVERY) {
+                reads = 0;
+                if (System.nanoTime() - deadlineNanos > 0) throw new Expired();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Called after a ref was updated by a push; catches the index up in the background if the ref is
+     * the indexed branch. Repositories without a loaded index are left alone.
+     */
+    public void refUpdated(UUID repoId, String refName) {
+        RepoIndex entry;
+        synchronized (indexes) {
+            entry = indexes.get(repoId);
+        }
+        if (entry == null || entry.branch == null || !refName.equals(Constants.R_HEADS + entry.branch)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh(repoId, entry);
+                } catch (Exception e) {
+                    log.warn("Failed to update search index of repository {}: {}", repoId, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the next search catches up
+        }
+    }
+
+    public Map<String, Object> stats(UUID repoId) {
+        RepoIndex entry;
+        synchronized (indexes) {
+            entry = indexes.get(repoId);
+        }
+        Map<String, Object> res = new LinkedHashMap<>();
+        if (entry == null) {
+            res.put("loaded", false);
+            return res;
+        }
+        entry.lock.readLock().lock();
+        try {
+            res.put("loaded", entry.index != null);
+            res.put("indexing", entry.building.get());
+            if (entry.index == null) return res;
+            res.put("branch", entry.branch);
+            res.put("commit", entry.commit.name());
+            res.put("files", entry.index.files());
+            res.put("unindexedFiles", entry.index.unindexedFiles());
+            res.put("trigrams", entry.index.trigrams());
+            res.put("postingBytes", entry.index.postingBytes());
+            res.put("heapBytes", entry.index.heapBytes());
+        } finally {
+            entry.lock.readLock().unlock();
+        }
+        return res;
+    }
+
+    private RepoIndex current(UUID repoId) throws IOException {
+        RepoIndex entry;
+        synchronized (indexes) {
+            entry = indexes.computeIfAbsent(repoId, k -> new RepoIndex());
+        }
+        refresh(repoId, entry);
+        return entry;
+    }
+
+    private void refresh(UUID repoId, RepoIndex entry) throws IOException {
+        String branch = git.defaultBranch(repoId);
+        ObjectId head;
+        try (Repository r = pool.open(repoId)) {
+            head = r.resolve(Constants.R_HEADS + branch);
+        }
+        entry.lock.readLock().lock();
+        try {
+            if (entry.index != null && branch.equals(entry.branch) && head != null && head.equals(entry.commit)) return;
+        } finally {
+            entry.lock.readLock().unlock();
+        }
+        boolean rebuild = false;
+        entry.lock.writeLock().lock();
+        try {
+            if (head == null) {
+                entry.index = null;
+                entry.branch = branch;
+                entry.commit = null;
+            } else if (entry.index == null || !branch.equals(entry.branch)) {
+                // searches scan the branch until the new index is in place
+                entry.index = null;
+                entry.branch = branch;
+                entry.commit = null;
+                rebuild = true;
+            } else if (!head.equals(entry.commit)) {
+                update(repoId, entry, head);
+            }
+        } finally {
+            entry.lock.writeLock().unlock();
+        }
+        if (rebuild) scheduleBuild(repoId, entry);
+    }
+
+    // at most one build per repository, always on the indexer thread and without holding the index lock
+    private void scheduleBuild(UUID repoId, RepoIndex entry) {
+        if (!entry.building.compareAndSet(false, true)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    String branch = git.defaultBranch(repoId);
+                    ObjectId head;
+                    try (Repository r = pool.open(repoId)) {
+                        head = r.resolve(Constants.R_HEADS + branch);
+                    }
+                    if (head == null) return;
+                    TrigramIndex index = build(repoId, head);
+                    entry.lock.writeLock().lock();
+                    try {
+                        // a later search catches up if the branch moved meanwhile
+                        entry.index = index;
+                        entry.branch = branch;
+                        entry.commit = head;
+                    } finally {
+                        entry.lock.writeLock().unlock();
+                    }
+                } catch (Exception e) {
+                    log.warn("Failed to build search index of repository {}: {}", repoId, e.getMessage());
+                } finally {
+                    entry.building.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the next search tries again
+            entry.building.set(false);
+        }
+    }
+
+    private TrigramIndex build(UUID repoId, ObjectId commit) throws IOException {
+        long start = System.nanoTime();
+        TrigramIndex index = new TrigramIndex(maxIndexBytes);
+        BitSet seen = TrigramIndex.scratch();
+        try (Repository r = pool.open(repoId); ObjectReader reader = r.newObjectReader();
+             RevWalk walk = new RevWalk(reader); TreeWalk tw = new TreeWalk(reader)) {
+            tw.addTree(walk.parseCommit(commit).getTree());
+            tw.setRecursive(true);
+            while (tw.next()) {
+                if (!isFile(tw.getFileMode(0))) continue;
+                byte[] bytes = content(reader, tw.getObjectId(0));
+                if (bytes != null) index.add(tw.getPathString(), tw.getObjectId(0), bytes, seen);
+            }
+        }
+        log.info("Indexed {} files of repository {} in {} ms ({} KiB of postings, ~{} KiB of heap)",
+                index.files(), repoId, elapsedMillis(start), index.postingBytes() / 1024, index.heapBytes() / 1024);
+        return index;
+    }
+
+    private void update(UUID repoId, RepoIndex entry, ObjectId head) throws IOException {
+        List<String> changed = git.listChangedPaths(repoId, entry.commit.name(), head.name());
+        BitSet seen = changed.isEmpty() ? null : TrigramIndex.scratch();
+        try (Repository r = pool.open(repoId); ObjectReader reader = r.newObjectReader(); RevWalk walk = new RevWalk(reader)) {
+            var tree = walk.parseCommit(head).getTree();
+            for (String path : changed) {
+                entry.index.remove(path);
+                try (TreeWalk tw = TreeWalk.forPath(reader, path, tree)) {
+                    if (tw == null || !isFile(tw.getFileMode(0))) continue;
+                    byte[] bytes = content(reader, tw.getObjectId(0));
+                    if (bytes != null) entry.index.add(path, tw.getObjectId(0), bytes, seen);
+                }
+            }
+        }
+        if (entry.index.removed() > entry.index.files()) entry.index.compact();
+        entry.commit = head;
+    }
+
+    // bytes of a searchable blob; null when too large, binary or gone
+    private byte[] content(ObjectReader reader, ObjectId blobId) throws IOException {
+        try {
+            ObjectLoader loader = reader.open(blobId, Constants.OBJ_BLOB);
+            if (loader.getSize() > maxFileBytes) return null;
+            byte[] bytes = loader.getCachedBytes(maxFileBytes);
+            return RawText.isBinary(bytes, bytes.length, true) ? null : bytes;
+        } catch (MissingObjectException e) {
+            return null;
+        }
+    }
+
+    private static boolean isFile(FileMode mode) {
+        return mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE;
+    }
+
+    /**
+     * Literal runs a match of {@code regex} must contain. Conservative: anything inside groups,
+     * classes or before an optional quantifier is ignored, and alternation yields nothing (every file
+     * is a candidate).
+     */
+    static List<String> requiredLiterals(String regex) {
+        List<String> out = new ArrayList<>();
+        if (regex.indexOf('|') >= 0) return out;
+        StringBuilder cur = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            switch (c) {
+                case '\\' -> {
+                    char next = i + 1 < regex.length() ? regex.charAt(++i) : '\\';
+                    if (!Character.isLetterOrDigit(next)) {
+                        if (depth == 0) cur.append(next);
+                    } else if ("dDsSwWbB".indexOf(next) >= 0) {
+                        flush(cur, out);
+                    } else {
+                        // \x41, \Q..\E, \p{..}, back references: give up narrowing
+                        return List.of();
+                    }
+                }
+                case '?', '*' -> {
+                    if (!cur.isEmpty()) cur.setLength(cur.length() - 1);
+                    flush(cur, out);
+                }
+                case '{' -> {
+                    if (!cur.isEmpty()) cur.setLength(cur.length() - 1);
+                    flush(cur, out);
+                    int close = regex.indexOf('}', i);
+                    if (close > 0) i = close;
+                }
+                case '[' -> {
+                    flush(cur, out);
+                    for (i++; i < regex.length() && regex.charAt(i) != ']'; i++) {
+                        if (regex.charAt(i) == '\\') i++;
+                    }
+                }
+                case '(' -> {
+                    flush(cur, out);
+                    depth++;
+                }
+                case ')' -> {
+                    flush(cur, out);
+                    depth = Math.max(0, depth - 1);
+                }
+                case '+' -> flush(cur, out);
+                case '.', '^', '$' -> flush(cur, out);
+                default -> {
+                    if (depth == 0) cur.append(c);
+                }
+            }
+        }
+        flush(cur, out);
+        return out;
+    }
+
+    private static void flush(StringBuilder cur, List<String> out) {
+        if (cur.length() >= 3) out.add(cur.toString());
+        cur.setLength(0);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
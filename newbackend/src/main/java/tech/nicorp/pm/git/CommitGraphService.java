@@ -0,0 +1,160 @@
+package tech.nicorp.pm.git;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.commitgraph.GraphCommits;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.SystemReader;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains {@code objects/info/commit-graph} for repositories, so history walks read
+ * parents, commit times and root trees from the graph instead of inflating commit objects.
+ * The graph also carries changed-path Bloom filters: path-limited walks skip the tree diff
+ * of every single-parent commit whose filter rules the path out.
+ * <p>
+ * Writes run on a single background thread; repeated requests for the same repository
+ * while a write is pending are coalesced. A stale graph is harmless: commits that are not
+ * in it are simply parsed from the object database.
+ */
+@Slf4j
+@Service
+public class CommitGraphService {
+    private static final String COMMIT_GRAPH_FILE = "commit-graph";
+
+    private final GitRepositoryPool pool;
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "commit-graph-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public CommitGraphService(GitRepositoryPool pool) {
+        this.pool = pool;
+        enableChangedPathReads();
+    }
+
+    /**
+     * Schedules a graph write if the repository has none yet.
+     */
+    public void ensure(UUID repoId, Repository repo) {
+        if (!Files.exists(graphFile(repo))) {
+            refresh(repoId);
+        }
+    }
+
+    /**
+     * Schedules a rewrite, e.g. after refs moved. No-op if one is already queued.
+     */
+    public void refresh(UUID repoId) {
+        if (!pending.add(repoId)) return;
+        executor.execute(() -> {
+            pending.remove(repoId);
+            try (Repository repo = pool.open(repoId)) {
+                write(repo);
+            } catch (Exception e) {
+                log.warn("Failed to write commit-graph for repository {}: {}", repoId, e.getMessage());
+            }
+        });
+    }
+
+    public void write(Repository repo) throws IOException {
+        enableCommitGraph(repo);
+        Set<ObjectId> tips = new HashSet<>();
+        try (RevWalk walk = new RevWalk(repo)) {
+            for (Ref ref : repo.getRefDatabase().getRefs()) {
+                ObjectId id = ref.getObjectId();
+                if (id == null) continue;
+                RevObject peeled = walk.peel(walk.parseAny(id));
+                if (peeled instanceof RevCommit) tips.add(peeled.copy());
+            }
+        }
+        if (tips.isEmpty()) return;
+
+        Path target = graphFile(repo);
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), "commit_", ".graph_tmp");
+        try {
+            try (RevWalk walk = new RevWalk(repo); OutputStream out = Files.newOutputStream(tmp)) {
+                GraphCommits commits = GraphCommits.fromWalk(NullProgressMonitor.INSTANCE, tips, walk);
+                new CommitGraphWriter(commits, writeChangedPaths(repo)).write(NullProgressMonitor.INSTANCE, out);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            // let an in-flight write finish its temp file before the repository goes away
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Path graphFile(Repository repo) {
+        return repo.getDirectory().toPath().resolve("objects").resolve("info").resolve(COMMIT_GRAPH_FILE);
+    }
+
+    private static boolean writeChangedPaths(Repository repo) {
+        return repo.getConfig().getBoolean(ConfigConstants.CONFIG_GC_SECTION, ConfigConstants.CONFIG_KEY_WRITE_CHANGED_PATHS, true);
+    }
+
+    /**
+     * Also turns on {@code gc.writeChangedPaths} (unless configured), so graphs rewritten by gc keep
+     * their Bloom filters.
+     */
+    private static void enableCommitGraph(Repository repo) throws IOException {
+        StoredConfig cfg = repo.getConfig();
+        boolean changed = false;
+        if (!cfg.getBoolean(ConfigConstants.CONFIG_CORE_SECTION, ConfigConstants.CONFIG_COMMIT_GRAPH, false)) {
+            cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+            cfg.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, true);
+            changed = true;
+        }
+        if (!cfg.getNames(ConfigConstants.CONFIG_GC_SECTION).contains(ConfigConstants.CONFIG_KEY_WRITE_CHANGED_PATHS)) {
+            cfg.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_WRITE_CHANGED_PATHS, true);
+            changed = true;
+        }
+        if (changed) cfg.save();
+    }
+
+    // JGit only reads changed-path filters when its process-wide config says so (default off)
+    private static void enableChangedPathReads() {
+        try {
+            StoredConfig jgit = SystemReader.getInstance().getJGitConfig();
+            if (!jgit.getBoolean(ConfigConstants.CONFIG_COMMIT_GRAPH_SECTION, ConfigConstants.CONFIG_KEY_READ_CHANGED_PATHS, false)) {
+                jgit.setBoolean(ConfigConstants.CONFIG_COMMIT_GRAPH_SECTION, null, ConfigConstants.CONFIG_KEY_READ_CHANGED_PATHS, true);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to enable changed-path filters: {}", e.getMessage());
+        }
+    }
+}
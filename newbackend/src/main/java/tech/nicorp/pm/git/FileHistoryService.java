@@ -0,0 +1,161 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.revwalk.FollowFilter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.TreeRevFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * History of a single file, following renames ({@link FollowFilter}), newest first.
+ * <p>
+ * Pages continue from an opaque cursor {@code <sha>:<path>}: the last returned commit and the path
+ * the file had just before it, so a page boundary right after a rename keeps following the old name.
+ * Each page walks from {@code ref} again and skips through the cursor commit, so changes on the side
+ * branch of a merge that spans a page boundary are still listed.
+ * The walk runs through {@link TreeRevFilter}, which consults the changed-path Bloom filters of the
+ * commit-graph (see {@link CommitGraphService}) and only diffs trees of commits that may touch the path.
+ */
+@Service
+public class FileHistoryService {
+
+    public record Page(List<Map<String, Object>> entries, String next, long filterSkipped) {}
+
+    private final GitRepositoryPool pool;
+    private final CommitGraphService commitGraphs;
+    private final int maxFileBytes;
+
+    public FileHistoryService(GitRepositoryPool pool, CommitGraphService commitGraphs,
+                              @Value("${git.history.max-file-bytes:1048576}") int maxFileBytes) {
+        this.pool = pool;
+        this.commitGraphs = commitGraphs;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * One page of commits that changed {@code path} as of {@code ref}, each with its change type, old path
+     * for renames and copies, and added/deleted line counts (null for binary files). Throws
+     * {@link FileNotFoundException} for an unknown ref or an invalid cursor.
+     */
+    public Page history(UUID repoId, String ref, String path, String after, int limit) throws IOException {
+        String current = path.replaceAll("^/+|/+$", "");
+        try (Repository r = pool.open(repoId); RevWalk walk = new RevWalk(r);
+             DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            commitGraphs.ensure(repoId, r);
+            ObjectId refId = r.resolve(ref);
+            if (refId == null) throw new FileNotFoundException("Ref not found: " + ref);
+            walk.markStart(walk.parseCommit(refId));
+            RevCommit cursor = null;
+            String cursorPath = null;
+            if (after != null && !after.isBlank()) {
+                int colon = after.indexOf(':');
+                if (colon != Constants.OBJECT_ID_STRING_LENGTH || colon == after.length() - 1) {
+                    throw new FileNotFoundException("Invalid cursor");
+                }
+                cursor = walk.parseCommit(ObjectId.fromString(after.substring(0, colon)));
+                cursorPath = after.substring(colon + 1);
+            }
+
+            DiffConfig diffConfig = r.getConfig().get(DiffConfig.KEY);
+            TreeRevFilter filter = new TreeRevFilter(walk, FollowFilter.create(current, diffConfig));
+            walk.setRevFilter(filter);
+            df.setRepository(r);
+            df.setDetectRenames(true);
+            df.setBinaryFileThreshold(maxFileBytes);
+
+            List<Map<String, Object>> entries = new ArrayList<>();
+            String next = null;
+            RevCommit last = null;
+            for (RevCommit c : walk) {
+                if (cursor != null) {
+                    // earlier pages; the follow filter tracks renames on its own meanwhile
+                    if (c.equals(cursor)) {
+                        cursor = null;
+                        current = cursorPath;
+                    }
+                    continue;
+                }
+                if (entries.size() == limit) {
+                    next = last.name() + ":" + current;
+                    break;
+                }
+                walk.parseBody(c);
+                RevTree parentTree = c.getParentCount() > 0 ? walk.parseCommit(c.getParent(0)).getTree() : null;
+                DiffEntry change = find(df, FollowFilter.create(current, diffConfig), parentTree, c.getTree(), current);
+                if (change == null) {
+                    // FollowFilter drops additions it cannot pair with a rename source
+                    change = find(df, PathFilter.create(current), parentTree, c.getTree(), current);
+                }
+
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("sha", c.getName());
+                entry.put("message", c.getFullMessage());
+                entry.put("author", c.getAuthorIdent().getName());
+                entry.put("date", c.getAuthorIdent().getWhenAsInstant().toString());
+                entry.put("path", current);
+                if (change != null) {
+                    entry.put("change_type", change.getChangeType().name());
+                    if (change.getChangeType() == DiffEntry.ChangeType.RENAME || change.getChangeType() == DiffEntry.ChangeType.COPY) {
+                        entry.put("old_path", change.getOldPath());
+                    }
+                    FileHeader header = df.toFileHeader(change);
+                    if (header.getPatchType() == FileHeader.PatchType.UNIFIED) {
+                        int additions = 0;
+                        int deletions = 0;
+                        for (Edit edit : header.toEditList()) {
+                            additions += edit.getLengthB();
+                            deletions += edit.getLengthA();
+                        }
+                        entry.put("additions", additions);
+                        entry.put("deletions", deletions);
+                    } else {
+                        entry.put("additions", null);
+                        entry.put("deletions", null);
+                    }
+                    if (change.getChangeType() == DiffEntry.ChangeType.RENAME) {
+                        current = change.getOldPath();
+                    }
+                } else {
+                    // a merge that differs from its first parent only through another parent
+                    entry.put("change_type", DiffEntry.ChangeType.MODIFY.name());
+                }
+                entries.add(entry);
+                last = c;
+            }
+            return new Page(entries, next, filter.getChangedPathFilterNegative());
+        } catch (MissingObjectException | IncorrectObjectTypeException | IllegalArgumentException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+    }
+
+    private static DiffEntry find(DiffFormatter df, TreeFilter filter, RevTree a, RevTree b, String path) throws IOException {
+        df.setPathFilter(filter);
+        for (DiffEntry e : df.scan(a, b)) {
+            if (path.equals(e.getNewPath()) || path.equals(e.getOldPath())) return e;
+        }
+        return null;
+    }
+}
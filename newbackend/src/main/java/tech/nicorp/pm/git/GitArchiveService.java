@@ -0,0 +1,333 @@
+package tech.nicorp.pm.git;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.ArchiveCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Zip / tar.gz snapshots of a ref, written by JGit's {@link ArchiveCommand} straight to the caller's
+ * stream.
+ * <p>
+ * Archives depend only on the tree (and the optional path filter) and the commit time used for the
+ * entry times, so they are cached on disk under {@code git.archive.cache-dir} keyed by those: the first
+ * download tees the stream into a cache file, later downloads of any commit with the same tree and time
+ * just copy the file. The cache is bounded by {@code git.archive.cache-max-bytes} and evicts least
+ * recently served archives first.
+ */
+@Slf4j
+@Service
+public class GitArchiveService {
+
+    public enum Format {
+        ZIP("zip", ArchiveFormats.ZIP, "application/zip"),
+        TAR_GZ("tar.gz", ArchiveFormats.TGZ, "application/gzip");
+
+        private final String extension;
+        private final String jgitName;
+        private final String contentType;
+
+        Format(String extension, String jgitName, String contentType) {
+            this.extension = extension;
+            this.jgitName = jgitName;
+            this.contentType = contentType;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public static Format of(String value) {
+            if (value == null) return null;
+            return switch (value.toLowerCase()) {
+                case "zip" -> ZIP;
+                case "tar.gz", "tgz" -> TAR_GZ;
+                default -> null;
+            };
+        }
+    }
+
+    /**
+     * A resolved archive request; {@link #key()} names the cache file and identifies its bytes.
+     */
+    public record Target(UUID repoId, ObjectId commitId, ObjectId treeId, long commitTime, String path, Format format) {
+        public String key() {
+            String suffix = path == null ? "" : "-" + DigestUtils.md5DigestAsHex(path.getBytes(StandardCharsets.UTF_8)).substring(0, 12);
+            return treeId.name() + "-" + commitTime + suffix + "." + format.extension();
+        }
+    }
+
+    /**
+     * An open cache file; stays readable even if evicted meanwhile.
+     */
+    public record Cached(FileChannel channel, long size) implements AutoCloseable {
+        public void transferTo(OutputStream out) throws IOException {
+            long position = 0;
+            var target = Channels.newChannel(out);
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private final GitRepositoryPool pool;
+    private final Path cacheDir;
+    private final long maxCacheBytes;
+
+    // cache file name -> size, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public GitArchiveService(GitConfig config, GitRepositoryPool pool,
+                             @Value("${git.archive.cache-dir:}") String cacheDir,
+                             @Value("${git.archive.cache-max-bytes:2147483648}") long maxCacheBytes) {
+        this.pool = pool;
+        this.cacheDir = cacheDir == null || cacheDir.isBlank()
+                ? config.getReposRoot().resolve(".archive-cache")
+                : Path.of(cacheDir);
+        this.maxCacheBytes = maxCacheBytes;
+        ArchiveFormats.register();
+        loadCache();
+    }
+
+    /**
+     * Resolves {@code ref} (and checks that {@code path} exists in it). Throws {@link FileNotFoundException}
+     * for an unknown ref or path.
+     */
+    public Target resolve(UUID repoId, String ref, String path, Format format) throws IOException {
+        String filter = path == null ? null : path.replaceAll("^/+|/+$", "");
+        if (filter != null && filter.isEmpty()) filter = null;
+        try (Repository r = pool.open(repoId); RevWalk walk = new RevWalk(r)) {
+            ObjectId id = r.resolve(ref);
+            if (id == null) throw new FileNotFoundException("Ref not found: " + ref);
+            RevCommit commit;
+            try {
+                commit = walk.parseCommit(id);
+            } catch (IncorrectObjectTypeException e) {
+                throw new FileNotFoundException("Not a commit: " + ref);
+            }
+            if (filter != null) {
+                try (TreeWalk tw = TreeWalk.forPath(r, filter, commit.getTree())) {
+                    if (tw == null) throw new FileNotFoundException("Path not found: " + filter);
+                }
+            }
+            return new Target(repoId, commit.getId(), commit.getTree().getId(), commit.getCommitTime(), filter, format);
+        }
+    }
+
+    /**
+     * The cached archive for {@code target}, or null.
+     */
+    public Cached openCached(Target target) throws IOException {
+        String name = target.key();
+        synchronized (entries) {
+            if (entries.get(name) == null) return null;
+        }
+        Path file = cacheDir.resolve(name);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            forget(name);
+            return null;
+        }
+        try {
+            // keeps the LRU order across restarts
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted meanwhile; the open channel still reads it
+        }
+        return new Cached(channel, channel.size());
+    }
+
+    /**
+     * Writes the archive to {@code out} while storing a copy in the cache. {@code out} is flushed, not
+     * closed. If the client goes away the partial cache file is dropped.
+     */
+    public void write(Target target, OutputStream out) throws IOException {
+        Path tmp = null;
+        OutputStream cacheOut = null;
+        try {
+            Files.createDirectories(cacheDir);
+            tmp = Files.createTempFile(cacheDir, target.key() + ".", ".tmp");
+            cacheOut = new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024);
+        } catch (IOException e) {
+            log.warn("Archive cache unavailable: {}", e.getMessage());
+        }
+        Tee tee = new Tee(out, cacheOut);
+        boolean complete = false;
+        try (Repository r = pool.open(target.repoId())) {
+            ArchiveCommand cmd = new ArchiveCommand(r)
+                    .setTree(target.treeId())
+                    .setFormat(target.format().jgitName)
+                    .setFormatOptions(Map.of(ArchiveFormats.MTIME, target.commitTime()))
+                    .setOutputStream(tee);
+            if (target.path() != null) cmd.setPaths(target.path());
+            cmd.call();
+            complete = true;
+        } catch (GitAPIException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Failed to build archive: " + e.getMessage(), e);
+        } finally {
+            if (cacheOut != null) {
+                try {
+                    cacheOut.close();
+                } catch (IOException e) {
+                    tee.cacheFailed = true;
+                }
+                if (complete && !tee.cacheFailed) {
+                    store(tmp, target.key());
+                } else {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        synchronized (entries) {
+            return Map.of("entries", entries.size(), "bytes", cachedBytes, "maxBytes", maxCacheBytes);
+        }
+    }
+
+    private void store(Path tmp, String name) throws IOException {
+        long size = Files.size(tmp);
+        if (size > maxCacheBytes) {
+            Files.deleteIfExists(tmp);
+            return;
+        }
+        Files.move(tmp, cacheDir.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        List<String> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Long previous = entries.put(name, size);
+            cachedBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+            while (cachedBytes > maxCacheBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(name)) continue;
+                cachedBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String old : evicted) {
+            // readers that already opened the file keep reading it
+            Files.deleteIfExists(cacheDir.resolve(old));
+        }
+    }
+
+    private void forget(String name) {
+        synchronized (entries) {
+            Long size = entries.remove(name);
+            if (size != null) cachedBytes -= size;
+        }
+    }
+
+    // rebuilds the LRU order from file times after a restart; leftovers of interrupted writes are removed
+    private void loadCache() {
+        if (!Files.isDirectory(cacheDir)) return;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(cacheDir)) {
+            for (Path file : dir) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else {
+                    files.add(file);
+                }
+            }
+            files.sort(Comparator.comparing(GitArchiveService::lastModified));
+            for (Path file : files) {
+                entries.put(file.getFileName().toString(), Files.size(file));
+                cachedBytes += Files.size(file);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to load archive cache {}: {}", cacheDir, e.getMessage());
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Copies everything to the cache file as well; a failing cache write only stops caching. Closing
+     * flushes the client stream but leaves it open.
+     */
+    private static final class Tee extends FilterOutputStream {
+        private final OutputStream cache;
+        boolean cacheFailed;
+
+        Tee(OutputStream client, OutputStream cache) {
+            super(client);
+            this.cache = cache;
+            this.cacheFailed = cache == null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (!cacheFailed) {
+                try {
+                    cache.write(b, off, len);
+                } catch (IOException e) {
+                    cacheFailed = true;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
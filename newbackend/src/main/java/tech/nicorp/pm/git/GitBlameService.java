@@ -0,0 +1,306 @@
+package tech.nicorp.pm.git;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.jgit.api.BlameCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Line blame with a cache of results keyed by (last commit that changed the file, blob, path).
+ * <p>
+ * Every commit between two changes of a file shares one entry. When a file changed in a single-parent
+ * commit and the blame of its previous version is still cached, the new blame is derived from it: the
+ * histogram diff of the two versions carries unchanged lines over with their attribution and only the
+ * changed ranges are attributed to the new commit, which is what a full {@link BlameCommand} run
+ * would conclude for them too. Everything else (merges, renames, cold cache) runs a full blame with
+ * rename following. Metrics are published as {@code git.blame.cache.*} and {@code git.blame.computed}.
+ */
+@Service
+public class GitBlameService implements MeterBinder {
+
+    public record CommitInfo(String id, String author, String email, long time, String summary) {}
+
+    /**
+     * Per line (0-based): index into {@link #commits}, the line number in that commit's version of the file
+     * (0-based) and an index into {@link #paths}.
+     */
+    public record Blame(String path, String blobId, String lastCommitId, List<CommitInfo> commits, List<String> paths,
+                        int[] lineCommit, int[] sourceLine, int[] linePath) {
+        public int lines() {
+            return lineCommit.length;
+        }
+
+        long weight() {
+            long weight = 64 + lineCommit.length * 12L;
+            for (CommitInfo c : commits) weight += 120 + 2L * (c.author().length() + c.email().length() + c.summary().length());
+            for (String p : paths) weight += 40 + 2L * p.length();
+            return weight;
+        }
+    }
+
+    private final GitRepositoryPool pool;
+    private final WeightedLruCache cache;
+    private final int maxFileBytes;
+    private final AtomicLong full = new AtomicLong();
+    private final AtomicLong incremental = new AtomicLong();
+
+    public GitBlameService(GitRepositoryPool pool,
+                           @Value("${git.blame-cache.max-bytes:33554432}") long maxBytes,
+                           @Value("${git.blame.max-file-bytes:1048576}") int maxFileBytes) {
+        this.pool = pool;
+        this.cache = new WeightedLruCache(maxBytes);
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Blame of {@code path} at {@code ref}. Throws {@link FileNotFoundException} for an unknown ref or a
+     * path that is not a file, and {@link IllegalArgumentException} for binary or oversized files.
+     */
+    public Blame blame(UUID repoId, String ref, String path) throws IOException {
+        String file = path.replaceAll("^/+", "");
+        try (Repository r = pool.open(repoId); RevWalk walk = new RevWalk(r)) {
+            ObjectId id = r.resolve(ref);
+            if (id == null) throw new FileNotFoundException("Ref not found: " + ref);
+            RevCommit start;
+            try {
+                start = walk.parseCommit(id);
+            } catch (IncorrectObjectTypeException e) {
+                throw new FileNotFoundException("Not a commit: " + ref);
+            }
+            ObjectId blob = blobAt(r, start, file);
+            if (blob == null) throw new FileNotFoundException("File not found: " + file);
+            RevCommit last = lastChange(r, start, file);
+            return blame(r, last, blob, file);
+        }
+    }
+
+    private Blame blame(Repository r, RevCommit last, ObjectId blob, String path) throws IOException {
+        return cache.getOrLoad(key(last, blob, path), () -> {
+            RawText text = text(r, blob);
+            Blame previous = previousBlame(r, last, path);
+            if (previous != null) {
+                incremental.incrementAndGet();
+                return derive(r, previous, last, blob, text, path);
+            }
+            full.incrementAndGet();
+            return compute(r, last, blob, path);
+        }, Blame::weight);
+    }
+
+    // cached blame of the version the single parent of last had, if any
+    private Blame previousBlame(Repository r, RevCommit last, String path) throws IOException {
+        if (last.getParentCount() != 1) return null;
+        RevCommit parent = last.getParent(0);
+        ObjectId previousBlob = blobAt(r, parent, path);
+        if (previousBlob == null) return null;
+        RevCommit previousLast = lastChange(r, parent, path);
+        return previousLast == null ? null : cache.getIfPresent(key(previousLast, previousBlob, path));
+    }
+
+    private Blame derive(Repository r, Blame previous, RevCommit last, ObjectId blob, RawText text, String path) throws IOException {
+        RawText before = text(r, ObjectId.fromString(previous.blobId()));
+        EditList edits = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+                .diff(RawTextComparator.DEFAULT, before, text);
+
+        List<CommitInfo> commits = new ArrayList<>(previous.commits());
+        List<String> paths = new ArrayList<>(previous.paths());
+        int commitIndex = indexOf(commits, info(r, last));
+        int pathIndex = paths.indexOf(path);
+        if (pathIndex < 0) {
+            paths.add(path);
+            pathIndex = paths.size() - 1;
+        }
+
+        int n = text.size();
+        int[] lineCommit = new int[n];
+        int[] sourceLine = new int[n];
+        int[] linePath = new int[n];
+        int a = 0;
+        int b = 0;
+        for (Edit edit : edits) {
+            for (; b < edit.getBeginB(); a++, b++) {
+                lineCommit[b] = previous.lineCommit()[a];
+                sourceLine[b] = previous.sourceLine()[a];
+                linePath[b] = previous.linePath()[a];
+            }
+            for (; b < edit.getEndB(); b++) {
+                lineCommit[b] = commitIndex;
+                sourceLine[b] = b;
+                linePath[b] = pathIndex;
+            }
+            a = edit.getEndA();
+        }
+        for (; b < n; a++, b++) {
+            lineCommit[b] = previous.lineCommit()[a];
+            sourceLine[b] = previous.sourceLine()[a];
+            linePath[b] = previous.linePath()[a];
+        }
+        return new Blame(path, blob.name(), last.name(), List.copyOf(commits), List.copyOf(paths), lineCommit, sourceLine, linePath);
+    }
+
+    private Blame compute(Repository r, RevCommit last, ObjectId blob, String path) throws IOException {
+        BlameResult result;
+        try {
+            result = new BlameCommand(r)
+                    .setStartCommit(last)
+                    .setFilePath(path)
+                    .setFollowFileRenames(true)
+                    .call();
+        } catch (GitAPIException e) {
+            throw new IOException("Failed to blame " + path + ": " + e.getMessage(), e);
+        }
+        if (result == null) throw new FileNotFoundException("File not found: " + path);
+        result.computeAll();
+
+        int n = result.getResultContents().size();
+        List<CommitInfo> commits = new ArrayList<>();
+        Map<ObjectId, Integer> commitIndexes = new HashMap<>();
+        List<String> paths = new ArrayList<>();
+        int[] lineCommit = new int[n];
+        int[] sourceLine = new int[n];
+        int[] linePath = new int[n];
+        for (int i = 0; i < n; i++) {
+            RevCommit source = result.getSourceCommit(i);
+            if (source == null) source = last;
+            Integer index = commitIndexes.get(source);
+            if (index == null) {
+                index = commits.size();
+                commits.add(info(r, source));
+                commitIndexes.put(source.copy(), index);
+            }
+            String sourcePath = result.getSourcePath(i);
+            int pathIndex = paths.indexOf(sourcePath == null ? path : sourcePath);
+            if (pathIndex < 0) {
+                paths.add(sourcePath == null ? path : sourcePath);
+                pathIndex = paths.size() - 1;
+            }
+            lineCommit[i] = index;
+            sourceLine[i] = result.getSourceLine(i);
+            linePath[i] = pathIndex;
+        }
+        return new Blame(path, blob.name(), last.name(), List.copyOf(commits), List.copyOf(paths), lineCommit, sourceLine, linePath);
+    }
+
+    /**
+     * Consecutive lines from the same commit and file, continuing in the source, folded into ranges.
+     */
+    public static List<Map<String, Object>> ranges(Blame blame) {
+        List<Map<String, Object>> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < blame.lines()) {
+            int j = i + 1;
+            while (j < blame.lines()
+                    && blame.lineCommit()[j] == blame.lineCommit()[i]
+                    && blame.linePath()[j] == blame.linePath()[i]
+                    && blame.sourceLine()[j] == blame.sourceLine()[i] + (j - i)) {
+                j++;
+            }
+            Map<String, Object> range = new LinkedHashMap<>();
+            range.put("start", i + 1);
+            range.put("lines", j - i);
+            range.put("commit", blame.commits().get(blame.lineCommit()[i]).id());
+            range.put("source_start", blame.sourceLine()[i] + 1);
+            range.put("source_path", blame.paths().get(blame.linePath()[i]));
+            ranges.add(range);
+            i = j;
+        }
+        return ranges;
+    }
+
+    public long fullBlames() {
+        return full.get();
+    }
+
+    public long incrementalBlames() {
+        return incremental.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        cache.bindTo(registry, "git.blame.cache");
+        FunctionCounter.builder("git.blame.computed", full, AtomicLong::get).tag("mode", "full").register(registry);
+        FunctionCounter.builder("git.blame.computed", incremental, AtomicLong::get).tag("mode", "incremental").register(registry);
+    }
+
+    // most recent commit reachable from start that changed path (the one git log -1 -- path shows)
+    private static RevCommit lastChange(Repository r, RevCommit start, String path) throws IOException {
+        try (RevWalk walk = new RevWalk(r)) {
+            walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+            walk.markStart(walk.parseCommit(start));
+            RevCommit last = walk.next();
+            if (last != null) walk.parseBody(last);
+            return last;
+        }
+    }
+
+    private static ObjectId blobAt(Repository r, RevCommit commit, String path) throws IOException {
+        try (RevWalk walk = new RevWalk(r); TreeWalk tw = TreeWalk.forPath(r, path, walk.parseCommit(commit).getTree())) {
+            if (tw == null || (tw.getFileMode(0).getBits() & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) return null;
+            return tw.getObjectId(0);
+        }
+    }
+
+    private RawText text(Repository r, ObjectId blob) throws IOException {
+        try (ObjectReader reader = r.newObjectReader()) {
+            ObjectLoader loader = reader.open(blob, Constants.OBJ_BLOB);
+            if (loader.getSize() > maxFileBytes) throw new IllegalArgumentException("File is too large to blame");
+            byte[] bytes = loader.getCachedBytes(maxFileBytes);
+            if (RawText.isBinary(bytes, bytes.length, true)) throw new IllegalArgumentException("Binary files cannot be blamed");
+            return new RawText(bytes);
+        }
+    }
+
+    private static CommitInfo info(Repository r, RevCommit commit) throws IOException {
+        if (commit.getRawBuffer() == null) {
+            try (RevWalk walk = new RevWalk(r)) {
+                commit = walk.parseCommit(commit);
+            }
+        }
+        return new CommitInfo(commit.name(), commit.getAuthorIdent().getName(), commit.getAuthorIdent().getEmailAddress(),
+                commit.getAuthorIdent().getWhenAsInstant().getEpochSecond(), commit.getShortMessage());
+    }
+
+    private static int indexOf(List<CommitInfo> commits, CommitInfo info) {
+        for (int i = 0; i < commits.size(); i++) {
+            if (commits.get(i).id().equals(info.id())) return i;
+        }
+        commits.add(info);
+        return commits.size() - 1;
+    }
+
+    private static String key(ObjectId last, ObjectId blob, String path) {
+        return last.name() + ":" + blob.name() + ":" + path;
+    }
+}
@@ -1,18 +1,82 @@
 package tech.nicorp.pm.git;
 
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.TransferConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 
+/**
+ * Repository storage layout. New repositories are bare directories {@code <root>/<repoId>.git};
+ * repositories created before that live in {@code <root>/<repoId>/.git} with a working tree next to
+ * it until {@link GitStorageMigrationService} converts them. Both layouts are resolved transparently.
+ */
 @Configuration
 public class GitConfig {
     @Value("${git.repos.root:/git-repos}")
     private String reposRoot;
 
+    @Value("${git.repos.bare:true}")
+    private boolean bare = true;
+
+    @Value("${git.http.protocol-v2:true}")
+    private boolean protocolV2 = true;
+
+    @Value("${git.http.allow-filter:true}")
+    private boolean allowFilter = true;
+
+    public Path getReposRoot() {
+        return Path.of(reposRoot);
+    }
+
+    public boolean isBare() {
+        return bare;
+    }
+
+    /**
+     * Git directory of the repository: the bare directory if present, otherwise the legacy
+     * {@code .git} directory, otherwise the place a new repository would be created.
+     */
     public Path getRepoPath(String repoId) {
+        Path bareDir = getBareRepoPath(repoId);
+        if (Files.isDirectory(bareDir)) return bareDir;
+        Path legacyDir = getWorkTreePath(repoId).resolve(".git");
+        if (bare && !Files.exists(legacyDir)) return bareDir;
+        return legacyDir;
+    }
+
+    public Path getBareRepoPath(String repoId) {
+        return Path.of(reposRoot).resolve(repoId + ".git");
+    }
+
+    /**
+     * Working tree of a repository in the legacy non-bare layout.
+     */
+    public Path getWorkTreePath(String repoId) {
         return Path.of(reposRoot).resolve(repoId);
     }
-}
 
+    public boolean isProtocolV2() {
+        return protocolV2;
+    }
+
+    public boolean isBareRepoPath(Path gitDir) {
+        return !gitDir.getFileName().toString().equals(".git");
+    }
 
+    /**
+     * Upload-pack settings for the HTTP endpoints on top of the repository config: protocol v2
+     * (negotiated through the {@code Git-Protocol} header) and object filters for partial clones.
+     * Reachable-sha wants are allowed so partial clones can fetch missing blobs on demand.
+     */
+    public TransferConfig transferConfig(Repository repo) {
+        Config cfg = new Config(repo.getConfig());
+        cfg.setString("protocol", null, "version", protocolV2 ? "2" : "0");
+        cfg.setBoolean("uploadpack", null, "allowFilter", allowFilter);
+        cfg.setBoolean("uploadpack", null, "allowReachableSHA1InWant", true);
+        return new TransferConfig(cfg);
+    }
+}
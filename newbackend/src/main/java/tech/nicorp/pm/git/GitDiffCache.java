@@ -0,0 +1,103 @@
+package tech.nicorp.pm.git;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Memory-weighted LRU cache of diff results keyed by the (old tree, new tree) pair.
+ * A root commit uses the zero id as its old tree.
+ * <p>
+ * Tree ids are content hashes, so a cached diff never goes stale. Metrics are published as
+ * {@code git.diff.cache.*} (see {@link WeightedLruCache#bindTo}).
+ */
+@Component
+public class GitDiffCache implements MeterBinder {
+
+    private final WeightedLruCache cache;
+
+    public GitDiffCache(@Value("${git.diff-cache.max-bytes:33554432}") long maxBytes) {
+        this.cache = new WeightedLruCache(maxBytes);
+    }
+
+    /**
+     * Raw tree-to-tree scan result, without rename detection.
+     */
+    public List<DiffEntry> entries(AnyObjectId oldTree, AnyObjectId newTree, GitObjectCache.Loader<List<DiffEntry>> loader) throws IOException {
+        return cache.getOrLoad(key("e", oldTree, newTree, null), loader, GitDiffCache::weighEntries);
+    }
+
+    /**
+     * Per-file summaries (paths, change type, stats); only admitted when {@code complete} accepts them.
+     */
+    public List<Map<String, Object>> summary(AnyObjectId oldTree, AnyObjectId newTree,
+                                             GitObjectCache.Loader<List<Map<String, Object>>> loader,
+                                             Predicate<List<Map<String, Object>>> complete) throws IOException {
+        return cache.getOrLoad(key("s", oldTree, newTree, null), loader, GitDiffCache::weighFiles, complete);
+    }
+
+    /**
+     * One file's diff; {@code variant} separates e.g. responses with and without contents.
+     */
+    public Map<String, Object> file(AnyObjectId oldTree, AnyObjectId newTree, String variant, String path,
+                                    GitObjectCache.Loader<Map<String, Object>> loader,
+                                    Predicate<Map<String, Object>> complete) throws IOException {
+        return cache.getOrLoad(key("f" + variant, oldTree, newTree, path), loader, GitDiffCache::weighFile, complete);
+    }
+
+    public long hits() {
+        return cache.hits();
+    }
+
+    public long misses() {
+        return cache.misses();
+    }
+
+    public long usedBytes() {
+        return cache.usedBytes();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        cache.bindTo(registry, "git.diff.cache");
+    }
+
+    private static String key(String kind, AnyObjectId oldTree, AnyObjectId newTree, String path) {
+        return kind + ":" + oldTree.name() + ":" + newTree.name() + (path == null ? "" : ":" + path);
+    }
+
+    private static long weighEntries(List<DiffEntry> entries) {
+        long weight = 64;
+        for (DiffEntry e : entries) {
+            weight += 160 + length(e.getOldPath()) * 2L + length(e.getNewPath()) * 2L;
+        }
+        return weight;
+    }
+
+    private static long weighFiles(List<Map<String, Object>> files) {
+        long weight = 64;
+        for (Map<String, Object> file : files) weight += weighFile(file);
+        return weight;
+    }
+
+    private static long weighFile(Map<String, Object> file) {
+        long weight = 96;
+        for (Object v : file.values()) {
+            if (v instanceof String s) weight += 40 + s.length() * 2L;
+            else weight += 16;
+        }
+        return weight;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+}
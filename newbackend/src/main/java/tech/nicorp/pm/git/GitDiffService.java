@@ -0,0 +1,395 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commit diffs split into a cheap summary (paths, change type, line stats, binary flag)
+ * and per-file patches produced under size and time budgets.
+ * <p>
+ * Blobs above {@code git.diff.max-file-bytes} are never loaded for line diffs; patches are cut
+ * at {@code git.diff.max-patch-bytes} or once {@code git.diff.file-timeout-millis} has elapsed,
+ * and the result is marked with {@code truncated}/{@code truncatedReason}. The time budget is checked
+ * while writing, and before computing and before formatting the edits of a file.
+ */
+@Service
+public class GitDiffService {
+    public static final String TRUNCATED_SIZE = "size";
+    public static final String TRUNCATED_TIME = "time";
+    public static final String TRUNCATED_TOO_LARGE = "too_large";
+    public static final String TRUNCATED_RESPONSE_BUDGET = "response_budget";
+
+    private static final int BINARY_SNIFF_BYTES = 8000;
+    private static final int CONTEXT_LINES = 3;
+
+    private final GitRepositoryPool pool;
+    private final GitDiffCache cache;
+    private final int maxFileBytes;
+    private final int maxPatchBytes;
+    private final long fileTimeoutNanos;
+    private final long summaryTimeoutNanos;
+    private final int maxContentBytes;
+    private final long maxDetailsBytes;
+
+    public GitDiffService(GitRepositoryPool pool, GitDiffCache cache,
+                          @Value("${git.diff.max-file-bytes:1048576}") int maxFileBytes,
+                          @Value("${git.diff.max-patch-bytes:262144}") int maxPatchBytes,
+                          @Value("${git.diff.file-timeout-millis:2000}") long fileTimeoutMillis,
+                          @Value("${git.diff.summary-timeout-millis:5000}") long summaryTimeoutMillis,
+                          @Value("${git.diff.max-content-bytes:524288}") int maxContentBytes,
+                          @Value("${git.diff.max-details-bytes:8388608}") long maxDetailsBytes) {
+        this.pool = pool;
+        this.cache = cache;
+        this.maxFileBytes = maxFileBytes;
+        this.maxPatchBytes = maxPatchBytes;
+        this.fileTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(fileTimeoutMillis);
+        this.summaryTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(summaryTimeoutMillis);
+        this.maxContentBytes = maxContentBytes;
+        this.maxDetailsBytes = maxDetailsBytes;
+    }
+
+    /**
+     * Changed files of a commit against its first parent with line stats. Stats of files past the
+     * summary time budget are omitted and the result carries {@code statsTruncated: true}.
+     */
+    public Map<String, Object> summary(UUID repoId, String sha) throws IOException {
+        try (Repository r = pool.open(repoId); RevWalk walk = new RevWalk(r); ObjectReader reader = r.newObjectReader()) {
+            RevCommit commit = parseCommit(r, walk, sha);
+            ObjectId oldTree = parentTree(walk, commit);
+            List<DiffEntry> entries = scan(r, oldTree, commit.getTree());
+            List<Map<String, Object>> files = cache.summary(oldTree, commit.getTree(),
+                    () -> summarize(r, reader, entries), GitDiffService::hasAllStats);
+
+            int additions = 0;
+            int deletions = 0;
+            for (Map<String, Object> file : files) {
+                if (file.get("additions") instanceof Integer n) additions += n;
+                if (file.get("deletions") instanceof Integer n) deletions += n;
+            }
+            Map<String, Object> res = new LinkedHashMap<>();
+            res.put("commit", commitInfo(commit));
+            res.put("files", files);
+            res.put("additions", additions);
+            res.put("deletions", deletions);
+            res.put("statsTruncated", !hasAllStats(files));
+            return res;
+        }
+    }
+
+    /**
+     * Patch of a single file of a commit. Full old/new contents are included only when
+     * {@code contents} is set and both sides are text below {@code git.diff.max-content-bytes}.
+     */
+    public Map<String, Object> fileDiff(UUID repoId, String sha, String path, boolean contents) throws IOException {
+        try (Repository r = pool.open(repoId); RevWalk walk = new RevWalk(r); ObjectReader reader = r.newObjectReader()) {
+            RevCommit commit = parseCommit(r, walk, sha);
+            ObjectId oldTree = parentTree(walk, commit);
+            for (DiffEntry entry : scan(r, oldTree, commit.getTree())) {
+                if (path.equals(entry.getNewPath()) || path.equals(entry.getOldPath())) {
+                    return cachedFile(r, reader, oldTree, commit.getTree(), entry, contents);
+                }
+            }
+            throw new FileNotFoundException("File not changed in commit");
+        }
+    }
+
+    /**
+     * Legacy all-in-one response used by the commit page: same shape as before, but every patch is
+     * budgeted and the whole response stops growing past {@code git.diff.max-details-bytes}.
+     */
+    public Map<String, Object> details(UUID repoId, String sha) throws IOException {
+        try (Repository r = pool.open(repoId); RevWalk walk = new RevWalk(r); ObjectReader reader = r.newObjectReader()) {
+            RevCommit commit = parseCommit(r, walk, sha);
+            ObjectId oldTree = parentTree(walk, commit);
+            List<Map<String, Object>> files = new ArrayList<>();
+            long budget = maxDetailsBytes;
+            for (DiffEntry entry : scan(r, oldTree, commit.getTree())) {
+                Map<String, Object> file;
+                if (budget >= maxPatchBytes) {
+                    // cached maps are shared, copy before adding the legacy defaults below
+                    file = new LinkedHashMap<>(cachedFile(r, reader, oldTree, commit.getTree(), entry, true));
+                    budget -= weight(file);
+                } else if (budget > 0) {
+                    file = formatFile(r, reader, entry, true, (int) budget);
+                    budget -= weight(file);
+                } else {
+                    file = describe(entry);
+                    file.put("patch", "");
+                    file.put("truncated", true);
+                    file.put("truncatedReason", TRUNCATED_RESPONSE_BUDGET);
+                }
+                file.putIfAbsent("oldContent", "");
+                file.putIfAbsent("newContent", "");
+                files.add(file);
+            }
+            Map<String, Object> res = new LinkedHashMap<>();
+            res.put("commit", commitInfo(commit));
+            res.put("files", files);
+            return res;
+        }
+    }
+
+    /**
+     * Tree-to-tree changes, served from the diff cache. {@code oldTree} is the zero id for a root commit.
+     */
+    public List<DiffEntry> scan(Repository r, ObjectId oldTree, ObjectId newTree) throws IOException {
+        return cache.entries(oldTree, newTree, () -> {
+            try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE); ObjectReader reader = r.newObjectReader()) {
+                df.setRepository(r);
+                if (ObjectId.zeroId().equals(oldTree)) {
+                    return df.scan(new EmptyTreeIterator(), new CanonicalTreeParser(null, reader, newTree));
+                }
+                return df.scan(oldTree, newTree);
+            }
+        });
+    }
+
+    private List<Map<String, Object>> summarize(Repository r, ObjectReader reader, List<DiffEntry> entries) throws IOException {
+        long deadline = System.nanoTime() + summaryTimeoutNanos;
+        List<Map<String, Object>> files = new ArrayList<>(entries.size());
+        boolean statsTruncated = false;
+        for (DiffEntry entry : entries) {
+            Map<String, Object> file = describe(entry);
+            if (!statsTruncated && System.nanoTime() > deadline) {
+                statsTruncated = true;
+            }
+            Side a = null;
+            Side b = null;
+            if (!statsTruncated) {
+                a = load(reader, entry.getOldId());
+                b = load(reader, entry.getNewId());
+                // loading large blobs counts against the budget too
+                statsTruncated = System.nanoTime() > deadline;
+            }
+            if (!statsTruncated) {
+                file.put("binary", a.binary() || b.binary());
+                if (!a.binary() && !b.binary() && !a.tooLarge() && !b.tooLarge()) {
+                    EditList edits = lineDiff(r, entry);
+                    file.put("additions", added(edits));
+                    file.put("deletions", deleted(edits));
+                } else if (a.tooLarge() || b.tooLarge()) {
+                    file.put("tooLarge", true);
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static boolean hasAllStats(List<Map<String, Object>> files) {
+        for (Map<String, Object> file : files) {
+            if (!file.containsKey("binary")) return false;
+        }
+        return true;
+    }
+
+    private Map<String, Object> cachedFile(Repository r, ObjectReader reader, ObjectId oldTree, ObjectId newTree,
+                                           DiffEntry entry, boolean contents) throws IOException {
+        String path = entry.getChangeType() == DiffEntry.ChangeType.DELETE ? entry.getOldPath() : entry.getNewPath();
+        // a time-truncated patch depends on load, so only deterministic results are kept
+        return cache.file(oldTree, newTree, contents ? "c" : "", path,
+                () -> formatFile(r, reader, entry, contents, maxPatchBytes),
+                file -> !TRUNCATED_TIME.equals(file.get("truncatedReason")));
+    }
+
+    private Map<String, Object> formatFile(Repository r, ObjectReader reader, DiffEntry entry, boolean contents, int patchBudget) throws IOException {
+        Map<String, Object> file = describe(entry);
+        long deadline = System.nanoTime() + fileTimeoutNanos;
+        Side a = load(reader, entry.getOldId());
+        Side b = load(reader, entry.getNewId());
+        boolean binary = a.binary() || b.binary();
+        file.put("binary", binary);
+        if (binary) {
+            file.put("patch", "");
+            return file;
+        }
+        if (a.tooLarge() || b.tooLarge()) {
+            file.put("patch", "");
+            file.put("truncated", true);
+            file.put("truncatedReason", TRUNCATED_TOO_LARGE);
+            return file;
+        }
+
+        BudgetedOutputStream out = new BudgetedOutputStream(patchBudget, deadline);
+        String truncatedReason = null;
+        try (DiffFormatter df = formatter(r, out)) {
+            out.checkDeadline();
+            FileHeader header = df.toFileHeader(entry);
+            EditList edits = header.toEditList();
+            file.put("additions", added(edits));
+            file.put("deletions", deleted(edits));
+            out.checkDeadline();
+            df.format(header, new RawText(a.bytes()), new RawText(b.bytes()));
+            df.flush();
+        } catch (BudgetExceededException e) {
+            truncatedReason = e.reason;
+        }
+        String patch = out.toString(StandardCharsets.UTF_8);
+        if (truncatedReason != null) {
+            patch = patch + (patch.isEmpty() || patch.endsWith("\n") ? "" : "\n") + "\\ Diff truncated (" + truncatedReason + ")\n";
+        }
+        file.put("patch", patch);
+        file.put("truncated", truncatedReason != null);
+        if (truncatedReason != null) file.put("truncatedReason", truncatedReason);
+
+        if (contents) {
+            if (a.bytes().length <= maxContentBytes && b.bytes().length <= maxContentBytes) {
+                file.put("oldContent", new String(a.bytes(), StandardCharsets.UTF_8));
+                file.put("newContent", new String(b.bytes(), StandardCharsets.UTF_8));
+            } else {
+                file.put("contentsOmitted", true);
+            }
+        }
+        return file;
+    }
+
+    private record Side(byte[] bytes, boolean binary, boolean tooLarge) {
+        static final Side EMPTY = new Side(new byte[0], false, false);
+    }
+
+    private Side load(ObjectReader reader, AbbreviatedObjectId id) throws IOException {
+        if (id == null || !id.isComplete() || ObjectId.zeroId().equals(id.toObjectId())) return Side.EMPTY;
+        ObjectLoader loader = reader.open(id.toObjectId(), Constants.OBJ_BLOB);
+        if (loader.getSize() > maxFileBytes) {
+            byte[] head = new byte[BINARY_SNIFF_BYTES];
+            int n;
+            try (InputStream in = loader.openStream()) {
+                n = in.readNBytes(head, 0, head.length);
+            }
+            return new Side(null, RawText.isBinary(head, n, false), true);
+        }
+        byte[] bytes = loader.getCachedBytes(maxFileBytes);
+        return new Side(bytes, RawText.isBinary(bytes, bytes.length, true), false);
+    }
+
+    private EditList lineDiff(Repository r, DiffEntry entry) throws IOException {
+        try (DiffFormatter df = formatter(r, DisabledOutputStream.INSTANCE)) {
+            return df.toFileHeader(entry).toEditList();
+        }
+    }
+
+    private DiffFormatter formatter(Repository r, OutputStream out) {
+        DiffFormatter df = new DiffFormatter(out);
+        df.setRepository(r);
+        df.setContext(CONTEXT_LINES);
+        df.setBinaryFileThreshold(maxFileBytes);
+        return df;
+    }
+
+    private static RevCommit parseCommit(Repository r, RevWalk walk, String sha) throws IOException {
+        ObjectId id = r.resolve(sha);
+        if (id == null) throw new FileNotFoundException("Commit not found");
+        return walk.parseCommit(id);
+    }
+
+    private static ObjectId parentTree(RevWalk walk, RevCommit commit) throws IOException {
+        if (commit.getParentCount() == 0) return ObjectId.zeroId();
+        return walk.parseCommit(commit.getParent(0)).getTree().getId();
+    }
+
+    private static Map<String, Object> describe(DiffEntry entry) {
+        Map<String, Object> file = new LinkedHashMap<>();
+        file.put("oldPath", entry.getOldPath() != null ? entry.getOldPath() : "");
+        file.put("newPath", entry.getNewPath() != null ? entry.getNewPath() : "");
+        file.put("changeType", entry.getChangeType().name());
+        return file;
+    }
+
+    private static Map<String, Object> commitInfo(RevCommit commit) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("sha", commit.getName());
+        info.put("message", commit.getFullMessage());
+        info.put("author", commit.getAuthorIdent().getName());
+        info.put("date", commit.getAuthorIdent().getWhen().toInstant().toString());
+        return info;
+    }
+
+    private static int added(EditList edits) {
+        int n = 0;
+        for (Edit e : edits) n += e.getLengthB();
+        return n;
+    }
+
+    private static int deleted(EditList edits) {
+        int n = 0;
+        for (Edit e : edits) n += e.getLengthA();
+        return n;
+    }
+
+    private static long weight(Map<String, Object> file) {
+        long weight = 0;
+        for (Object v : file.values()) {
+            if (v instanceof String s) weight += s.length();
+        }
+        return weight;
+    }
+
+    /**
+     * Collects patch output and aborts the formatter once the byte or time budget is spent.
+     */
+    private static final class BudgetedOutputStream extends ByteArrayOutputStream {
+        private final int maxBytes;
+        private final long deadline;
+
+        BudgetedOutputStream(int maxBytes, long deadline) {
+            this.maxBytes = maxBytes;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int room = maxBytes - count;
+            super.write(b, off, Math.max(0, Math.min(room, len)));
+            if (len > room) throw new BudgetExceededException(TRUNCATED_SIZE);
+            checkDeadline();
+        }
+
+        void checkDeadline() {
+            if (System.nanoTime() > deadline) throw new BudgetExceededException(TRUNCATED_TIME);
+        }
+    }
+
+    private static final class BudgetExceededException extends RuntimeException {
+        final String reason;
+
+        BudgetExceededException(String reason) {
+            super(reason, null, false, false);
+            this.reason = reason;
+        }
+    }
+}
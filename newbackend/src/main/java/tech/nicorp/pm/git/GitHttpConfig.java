@@ -1,38 +1,39 @@
 package tech.nicorp.pm.git;
 
+import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jgit.http.server.GitServlet;
-import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.PostReceiveHook;
 import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.ReceivePack;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.UploadPack;
+import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import tech.nicorp.pm.pipelines.domain.PipelineSource;
-import tech.nicorp.pm.pipelines.service.PipelineService;
-import tech.nicorp.pm.git.GitService;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Map;
 import java.util.List;
 import java.util.UUID;
 
 @Configuration
 public class GitHttpConfig {
 
-    private final GitConfig gitConfig;
+    private final GitConfig config;
+    private final GitRepositoryPool pool;
 
-    private final PipelineService pipelineService;
-    private final GitService gitService;
+    private final CommitGraphService commitGraphs;
+    private final PostReceiveQueue postReceive;
+    private final GitMaintenanceService maintenance;
 
-    public GitHttpConfig(GitConfig gitConfig, PipelineService pipelineService, GitService gitService) {
-        this.gitConfig = gitConfig;
-        this.pipelineService = pipelineService;
-        this.gitService = gitService;
+    public GitHttpConfig(GitConfig config, GitRepositoryPool pool, CommitGraphService commitGraphs,
+                         PostReceiveQueue postReceive, GitMaintenanceService maintenance) {
+        this.config = config;
+        this.pool = pool;
+        this.commitGraphs = commitGraphs;
+        this.postReceive = postReceive;
+        this.maintenance = maintenance;
     }
 
     @Bean
@@ -40,50 +41,52 @@ public class GitHttpConfig {
         GitServlet servlet = new GitServlet();
         servlet.setRepositoryResolver((req, name) -> {
             // name like "/api/git/{repoId}.git"
-            String repoId = name;
-            if (repoId.endsWith(".git")) repoId = repoId.substring(0, repoId.length() - 4);
-            Path gitDir = gitConfig.getRepoPath(repoId);
-            if (!Files.exists(gitDir)) {
-                throw new IOException("Repository not found");
+            String repoId = name.endsWith(".git") ? name.substring(0, name.length() - 4) : name;
+            if (!pool.exists(repoId)) {
+                throw new RepositoryNotFoundException(name);
+            }
+            // GitServlet closes the resolved repository after the request, which releases our pool reference
+            Repository repository;
+            try {
+                repository = pool.open(repoId);
+            } catch (IOException e) {
+                throw new RepositoryNotFoundException(name, e);
             }
-            Repository repository = new FileRepositoryBuilder().setGitDir(gitDir.toFile()).build();
-            // enable receive-pack and upload-pack
-            Config cfg = repository.getConfig();
-            cfg.setBoolean("http", null, "receivepack", true);
-            cfg.setBoolean("http", null, "uploadpack", true);
-            cfg.save();
             ReceivePack rp = new ReceivePack(repository);
             rp.setPostReceiveHook(new PostReceiveHook() {
                 @Override
                 public void onPostReceive(ReceivePack rp, List<ReceiveCommand> commands) {
-                    // trigger pipeline per updated ref
-                    for (ReceiveCommand cmd : commands) {
-                        if (cmd.getType() == ReceiveCommand.Type.UPDATE || cmd.getType() == ReceiveCommand.Type.CREATE) {
-                            try {
-                                UUID id = UUID.fromString(repoId);
-                                String ref = cmd.getRefName().replace("refs/heads/", "");
-                                String oldSha = cmd.getOldId() != null ? cmd.getOldId().getName() : null;
-                                String newSha = cmd.getNewId() != null ? cmd.getNewId().getName() : null;
-                                var changed = gitService.listChangedPaths(id, oldSha, newSha);
-                                pipelineService.trigger(Map.of(
-                                        "repository_id", id.toString(),
-                                        "ref", ref,
-                                        "commit_sha", newSha,
-                                        "source", PipelineSource.PUSH.name(),
-                                        "changed_paths", String.join(" ", changed)
-                                ));
-                            } catch (Exception ignored) {}
-                        }
-                    }
+                    // pipelines, mergeability and webhooks run from the queue, not inside the push
+                    UUID id = UUID.fromString(repoId);
+                    postReceive.enqueue(id, commands);
+                    commitGraphs.refresh(id);
                 }
             });
             servlet.setReceivePackFactory((httpServletRequest, repository1) -> rp);
             return repository;
         });
+        // protocol v2 is negotiated by the servlet from the Git-Protocol header; filters and v2 come from the transfer config
+        servlet.setUploadPackFactory((req, db) -> uploadPack(db));
+        // keep maintenance away from repositories while a push is being received
+        servlet.addReceivePackFilter((request, response, chain) -> {
+            String path = ((HttpServletRequest) request).getPathInfo();
+            String name = path == null ? "" : path.substring(1, Math.max(1, path.indexOf(".git/")));
+            try (GitMaintenanceService.PushHandle push = maintenance.pushStarted(name)) {
+                chain.doFilter(request, response);
+            }
+        });
         ServletRegistrationBean<GitServlet> bean = new ServletRegistrationBean<>(servlet, "/api/git/*");
         bean.setName("GitServlet");
         return bean;
     }
-}
-
 
+    // replaces JGit's DefaultUploadPackFactory, so it keeps its per-repository http.uploadpack switch
+    UploadPack uploadPack(Repository db) throws ServiceNotEnabledException {
+        if (!db.getConfig().getBoolean("http", "uploadpack", true)) {
+            throw new ServiceNotEnabledException();
+        }
+        UploadPack up = new UploadPack(db);
+        up.setTransferConfig(config.transferConfig(db));
+        return up;
+    }
+}
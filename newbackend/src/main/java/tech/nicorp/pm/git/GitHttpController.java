@@ -1,133 +1,163 @@
 package tech.nicorp.pm.git;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.PacketLineOut;
 import org.eclipse.jgit.transport.ReceivePack;
+import org.eclipse.jgit.transport.RefAdvertiser;
 import org.eclipse.jgit.transport.UploadPack;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
 @RestController
 @RequestMapping("/git")
 @RequiredArgsConstructor
 public class GitHttpController {
     private final GitConfig config;
+    private final GitRepositoryPool pool;
+    private final CommitGraphService commitGraphs;
+    private final PostReceiveQueue postReceive;
+    private final GitMaintenanceService maintenance;
+    private final RefAdvertisementCache refAdvertisements;
 
     @GetMapping("/{repoId}.git/info/refs")
     public ResponseEntity<byte[]> infoRefs(
             @PathVariable("repoId") String repoId,
-            @RequestParam(value = "service", required = false) String service) throws IOException {
+            @RequestParam(value = "service", required = false) String service,
+            @RequestHeader(value = "Git-Protocol", required = false) String gitProtocol) throws IOException {
         
-        Path workDir = config.getRepoPath(repoId);
-        Path gitDir = workDir.resolve(".git");
-        if (!Files.exists(gitDir)) {
+        if (!pool.exists(repoId)) {
             return ResponseEntity.notFound().build();
         }
 
-        try (Repository repo = new FileRepositoryBuilder()
-                .setGitDir(gitDir.toFile())
-                .setWorkTree(workDir.toFile())
-                .build()) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!"git-upload-pack".equals(service) && !"git-receive-pack".equals(service)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try (Repository repo = pool.open(repoId)) {
             HttpHeaders headers = new HttpHeaders();
             headers.add("Cache-Control", "no-cache");
-            
-            if ("git-upload-pack".equals(service)) {
-                String serviceName = "# service=git-upload-pack\n";
-                out.write(String.format("%04x", serviceName.length() + 4).getBytes());
-                out.write(serviceName.getBytes());
-                out.write("0000".getBytes());
-                
-                UploadPack uploadPack = new UploadPack(repo);
-                uploadPack.setBiDirectionalPipe(false);
-                uploadPack.sendAdvertisedRefs(new org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser(
-                    new org.eclipse.jgit.transport.PacketLineOut(out)));
-                
-                headers.add("Content-Type", "application/x-git-upload-pack-advertisement");
-                return new ResponseEntity<>(out.toByteArray(), headers, HttpStatus.OK);
+            headers.add("Content-Type", "application/x-" + service + "-advertisement");
+            if ("git-upload-pack".equals(service) && config.isProtocolV2() && requestsV2(gitProtocol)) {
+                // v2 advertises capabilities only; refs are listed on demand by ls-refs
+                byte[] body = advertisement(service, uploadPack(repo, gitProtocol)::sendAdvertisedRefs);
+                return new ResponseEntity<>(body, headers, HttpStatus.OK);
             }
-            
-            if ("git-receive-pack".equals(service)) {
-                String serviceName = "# service=git-receive-pack\n";
-                out.write(String.format("%04x", serviceName.length() + 4).getBytes());
-                out.write(serviceName.getBytes());
-                out.write("0000".getBytes());
-                
-                ReceivePack receivePack = new ReceivePack(repo);
-                receivePack.setBiDirectionalPipe(false);
-                receivePack.sendAdvertisedRefs(new org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser(
-                    new org.eclipse.jgit.transport.PacketLineOut(out)));
-                
-                headers.add("Content-Type", "application/x-git-receive-pack-advertisement");
-                return new ResponseEntity<>(out.toByteArray(), headers, HttpStatus.OK);
-            }
-            
-            return ResponseEntity.badRequest().build();
+            byte[] body = refAdvertisements.get(repo, service, () -> "git-upload-pack".equals(service)
+                    ? advertisement(service, uploadPack(repo, null)::sendAdvertisedRefs)
+                    : advertisement(service, receivePack(repo)::sendAdvertisedRefs));
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
         }
     }
 
+    private interface Advertisement {
+        void send(RefAdvertiser advertiser) throws IOException;
+    }
+
+    private static byte[] advertisement(String service, Advertisement refs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String serviceName = "# service=" + service + "\n";
+        out.write(String.format("%04x", serviceName.length() + 4).getBytes());
+        out.write(serviceName.getBytes());
+        out.write("0000".getBytes());
+        refs.send(new RefAdvertiser.PacketLineOutRefAdvertiser(new PacketLineOut(out)));
+        return out.toByteArray();
+    }
+
+    /**
+     * Upload-pack for one stateless HTTP request; {@code gitProtocol} is the client's {@code Git-Protocol}
+     * header ({@code version=2} selects protocol v2 when enabled).
+     */
+    private UploadPack uploadPack(Repository repo, String gitProtocol) {
+        UploadPack uploadPack = new UploadPack(repo);
+        uploadPack.setBiDirectionalPipe(false);
+        uploadPack.setTransferConfig(config.transferConfig(repo));
+        if (gitProtocol != null && !gitProtocol.isBlank()) {
+            uploadPack.setExtraParameters(Arrays.asList(gitProtocol.split(":")));
+        }
+        return uploadPack;
+    }
+
+    private static boolean requestsV2(String gitProtocol) {
+        return gitProtocol != null && Arrays.asList(gitProtocol.split(":")).contains("version=2");
+    }
+
+    private static ReceivePack receivePack(Repository repo) {
+        ReceivePack receivePack = new ReceivePack(repo);
+        receivePack.setBiDirectionalPipe(false);
+        return receivePack;
+    }
+
     @PostMapping(value = "/{repoId}.git/git-upload-pack")
-    public ResponseEntity<byte[]> uploadPack(
+    public void uploadPack(
             @PathVariable("repoId") String repoId,
-            @RequestBody byte[] body) throws IOException {
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         
-        Path workDir = config.getRepoPath(repoId);
-        Path gitDir = workDir.resolve(".git");
-        if (!Files.exists(gitDir)) {
-            return ResponseEntity.notFound().build();
+        if (!pool.exists(repoId)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        try (Repository repo = new FileRepositoryBuilder()
-                .setGitDir(gitDir.toFile())
-                .setWorkTree(workDir.toFile())
-                .build()) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            UploadPack uploadPack = new UploadPack(repo);
-            uploadPack.setBiDirectionalPipe(false);
-            uploadPack.upload(new ByteArrayInputStream(body), out, null);
+        try (Repository repo = pool.open(repoId); InputStream in = requestBody(request)) {
+            UploadPack uploadPack = uploadPack(repo, request.getHeader("Git-Protocol"));
             
-            HttpHeaders headers = new HttpHeaders();
-            headers.add("Content-Type", "application/x-git-upload-pack-result");
-            headers.add("Cache-Control", "no-cache");
-            return new ResponseEntity<>(out.toByteArray(), headers, HttpStatus.OK);
+            // No Content-Length: the pack is written as it is generated (chunked transfer)
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/x-git-upload-pack-result");
+            response.setHeader("Cache-Control", "no-cache");
+            OutputStream out = response.getOutputStream();
+            uploadPack.upload(in, out, null);
+            out.flush();
         }
     }
 
     @PostMapping(value = "/{repoId}.git/git-receive-pack")
-    public ResponseEntity<byte[]> receivePack(
+    public void receivePack(
             @PathVariable("repoId") String repoId,
-            @RequestBody byte[] body) throws IOException {
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         
-        Path workDir = config.getRepoPath(repoId);
-        Path gitDir = workDir.resolve(".git");
-        if (!Files.exists(gitDir)) {
-            return ResponseEntity.notFound().build();
+        if (!pool.exists(repoId)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        try (Repository repo = new FileRepositoryBuilder()
-                .setGitDir(gitDir.toFile())
-                .setWorkTree(workDir.toFile())
-                .build()) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            ReceivePack receivePack = new ReceivePack(repo);
-            receivePack.setBiDirectionalPipe(false);
-            receivePack.receive(new ByteArrayInputStream(body), out, null);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.add("Content-Type", "application/x-git-receive-pack-result");
-            headers.add("Cache-Control", "no-cache");
-            return new ResponseEntity<>(out.toByteArray(), headers, HttpStatus.OK);
+        try (GitMaintenanceService.PushHandle push = maintenance.pushStarted(repoId);
+             Repository repo = pool.open(repoId); InputStream in = requestBody(request)) {
+            ReceivePack receivePack = receivePack(repo);
+            // refs are updated by now; everything else runs off the push path
+            UUID id = UUID.fromString(repoId);
+            receivePack.setPostReceiveHook((rp, commands) -> postReceive.enqueue(id, commands));
+
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/x-git-receive-pack-result");
+            response.setHeader("Cache-Control", "no-cache");
+            OutputStream out = response.getOutputStream();
+            receivePack.receive(in, out, null);
+            out.flush();
+            commitGraphs.refresh(id);
         }
     }
-}
-
 
+    private static InputStream requestBody(HttpServletRequest request) throws IOException {
+        InputStream in = request.getInputStream();
+        String encoding = request.getHeader("Content-Encoding");
+        if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(in, 8192);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,242 @@
+package tech.nicorp.pm.git;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Periodic repository maintenance: repacks into a single pack with a reachability bitmap, prunes
+ * loose objects and packs refs (JGit {@link GC}, which also rewrites the commit-graph).
+ * <p>
+ * A sweep checks every repository under {@code git.repos.root} and only collects those over the
+ * loose-object or pack-count thresholds, or whose packs have no bitmap yet. At most
+ * {@code git.maintenance.max-concurrent} repositories are collected at a time (the size of the
+ * worker pool); repositories with a push in progress are skipped until the next sweep.
+ */
+@Slf4j
+@Service
+public class GitMaintenanceService {
+
+    public record Stats(long looseObjects, long looseBytes, long packFiles, long packedObjects,
+                        long packedBytes, long bitmaps, long looseRefs) {
+        static Stats of(GC.RepoStatistics s) {
+            return new Stats(s.numberOfLooseObjects, s.sizeOfLooseObjects, s.numberOfPackFiles,
+                    s.numberOfPackedObjects, s.sizeOfPackedObjects, s.numberOfBitmaps, s.numberOfLooseRefs);
+        }
+    }
+
+    public record Run(Instant startedAt, long durationMillis, String reason, Stats before, Stats after, String error) {}
+
+    private final GitConfig config;
+    private final GitRepositoryPool pool;
+    private final long looseObjectsThreshold;
+    private final long packFilesThreshold;
+    private final long bitmapMinObjects;
+    private final ExecutorService executor;
+
+    // read lock per push in progress; the write lock is taken by storage changes that must not overlap a push
+    private final Map<String, ReentrantReadWriteLock> pushLocks = new ConcurrentHashMap<>();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final Map<String, Run> lastRuns = new ConcurrentHashMap<>();
+
+    public GitMaintenanceService(GitConfig config, GitRepositoryPool pool,
+                                 @Value("${git.maintenance.loose-objects-threshold:6700}") long looseObjectsThreshold,
+                                 @Value("${git.maintenance.pack-files-threshold:50}") long packFilesThreshold,
+                                 @Value("${git.maintenance.bitmap-min-objects:1000}") long bitmapMinObjects,
+                                 @Value("${git.maintenance.max-concurrent:1}") int maxConcurrent) {
+        this.config = config;
+        this.pool = pool;
+        this.looseObjectsThreshold = looseObjectsThreshold;
+        this.packFilesThreshold = packFilesThreshold;
+        this.bitmapMinObjects = bitmapMinObjects;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrent), r -> {
+            Thread t = new Thread(r, "git-maintenance-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    public interface PushHandle extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Marks a push as in progress until the returned handle is closed; maintenance skips the repository meanwhile.
+     */
+    public PushHandle pushStarted(String repoId) {
+        Lock lock = pushLock(repoId).readLock();
+        lock.lock();
+        return lock::unlock;
+    }
+
+    public boolean pushInProgress(String repoId) {
+        ReentrantReadWriteLock lock = pushLocks.get(repoId);
+        return lock != null && lock.getReadLockCount() > 0;
+    }
+
+    /**
+     * Takes the repository for an exclusive storage change (e.g. layout migration): returns null if a push
+     * or maintenance run is in progress, otherwise a handle that makes new pushes wait until it is closed.
+     * Must be closed by the thread that acquired it.
+     */
+    public PushHandle tryExclusive(String repoId) {
+        if (!running.add(repoId)) return null;
+        Lock lock = pushLock(repoId).writeLock();
+        if (!lock.tryLock()) {
+            running.remove(repoId);
+            return null;
+        }
+        return () -> {
+            lock.unlock();
+            running.remove(repoId);
+        };
+    }
+
+    private ReentrantReadWriteLock pushLock(String repoId) {
+        return pushLocks.computeIfAbsent(repoId, k -> new ReentrantReadWriteLock());
+    }
+
+    @Scheduled(initialDelayString = "${git.maintenance.initial-delay-millis:600000}",
+            fixedDelayString = "${git.maintenance.interval-millis:3600000}")
+    public void sweep() {
+        Path root = config.getReposRoot();
+        if (!Files.isDirectory(root)) return;
+        Set<String> seen = new HashSet<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                String repoId = repoId(dir);
+                if (repoId == null || !seen.add(repoId) || !pool.exists(repoId)) continue;
+                try {
+                    String reason = reason(repoId);
+                    if (reason != null) schedule(repoId, reason);
+                } catch (Exception e) {
+                    log.warn("Failed to inspect repository {} for maintenance: {}", repoId, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to list repositories for maintenance: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Queues a maintenance run regardless of thresholds. Returns false if the repository is busy.
+     */
+    public boolean schedule(String repoId, String reason) {
+        if (pushInProgress(repoId) || !running.add(repoId)) return false;
+        try {
+            executor.execute(() -> {
+                try {
+                    run(repoId, reason);
+                } finally {
+                    running.remove(repoId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            running.remove(repoId);
+            return false;
+        }
+    }
+
+    public Stats stats(UUID repoId) throws IOException {
+        try (Repository repo = pool.open(repoId)) {
+            return Stats.of(gc(repo).getStatistics());
+        }
+    }
+
+    public Optional<Run> lastRun(UUID repoId) {
+        return Optional.ofNullable(lastRuns.get(repoId.toString()));
+    }
+
+    public boolean isRunning(UUID repoId) {
+        return running.contains(repoId.toString());
+    }
+
+    String reason(String repoId) throws IOException {
+        if (pushInProgress(repoId) || running.contains(repoId)) return null;
+        try (Repository repo = pool.open(repoId)) {
+            if (!(repo instanceof FileRepository)) return null;
+            GC.RepoStatistics s = gc(repo).getStatistics();
+            if (s.numberOfLooseObjects >= looseObjectsThreshold) return "loose_objects";
+            if (s.numberOfPackFiles >= packFilesThreshold) return "pack_files";
+            if (s.numberOfBitmaps == 0 && s.numberOfPackedObjects + s.numberOfLooseObjects >= bitmapMinObjects) return "missing_bitmap";
+            return null;
+        }
+    }
+
+    void run(String repoId, String reason) {
+        Instant started = Instant.now();
+        Stats before = null;
+        try (Repository repo = pool.open(repoId)) {
+            // a push may have started between scheduling and now
+            if (pushInProgress(repoId)) return;
+            GC gc = gc(repo);
+            before = Stats.of(gc.getStatistics());
+            PackConfig pc = new PackConfig(repo);
+            pc.setBuildBitmaps(true);
+            gc.setPackConfig(pc);
+            gc.gc().join();
+            Stats after = Stats.of(gc.getStatistics());
+            long took = System.currentTimeMillis() - started.toEpochMilli();
+            lastRuns.put(repoId, new Run(started, took, reason, before, after, null));
+            log.info("Maintenance of repository {} ({}) took {} ms: {} -> {} loose objects, {} -> {} packs",
+                    repoId, reason, took, before.looseObjects(), after.looseObjects(), before.packFiles(), after.packFiles());
+        } catch (Exception e) {
+            long took = System.currentTimeMillis() - started.toEpochMilli();
+            lastRuns.put(repoId, new Run(started, took, reason, before, null, e.getMessage()));
+            log.warn("Maintenance of repository {} failed: {}", repoId, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static GC gc(Repository repo) {
+        GC gc = new GC((FileRepository) repo);
+        gc.setAuto(false);
+        return gc;
+    }
+
+    /**
+     * Repository id of a directory under the repos root in either layout, or null for anything else.
+     */
+    static String repoId(Path dir) {
+        String name = dir.getFileName().toString();
+        if (name.endsWith(".git")) name = name.substring(0, name.length() - 4);
+        try {
+            UUID.fromString(name);
+            return name;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package tech.nicorp.pm.git;
+
+import lombok.RequiredArgsConstructor;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.RevWalkUtils;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.util.IO;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Merges branches directly in the object database: no clone and no working tree.
+ * <p>
+ * The merge runs in a {@link ResolveMerger} with an in-memory index, new objects go through an
+ * {@link ObjectInserter}, and the target branch is moved with a compare-and-swap {@link RefUpdate}
+ * against the tip the merge was computed from, so a concurrent push makes the merge fail instead of
+ * being overwritten.
+ */
+@Service
+@RequiredArgsConstructor
+public class GitMergeService {
+    private final GitRepositoryPool pool;
+    private final CommitGraphService commitGraphs;
+
+    public enum Mode {
+        /** Fast-forward when possible, otherwise a two-parent merge commit. */
+        MERGE,
+        /** Only move the target if it is an ancestor of the source. */
+        FAST_FORWARD,
+        /** One single-parent commit on top of the target with the merged tree. */
+        SQUASH;
+
+        public static Mode parse(String value) {
+            if (value == null || value.isBlank()) return MERGE;
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    public enum Status { MERGED, FAST_FORWARD, SQUASHED, UP_TO_DATE }
+
+    public record Result(Status status, String commitSha) {}
+
+    /**
+     * Merge could not be completed: conflicts, a non fast-forward in {@link Mode#FAST_FORWARD}
+     * mode, or the target moved while merging. {@link #conflicts()} lists conflicting paths, if any.
+     */
+    public static class MergeFailedException extends IOException {
+        private final List<String> conflicts;
+
+        public MergeFailedException(String message, List<String> conflicts) {
+            super(message);
+            this.conflicts = conflicts;
+        }
+
+        public List<String> conflicts() {
+            return conflicts;
+        }
+    }
+
+    public Result merge(UUID repoId, String source, String target, Mode mode, String message, PersonIdent ident) throws IOException {
+        try (Repository repo = pool.open(repoId); RevWalk walk = new RevWalk(repo); ObjectInserter inserter = repo.newObjectInserter()) {
+            Ref sourceRef = repo.exactRef(Constants.R_HEADS + source);
+            Ref targetRef = repo.exactRef(Constants.R_HEADS + target);
+            if (sourceRef == null || targetRef == null) {
+                throw new MergeFailedException("Branch not found: " + source + " -> " + target, List.of());
+            }
+            RevCommit sourceTip = walk.parseCommit(sourceRef.getObjectId());
+            RevCommit targetTip = walk.parseCommit(targetRef.getObjectId());
+
+            if (walk.isMergedInto(sourceTip, targetTip)) {
+                return new Result(Status.UP_TO_DATE, targetTip.getName());
+            }
+            boolean fastForward = walk.isMergedInto(targetTip, sourceTip);
+            if (mode == Mode.FAST_FORWARD && !fastForward) {
+                throw new MergeFailedException("Cannot fast-forward " + target + " to " + source, List.of());
+            }
+
+            ObjectId newTip;
+            Status status;
+            if (fastForward && mode != Mode.SQUASH) {
+                newTip = sourceTip;
+                status = Status.FAST_FORWARD;
+            } else {
+                ObjectId tree = mergeTrees(repo, inserter, targetTip, sourceTip);
+                CommitBuilder commit = new CommitBuilder();
+                commit.setTreeId(tree);
+                commit.setAuthor(ident);
+                commit.setCommitter(ident);
+                if (mode == Mode.SQUASH) {
+                    commit.setParentId(targetTip);
+                    commit.setMessage(message != null ? message : "Squashed branch '" + source + "' into '" + target + "'");
+                    status = Status.SQUASHED;
+                } else {
+                    commit.setParentIds(targetTip, sourceTip);
+                    commit.setMessage(message != null ? message : "Merge branch '" + source + "' into '" + target + "'");
+                    status = Status.MERGED;
+                }
+                newTip = inserter.insert(commit);
+                inserter.flush();
+            }
+
+            RefUpdate update = repo.updateRef(Constants.R_HEADS + target);
+            update.setExpectedOldObjectId(targetTip);
+            update.setNewObjectId(newTip);
+            update.setRefLogIdent(ident);
+            update.setRefLogMessage("merge " + source + ": " + status.name().toLowerCase(Locale.ROOT), false);
+            RefUpdate.Result result = update.update(walk);
+            switch (result) {
+                case FAST_FORWARD, NEW, FORCED -> { }
+                case LOCK_FAILURE -> throw new MergeFailedException("Target branch " + target + " was updated concurrently", List.of());
+                default -> throw new IOException("Failed to update " + target + ": " + result);
+            }
+            commitGraphs.refresh(repoId);
+            return new Result(status, newTip.getName());
+        }
+    }
+
+    /**
+     * Result of a dry-run merge. Shas are null when the corresponding branch does not exist.
+     */
+    public record Mergeability(String sourceSha, String targetSha, String mergeBaseSha,
+                               int ahead, int behind, List<String> conflicts) {
+        public boolean branchesExist() {
+            return sourceSha != null && targetSha != null;
+        }
+    }
+
+    /**
+     * Computes merge base, ahead/behind counts and conflicts of merging {@code source} into
+     * {@code target} without moving any ref. Conflict detection runs the same in-core merger as
+     * {@link #merge}, but everything it writes stays in memory and is dropped afterwards: a dry run
+     * leaves no objects behind.
+     */
+    public Mergeability check(UUID repoId, String source, String target) throws IOException {
+        try (Repository repo = pool.open(repoId); RevWalk walk = new RevWalk(repo); ObjectInserter inserter = new DryRunInserter(repo)) {
+            Ref sourceRef = repo.exactRef(Constants.R_HEADS + source);
+            Ref targetRef = repo.exactRef(Constants.R_HEADS + target);
+            if (sourceRef == null || targetRef == null) {
+                return new Mergeability(sourceRef != null ? sourceRef.getObjectId().getName() : null,
+                        targetRef != null ? targetRef.getObjectId().getName() : null, null, 0, 0, List.of());
+            }
+            RevCommit sourceTip = walk.parseCommit(sourceRef.getObjectId());
+            RevCommit targetTip = walk.parseCommit(targetRef.getObjectId());
+
+            walk.setRevFilter(RevFilter.MERGE_BASE);
+            walk.markStart(sourceTip);
+            walk.markStart(targetTip);
+            RevCommit base = walk.next();
+            walk.reset();
+            walk.setRevFilter(RevFilter.ALL);
+            int ahead = RevWalkUtils.count(walk, sourceTip, base);
+            int behind = RevWalkUtils.count(walk, targetTip, base);
+
+            List<String> conflicts = List.of();
+            if (ahead > 0 && behind > 0) {
+                try {
+                    mergeTrees(repo, inserter, targetTip, sourceTip);
+                } catch (MergeFailedException e) {
+                    conflicts = e.conflicts();
+                }
+            }
+            return new Mergeability(sourceTip.getName(), targetTip.getName(),
+                    base != null ? base.getName() : null, ahead, behind, conflicts);
+        }
+    }
+
+    private static ObjectId mergeTrees(Repository repo, ObjectInserter inserter, RevCommit ours, RevCommit theirs) throws IOException {
+        // created from an inserter, the merger is in-core: DirCache in memory, no working tree
+        ResolveMerger merger = (ResolveMerger) MergeStrategy.RECURSIVE.newMerger(inserter, repo.getConfig());
+        if (merger.merge(ours, theirs)) {
+            return merger.getResultTreeId();
+        }
+        List<String> conflicts = new ArrayList<>(merger.getUnmergedPaths());
+        if (merger.getFailingPaths() != null) {
+            conflicts.addAll(merger.getFailingPaths().keySet());
+        }
+        throw new MergeFailedException("Merge conflict", conflicts);
+    }
+
+    /**
+     * Computes ids like a real inserter but keeps the objects in memory. Its readers see them on top of
+     * the repository, which the recursive merger needs to read back the virtual merge bases it creates.
+     */
+    private static final class DryRunInserter extends ObjectInserter.Formatter {
+        private final Repository repo;
+        private final Map<ObjectId, ObjectLoader> objects = new HashMap<>();
+
+        DryRunInserter(Repository repo) {
+            this.repo = repo;
+        }
+
+        @Override
+        public ObjectId insert(int type, long length, InputStream in) throws IOException {
+            byte[] data = new byte[Math.toIntExact(length)];
+            IO.readFully(in, data, 0);
+            ObjectId id = idFor(type, data);
+            objects.putIfAbsent(id, new ObjectLoader.SmallObject(type, data));
+            return id;
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            ObjectReader db = repo.newObjectReader();
+            return new ObjectReader.Filter() {
+                @Override
+                protected ObjectReader delegate() {
+                    return db;
+                }
+
+                @Override
+                public ObjectReader newReader() {
+                    return DryRunInserter.this.newReader();
+                }
+
+                @Override
+                public ObjectInserter getCreatedFromInserter() {
+                    return DryRunInserter.this;
+                }
+
+                @Override
+                public boolean has(AnyObjectId id) throws IOException {
+                    return objects.containsKey(id) || db.has(id);
+                }
+
+                @Override
+                public boolean has(AnyObjectId id, int typeHint) throws IOException {
+                    return objects.containsKey(id) || db.has(id, typeHint);
+                }
+
+                @Override
+                public ObjectLoader open(AnyObjectId id) throws IOException {
+                    return open(id, OBJ_ANY);
+                }
+
+                @Override
+                public ObjectLoader open(AnyObjectId id, int typeHint) throws IOException {
+                    ObjectLoader loader = objects.get(id);
+                    if (loader == null) return db.open(id, typeHint);
+                    if (typeHint != OBJ_ANY && loader.getType() != typeHint) {
+                        throw new IncorrectObjectTypeException(id.copy(), typeHint);
+                    }
+                    return loader;
+                }
+
+                @Override
+                public long getObjectSize(AnyObjectId id, int typeHint) throws IOException {
+                    ObjectLoader loader = objects.get(id);
+                    return loader != null ? loader.getSize() : db.getObjectSize(id, typeHint);
+                }
+            };
+        }
+    }
+}
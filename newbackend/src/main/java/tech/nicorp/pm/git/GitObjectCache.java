@@ -0,0 +1,80 @@
+package tech.nicorp.pm.git;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte-budgeted LRU cache of immutable git read results keyed by object id:
+ * directory listings (tree id + display path) and contents of small blobs.
+ * <p>
+ * Object ids are content hashes, so entries never go stale and need no invalidation.
+ */
+@Component
+public class GitObjectCache implements MeterBinder {
+
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private final WeightedLruCache cache;
+    private final int maxBlobBytes;
+
+    public GitObjectCache(@Value("${git.object-cache.max-bytes:67108864}") long maxBytes,
+                          @Value("${git.object-cache.max-blob-bytes:1048576}") int maxBlobBytes) {
+        this.cache = new WeightedLruCache(maxBytes);
+        this.maxBlobBytes = maxBlobBytes;
+    }
+
+    public List<Map<String, Object>> listing(AnyObjectId treeId, String path, Loader<List<Map<String, Object>>> loader) throws IOException {
+        String key = "t:" + treeId.name() + ":" + (path == null ? "" : path);
+        return cache.getOrLoad(key, loader, GitObjectCache::weigh);
+    }
+
+    /**
+     * Returns cached blob bytes; blobs larger than {@code git.object-cache.max-blob-bytes}
+     * are loaded every time and never admitted.
+     */
+    public byte[] blob(AnyObjectId blobId, long size, Loader<byte[]> loader) throws IOException {
+        if (size > maxBlobBytes) {
+            return loader.load();
+        }
+        return cache.getOrLoad("b:" + blobId.name(), loader, bytes -> bytes.length + 64L);
+    }
+
+    public long hits() {
+        return cache.hits();
+    }
+
+    public long misses() {
+        return cache.misses();
+    }
+
+    public long usedBytes() {
+        return cache.usedBytes();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        cache.bindTo(registry, "git.object.cache");
+    }
+
+    private static long weigh(List<Map<String, Object>> listing) {
+        long weight = 64;
+        for (Map<String, Object> entry : listing) {
+            weight += 96;
+            for (Object v : entry.values()) {
+                if (v instanceof String s) weight += 40 + s.length() * 2L;
+                else weight += 16;
+            }
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,154 @@
+package tech.nicorp.pm.git;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Shared cache of open JGit repositories keyed by repoId.
+ * <p>
+ * The pool keeps one reference of its own on every cached {@link Repository};
+ * {@link #open(String)} hands out an extra reference, so callers must close the
+ * returned repository (try-with-resources) exactly as if they had built it themselves.
+ * Evicted repositories are physically closed once the last borrower releases them.
+ */
+@Slf4j
+@Component
+public class GitRepositoryPool {
+    private final GitConfig config;
+    private final int maxOpen;
+    private final long idleMillis;
+
+    // access-order LinkedHashMap: first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry {
+        final Repository repository;
+        volatile long lastAccess;
+
+        Entry(Repository repository) {
+            this.repository = repository;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    public GitRepositoryPool(GitConfig config,
+                             @Value("${git.repos.cache.max-open:64}") int maxOpen,
+                             @Value("${git.repos.cache.idle-seconds:300}") long idleSeconds) {
+        this.config = config;
+        this.maxOpen = Math.max(1, maxOpen);
+        this.idleMillis = idleSeconds * 1000L;
+    }
+
+    public Repository open(UUID repoId) throws IOException {
+        return open(repoId.toString());
+    }
+
+    /**
+     * Returns a shared repository handle. The caller owns one reference and must close it.
+     */
+    public Repository open(String repoId) throws IOException {
+        List<Repository> evicted = new ArrayList<>();
+        Repository repository;
+        synchronized (entries) {
+            Entry entry = entries.get(repoId);
+            if (entry == null) {
+                entry = new Entry(build(repoId));
+                entries.put(repoId, entry);
+                while (entries.size() > maxOpen) {
+                    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                    evicted.add(it.next().getValue().repository);
+                    it.remove();
+                }
+            }
+            entry.lastAccess = System.currentTimeMillis();
+            repository = entry.repository;
+            repository.incrementOpen();
+        }
+        evicted.forEach(Repository::close);
+        return repository;
+    }
+
+    public boolean exists(String repoId) {
+        return Files.isDirectory(config.getRepoPath(repoId));
+    }
+
+    /**
+     * Drops the cached handle, e.g. after the repository has been deleted or re-created on disk.
+     */
+    public void invalidate(UUID repoId) {
+        invalidate(repoId.toString());
+    }
+
+    public void invalidate(String repoId) {
+        Entry removed;
+        synchronized (entries) {
+            removed = entries.remove(repoId);
+        }
+        if (removed != null) {
+            removed.repository.close();
+            log.debug("Invalidated cached repository {}", repoId);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${git.repos.cache.sweep-millis:60000}")
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        List<Repository> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.lastAccess < cutoff) {
+                    evicted.add(entry.repository);
+                    it.remove();
+                }
+            }
+        }
+        evicted.forEach(Repository::close);
+        if (!evicted.isEmpty()) {
+            log.debug("Evicted {} idle repositories", evicted.size());
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        List<Repository> all;
+        synchronized (entries) {
+            all = entries.values().stream().map(e -> e.repository).toList();
+            entries.clear();
+        }
+        all.forEach(Repository::close);
+    }
+
+    private Repository build(String repoId) throws IOException {
+        Path gitDir = config.getRepoPath(repoId);
+        if (!Files.isDirectory(gitDir)) throw new RepositoryNotFoundException(gitDir.toFile());
+        // no work tree even for legacy repositories: all server-side access goes through the object database
+        return new FileRepositoryBuilder()
+                .setGitDir(gitDir.toFile())
+                .setBare()
+                .build();
+    }
+}
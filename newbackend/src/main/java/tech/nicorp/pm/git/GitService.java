@@ -3,39 +3,60 @@ package tech.nicorp.pm.git;
 import lombok.RequiredArgsConstructor;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 @RequiredArgsConstructor
 public class GitService {
     private final GitConfig config;
+    private final GitRepositoryPool pool;
+    private final CommitGraphService commitGraphs;
+    private final GitObjectCache objectCache;
+    private final GitDiffService diffs;
 
     private Repository openRepo(UUID repoId) throws IOException {
-        Path workDir = config.getRepoPath(repoId.toString());
-        Path gitDir = workDir.resolve(".git");
-        if (!Files.exists(gitDir)) throw new IOException("Repo not found");
-        return new FileRepositoryBuilder()
-                .setGitDir(gitDir.toFile())
-                .setWorkTree(workDir.toFile())
-                .build();
+        return pool.open(repoId);
+    }
+
+    public void forgetRepository(UUID repoId) {
+        pool.invalidate(repoId);
     }
 
     public List<String> branches(UUID repoId) throws IOException {
@@ -87,59 +108,74 @@ public class GitService {
         }
     }
 
+    public record Listing(String objectId, List<Map<String, Object>> entries) {}
+
+    public record Blob(String objectId, byte[] bytes) {}
+
     public List<Map<String, Object>> listFiles(UUID repoId, String ref, String path) throws IOException {
+        return listing(repoId, ref, path).entries();
+    }
+
+    /**
+     * Directory listing together with the id of the listed tree; listings are cached by tree id.
+     */
+    public Listing listing(UUID repoId, String ref, String path) throws IOException {
         try (Repository r = openRepo(repoId)) {
             ObjectId commitId = r.resolve(ref);
             if (commitId == null) {
                 List<String> branches = branches(repoId);
                 if (branches.isEmpty()) {
-                    return List.of();
+                    return new Listing(null, List.of());
                 }
                 String defaultBranch = branches.contains("main") ? "main" : 
                                       branches.contains("master") ? "master" : branches.get(0);
                 commitId = r.resolve(defaultBranch);
                 if (commitId == null) {
-                    return List.of();
+                    return new Listing(null, List.of());
                 }
             }
             
             try (RevWalk walk = new RevWalk(r)) {
                 RevCommit commit = walk.parseCommit(commitId);
-                RevTree tree = commit.getTree();
+                ObjectId treeId = commit.getTree();
                 
                 if (path != null && !path.isEmpty()) {
-                    try (TreeWalk pathWalk = TreeWalk.forPath(r, path, tree)) {
+                    try (TreeWalk pathWalk = TreeWalk.forPath(r, path, commit.getTree())) {
                         if (pathWalk == null) {
-                            return List.of();
+                            return new Listing(null, List.of());
                         }
                         if (pathWalk.isSubtree()) {
-                            tree = walk.parseTree(pathWalk.getObjectId(0));
+                            treeId = pathWalk.getObjectId(0);
                         } else {
-                            return List.of();
+                            return new Listing(null, List.of());
                         }
                     }
                 }
                 
-                try (TreeWalk tw = new TreeWalk(r)) {
-                    tw.addTree(tree);
-                    tw.setRecursive(false);
-                    
-                    List<Map<String, Object>> res = new ArrayList<>();
-                    while (tw.next()) {
-                        String fileName = tw.getNameString();
-                        String fullPath = path != null && !path.isEmpty() 
-                            ? path + "/" + fileName 
-                            : fileName;
-                        boolean isDir = tw.isSubtree();
+                ObjectId listedTree = treeId;
+                List<Map<String, Object>> entries = objectCache.listing(listedTree, path, () -> {
+                    try (TreeWalk tw = new TreeWalk(r)) {
+                        tw.addTree(listedTree);
+                        tw.setRecursive(false);
                         
-                        res.add(Map.of(
-                            "path", fullPath,
-                            "name", fileName,
-                            "type", isDir ? "tree" : "blob"
-                        ));
+                        List<Map<String, Object>> res = new ArrayList<>();
+                        while (tw.next()) {
+                            String fileName = tw.getNameString();
+                            String fullPath = path != null && !path.isEmpty() 
+                                ? path + "/" + fileName 
+                                : fileName;
+                            boolean isDir = tw.isSubtree();
+                            
+                            res.add(Map.of(
+                                "path", fullPath,
+                                "name", fileName,
+                                "type", isDir ? "tree" : "blob"
+                            ));
+                        }
+                        return List.copyOf(res);
                     }
-                    return res;
-                }
+                });
+                return new Listing(listedTree.getName(), entries);
             }
         } catch (Exception e) {
             throw new IOException("Failed to list files: " + e.getMessage(), e);
@@ -147,18 +183,70 @@ public class GitService {
     }
 
     public String fileContent(UUID repoId, String ref, String path) throws IOException {
+        return new String(blob(repoId, ref, path).bytes());
+    }
+
+    public byte[] fileBytes(UUID repoId, String ref, String path) throws IOException {
+        return blob(repoId, ref, path).bytes();
+    }
+
+    /**
+     * Blob contents together with the blob id; small blobs are served from the object cache.
+     */
+    public Blob blob(UUID repoId, String ref, String path) throws IOException {
         try (Repository r = openRepo(repoId)) {
             ObjectId objId = r.resolve(ref + ":" + path);
             if (objId == null) throw new IOException("File not found");
-            return new String(r.open(objId).getBytes());
+            try (ObjectReader reader = r.newObjectReader()) {
+                long size = reader.getObjectSize(objId, Constants.OBJ_BLOB);
+                byte[] bytes = objectCache.blob(objId, size, () -> reader.open(objId, Constants.OBJ_BLOB).getBytes());
+                return new Blob(objId.getName(), bytes);
+            }
         }
     }
 
-    public byte[] fileBytes(UUID repoId, String ref, String path) throws IOException {
-        try (Repository r = openRepo(repoId)) {
+    /**
+     * Open handle on a blob for streaming. Keeps the repository referenced until closed;
+     * {@link #openStream()} inflates on the fly, so large blobs are never materialised on the heap.
+     */
+    public static final class BlobStream implements AutoCloseable {
+        private final Repository repository;
+        private final ObjectLoader loader;
+        private final String objectId;
+
+        private BlobStream(Repository repository, ObjectLoader loader, String objectId) {
+            this.repository = repository;
+            this.loader = loader;
+            this.objectId = objectId;
+        }
+
+        public String objectId() {
+            return objectId;
+        }
+
+        public long size() {
+            return loader.getSize();
+        }
+
+        public InputStream openStream() throws IOException {
+            return loader.openStream();
+        }
+
+        @Override
+        public void close() {
+            repository.close();
+        }
+    }
+
+    public BlobStream openBlob(UUID repoId, String ref, String path) throws IOException {
+        Repository r = openRepo(repoId);
+        try {
             ObjectId objId = r.resolve(ref + ":" + path);
-            if (objId == null) throw new IOException("File not found");
-            return r.open(objId).getBytes();
+            if (objId == null) throw new FileNotFoundException("File not found");
+            return new BlobStream(r, r.open(objId, Constants.OBJ_BLOB), objId.getName());
+        } catch (IOException | RuntimeException e) {
+            r.close();
+            throw e;
         }
     }
 
@@ -170,14 +258,42 @@ public class GitService {
         }
     }
 
-    public List<Map<String, Object>> commits(UUID repoId, String ref) throws IOException {
-        try (Repository r = openRepo(repoId); Git git = new Git(r)) {
+    public record CommitPage(List<Map<String, Object>> commits, String next) {}
+
+    /**
+     * One page of history for {@code ref}, newest first. {@code after} is the cursor returned
+     * as {@link CommitPage#next()} by the previous page: the walk starts from {@code ref} again and
+     * skips up to and including that commit, so side branches of merges that span a page boundary
+     * are not lost. A cursor that is no longer reachable from {@code ref} yields an empty page.
+     * An optional {@code path} limits the history to commits touching that path.
+     */
+    public CommitPage commits(UUID repoId, String ref, String after, int limit, String path) throws IOException {
+        try (Repository r = openRepo(repoId); RevWalk walk = new RevWalk(r)) {
+            commitGraphs.ensure(repoId, r);
             ObjectId refId = r.resolve(ref);
-            if (refId == null) return List.of();
-            
-            Iterable<RevCommit> log = git.log().add(refId).call();
+            if (refId == null) return new CommitPage(List.of(), null);
+            walk.markStart(walk.parseCommit(refId));
+            // skipping through earlier pages only reads headers from the commit-graph
+            RevCommit cursor = after != null && !after.isBlank() ? walk.parseCommit(ObjectId.fromString(after)) : null;
+            walk.sort(RevSort.COMMIT_TIME_DESC);
+            if (path != null && !path.isBlank()) {
+                walk.setTreeFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF));
+            }
+            // headers come from the commit-graph; bodies are parsed only for commits we return
+            walk.setRetainBody(false);
+
             List<Map<String, Object>> res = new ArrayList<>();
-            for (RevCommit c : log) {
+            String next = null;
+            for (RevCommit c : walk) {
+                if (cursor != null) {
+                    if (c.equals(cursor)) cursor = null;
+                    continue;
+                }
+                if (res.size() == limit) {
+                    next = (String) res.get(res.size() - 1).get("sha");
+                    break;
+                }
+                walk.parseBody(c);
                 res.add(Map.of(
                         "sha", c.getName(),
                         "message", c.getFullMessage(),
@@ -185,151 +301,111 @@ public class GitService {
                         "date", c.getAuthorIdent().getWhen().toInstant().toString()
                 ));
             }
-            return res;
-        } catch (Exception e) {
-            return List.of();
+            return new CommitPage(res, next);
+        } catch (MissingObjectException | IncorrectObjectTypeException | IllegalArgumentException e) {
+            return new CommitPage(List.of(), null);
         }
     }
 
     public List<DiffEntry> diff(UUID repoId, String sha) throws IOException {
         try (Repository r = openRepo(repoId); RevWalk walk = new RevWalk(r)) {
             RevCommit commit = walk.parseCommit(ObjectId.fromString(sha));
-            RevCommit parent = commit.getParentCount() > 0 ? walk.parseCommit(commit.getParent(0)) : null;
-            try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                df.setRepository(r);
-                if (parent == null) {
-                    return df.scan(new EmptyTreeIterator(), new CanonicalTreeParser(null, r.newObjectReader(), commit.getTree()));
-                }
-                return df.scan(parent.getTree(), commit.getTree());
-            }
-        }
-    }
-
-    public Map<String, Object> getCommitDiffDetails(UUID repoId, String sha) throws IOException {
-        try (Repository r = openRepo(repoId); RevWalk walk = new RevWalk(r)) {
-            RevCommit commit = walk.parseCommit(ObjectId.fromString(sha));
-            RevCommit parent = commit.getParentCount() > 0 ? walk.parseCommit(commit.getParent(0)) : null;
-            
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            try (DiffFormatter df = new DiffFormatter(out)) {
-                df.setRepository(r);
-                df.setContext(3); // 3 строки контекста
-                
-                List<DiffEntry> entries;
-                if (parent == null) {
-                    entries = df.scan(new EmptyTreeIterator(), 
-                        new CanonicalTreeParser(null, r.newObjectReader(), commit.getTree()));
-                } else {
-                    entries = df.scan(parent.getTree(), commit.getTree());
-                }
-                
-                List<Map<String, Object>> fileDiffs = new ArrayList<>();
-                for (DiffEntry entry : entries) {
-                    df.format(entry);
-                    String patch = out.toString();
-                    out.reset();
-                    
-                    String oldContent = "";
-                    String newContent = "";
-                    
-                    try {
-                        if (entry.getOldId() != null && !entry.getOldId().equals(ObjectId.zeroId())) {
-                            oldContent = new String(r.open(entry.getOldId().toObjectId()).getBytes());
-                        }
-                        if (entry.getNewId() != null && !entry.getNewId().equals(ObjectId.zeroId())) {
-                            newContent = new String(r.open(entry.getNewId().toObjectId()).getBytes());
-                        }
-                    } catch (Exception e) {
-                        // Игнорировать ошибки для бинарных файлов
-                    }
-                    
-                    fileDiffs.add(Map.of(
-                        "oldPath", entry.getOldPath() != null ? entry.getOldPath() : "",
-                        "newPath", entry.getNewPath() != null ? entry.getNewPath() : "",
-                        "changeType", entry.getChangeType().name(),
-                        "oldContent", oldContent,
-                        "newContent", newContent,
-                        "patch", patch
-                    ));
-                }
-                
-                return Map.of(
-                    "commit", Map.of(
-                        "sha", commit.getName(),
-                        "message", commit.getFullMessage(),
-                        "author", commit.getAuthorIdent().getName(),
-                        "date", commit.getAuthorIdent().getWhen().toInstant().toString()
-                    ),
-                    "files", fileDiffs
-                );
-            }
+            ObjectId oldTree = commit.getParentCount() > 0
+                    ? walk.parseCommit(commit.getParent(0)).getTree().getId()
+                    : ObjectId.zeroId();
+            return diffs.scan(r, oldTree, commit.getTree().getId());
         }
     }
 
     public List<String> listChangedPaths(UUID repoId, String oldSha, String newSha) throws IOException {
         try (Repository r = openRepo(repoId); RevWalk walk = new RevWalk(r)) {
             RevCommit newCommit = walk.parseCommit(ObjectId.fromString(newSha));
-            RevCommit oldCommit = oldSha == null || oldSha.isBlank() ? null : walk.parseCommit(ObjectId.fromString(oldSha));
-            try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                df.setRepository(r);
-                List<DiffEntry> entries;
-                if (oldCommit == null) {
-                    entries = df.scan(new EmptyTreeIterator(), new CanonicalTreeParser(null, r.newObjectReader(), newCommit.getTree()));
-                } else {
-                    entries = df.scan(oldCommit.getTree(), newCommit.getTree());
-                }
-                List<String> paths = new ArrayList<>();
-                for (DiffEntry de : entries) {
-                    String p = switch (de.getChangeType()) {
-                        case ADD, MODIFY, COPY, RENAME -> de.getNewPath();
-                        case DELETE -> de.getOldPath();
-                    };
-                    paths.add(p);
-                }
-                return paths;
+            ObjectId oldTree = oldSha == null || oldSha.isBlank() || ObjectId.zeroId().name().equals(oldSha)
+                    ? ObjectId.zeroId()
+                    : walk.parseCommit(ObjectId.fromString(oldSha)).getTree().getId();
+            List<String> paths = new ArrayList<>();
+            for (DiffEntry de : diffs.scan(r, oldTree, newCommit.getTree().getId())) {
+                String p = switch (de.getChangeType()) {
+                    case ADD, MODIFY, COPY, RENAME -> de.getNewPath();
+                    case DELETE -> de.getOldPath();
+                };
+                paths.add(p);
             }
+            return paths;
         }
     }
 
     public void initRepository(UUID repoId, String repoName) throws IOException {
         Path path = config.getRepoPath(repoId.toString());
+        boolean bare = config.isBareRepoPath(path);
+        String readmeContent = "# " + (repoName != null ? repoName : "Repository") + "\n";
         try {
-            Files.createDirectories(path);
-            Git git = Git.init()
-                    .setDirectory(path.toFile())
-                    .setBare(false)
+            Files.createDirectories(bare ? path : path.getParent());
+            try (Git git = Git.init()
+                    .setDirectory(bare ? path.toFile() : path.getParent().toFile())
+                    .setBare(bare)
                     .setInitialBranch("master")
-                    .call();
-            
-            Repository repo = git.getRepository();
-            repo.getConfig().setString("receive", null, "denyCurrentBranch", "updateInstead");
-            repo.getConfig().setBoolean("http", null, "receivepack", true);
-            repo.getConfig().save();
-
-            // Create README.md and initial commit
-            String readmeContent = "# " + (repoName != null ? repoName : "Repository") + "\n";
-            Path readme = path.resolve("README.md");
-            Files.writeString(readme, readmeContent);
-            git.add().addFilepattern("README.md").call();
-            git.commit()
-                    .setMessage("Initial commit")
-                    .setAuthor("System", "system@nicorp.tech")
-                    .call();
-            
-            git.close();
+                    .call()) {
+                Repository repo = git.getRepository();
+                if (!bare) {
+                    repo.getConfig().setString("receive", null, "denyCurrentBranch", "updateInstead");
+                }
+                repo.getConfig().setBoolean("http", null, "receivepack", true);
+                repo.getConfig().save();
+
+                if (bare) {
+                    initialCommit(repo, readmeContent);
+                } else {
+                    // Create README.md and initial commit
+                    Files.writeString(path.getParent().resolve("README.md"), readmeContent);
+                    git.add().addFilepattern("README.md").call();
+                    git.commit()
+                            .setMessage("Initial commit")
+                            .setAuthor("System", "system@nicorp.tech")
+                            .call();
+                }
+            }
         } catch (Exception e) {
             throw new IOException("Failed to initialize repository: " + e.getMessage(), e);
         }
     }
 
+    private static void initialCommit(Repository repo, String readmeContent) throws IOException {
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            TreeFormatter tree = new TreeFormatter();
+            tree.append("README.md", FileMode.REGULAR_FILE,
+                    inserter.insert(Constants.OBJ_BLOB, readmeContent.getBytes(StandardCharsets.UTF_8)));
+            PersonIdent ident = new PersonIdent("System", "system@nicorp.tech");
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(tree));
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage("Initial commit");
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            RefUpdate update = repo.updateRef(Constants.R_HEADS + "master");
+            update.setExpectedOldObjectId(ObjectId.zeroId());
+            update.setNewObjectId(commitId);
+            update.setRefLogMessage("commit (initial): Initial commit", false);
+            RefUpdate.Result result = update.update();
+            if (result != RefUpdate.Result.NEW) {
+                throw new IOException("Failed to create master: " + result);
+            }
+        }
+    }
+
     public void cloneRepository(String url, UUID repoId, String authToken) throws IOException {
         Path path = config.getRepoPath(repoId.toString());
+        boolean bare = config.isBareRepoPath(path);
         try {
             Files.createDirectories(path.getParent());
             Git.cloneRepository()
                     .setURI(url)
-                    .setDirectory(path.toFile())
-                    .call();
+                    .setBare(bare)
+                    .setDirectory(bare ? path.toFile() : path.getParent().toFile())
+                    .call()
+                    .close();
         } catch (Exception e) {
             throw new IOException("Failed to clone repository: " + e.getMessage(), e);
         }
@@ -359,50 +435,203 @@ public class GitService {
         }
     }
 
-    public void commitFile(UUID repoId, String branch, String path, String content, String message, String author) throws IOException {
-        try (Repository r = openRepo(repoId); Git git = new Git(r)) {
-            String currentBranch = r.getBranch();
-            if (!currentBranch.equals(branch)) {
-                git.checkout().setName(branch).call();
+    public enum FileAction { UPSERT, DELETE, MOVE }
+
+    /**
+     * One change of a {@link #commitFiles} call. {@code content} is ignored for deletes; for moves it
+     * replaces the content when non-null, otherwise the blob is kept.
+     */
+    public record FileChange(FileAction action, String path, String previousPath, byte[] content) {
+        public static FileChange upsert(String path, byte[] content) {
+            return new FileChange(FileAction.UPSERT, path, null, content);
+        }
+
+        public static FileChange delete(String path) {
+            return new FileChange(FileAction.DELETE, path, null, null);
+        }
+    }
+
+    /**
+     * The branch moved away from the expected head, or kept moving while we retried.
+     */
+    public static class CommitConflictException extends IOException {
+        public CommitConflictException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int COMMIT_ATTEMPTS = 5;
+    private final Map<String, ReentrantLock> branchLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Commits all {@code changes} to {@code branch} as one commit without touching any working tree:
+     * the branch tree is loaded into an in-core {@link DirCache}, edited, written through an
+     * {@link ObjectInserter} and the branch is moved with a compare-and-swap {@link RefUpdate}.
+     * <p>
+     * With {@code expectedHead} set the commit fails if the branch is elsewhere; otherwise a lost
+     * race against another writer is retried on top of the new head.
+     *
+     * @return sha of the new commit, or of the current head when the changes are a no-op
+     */
+    public String commitFiles(UUID repoId, String branch, List<FileChange> changes, String message,
+                              PersonIdent author, String expectedHead) throws IOException {
+        if (changes.isEmpty()) throw new IllegalArgumentException("No changes");
+        // writers in this process queue up per branch; the CAS below still guards against pushes
+        ReentrantLock lock = branchLocks.computeIfAbsent(repoId + ":" + branch, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            return commitFilesLocked(repoId, branch, changes, message, author, expectedHead);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String commitFilesLocked(UUID repoId, String branch, List<FileChange> changes, String message,
+                                     PersonIdent author, String expectedHead) throws IOException {
+        String refName = Constants.R_HEADS + branch;
+        try (Repository r = openRepo(repoId); ObjectInserter inserter = r.newObjectInserter();
+             ObjectReader reader = r.newObjectReader(); RevWalk walk = new RevWalk(reader)) {
+            for (int attempt = 1; ; attempt++) {
+                Ref ref = r.exactRef(refName);
+                RevCommit parent = ref != null ? walk.parseCommit(ref.getObjectId()) : null;
+                if (expectedHead != null && !expectedHead.isBlank()
+                        && (parent == null || !parent.getName().equals(expectedHead))) {
+                    throw new CommitConflictException("Branch " + branch + " is at "
+                            + (parent != null ? parent.getName() : "nothing") + ", expected " + expectedHead);
+                }
+                if (parent == null && r.getRefDatabase().hasRefs()) {
+                    throw new FileNotFoundException("Branch not found: " + branch);
+                }
+
+                DirCache index = DirCache.newInCore();
+                if (parent != null) {
+                    DirCacheBuilder builder = index.builder();
+                    builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, parent.getTree());
+                    builder.finish();
+                }
+                applyChanges(index, inserter, changes);
+                ObjectId tree = index.writeTree(inserter);
+                if (parent != null && tree.equals(parent.getTree())) {
+                    return parent.getName();
+                }
+
+                CommitBuilder commit = new CommitBuilder();
+                commit.setTreeId(tree);
+                if (parent != null) commit.setParentId(parent);
+                commit.setAuthor(author);
+                commit.setCommitter(author);
+                commit.setMessage(message);
+                ObjectId commitId = inserter.insert(commit);
+                inserter.flush();
+
+                RefUpdate update = r.updateRef(refName);
+                update.setExpectedOldObjectId(parent != null ? parent : ObjectId.zeroId());
+                update.setNewObjectId(commitId);
+                update.setRefLogIdent(author);
+                update.setRefLogMessage("commit: " + firstLine(message), false);
+                RefUpdate.Result result = update.update(walk);
+                switch (result) {
+                    case NEW, FAST_FORWARD -> {
+                        commitGraphs.refresh(repoId);
+                        return commitId.getName();
+                    }
+                    case LOCK_FAILURE -> {
+                        if (expectedHead != null || attempt >= COMMIT_ATTEMPTS) {
+                            throw new CommitConflictException("Branch " + branch + " was updated concurrently");
+                        }
+                        backoff(attempt);
+                    }
+                    default -> throw new IOException("Failed to update " + refName + ": " + result);
+                }
             }
-            
-            Path workDir = config.getRepoPath(repoId.toString());
-            Path filePath = workDir.resolve(path);
-            Files.createDirectories(filePath.getParent());
-            Files.writeString(filePath, content);
-            
-            // Добавить только изменённый файл, но сохранить остальные в коммите
-            git.add().addFilepattern(path).call();
-            git.commit()
-                    .setOnly(path)  // ← Коммитить только этот файл!
-                    .setMessage(message)
-                    .setAuthor(author, author + "@nicorp.tech")
-                    .call();
-        } catch (Exception e) {
-            throw new IOException("Failed to commit file: " + e.getMessage(), e);
         }
     }
 
-    public void deleteFile(UUID repoId, String branch, String path, String message, String author) throws IOException {
-        try (Repository r = openRepo(repoId); Git git = new Git(r)) {
-            String currentBranch = r.getBranch();
-            if (!currentBranch.equals(branch)) {
-                git.checkout().setName(branch).call();
+    private static void backoff(int attempt) throws IOException {
+        try {
+            Thread.sleep(20L * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying commit");
+        }
+    }
+
+    private static void applyChanges(DirCache index, ObjectInserter inserter, List<FileChange> changes) throws IOException {
+        DirCacheEditor editor = index.editor();
+        Set<String> deleted = new HashSet<>();
+        for (FileChange change : changes) {
+            String path = normalizePath(change.path());
+            switch (change.action()) {
+                case DELETE -> {
+                    requireEntry(index, path, deleted);
+                    deleted.add(path);
+                    editor.add(new DirCacheEditor.DeletePath(path));
+                }
+                case MOVE -> {
+                    String from = normalizePath(change.previousPath());
+                    DirCacheEntry source = requireEntry(index, from, deleted);
+                    deleted.add(from);
+                    ObjectId blob = change.content() != null
+                            ? inserter.insert(Constants.OBJ_BLOB, change.content())
+                            : source.getObjectId();
+                    FileMode mode = source.getFileMode();
+                    editor.add(new DirCacheEditor.DeletePath(from));
+                    editor.add(pathEdit(path, blob, mode));
+                }
+                case UPSERT -> {
+                    byte[] content = change.content() != null ? change.content() : new byte[0];
+                    ObjectId blob = inserter.insert(Constants.OBJ_BLOB, content);
+                    DirCacheEntry existing = index.getEntry(path);
+                    FileMode mode = existing != null && existing.getFileMode() == FileMode.EXECUTABLE_FILE
+                            ? FileMode.EXECUTABLE_FILE : FileMode.REGULAR_FILE;
+                    editor.add(pathEdit(path, blob, mode));
+                }
             }
-            
-            Path workDir = config.getRepoPath(repoId.toString());
-            Path filePath = workDir.resolve(path);
-            Files.deleteIfExists(filePath);
-            
-            git.rm().addFilepattern(path).call();
-            git.commit()
-                    .setMessage(message)
-                    .setAuthor(author, author + "@nicorp.tech")
-                    .call();
-        } catch (Exception e) {
-            throw new IOException("Failed to delete file: " + e.getMessage(), e);
         }
+        editor.finish();
     }
-}
 
+    private static DirCacheEditor.PathEdit pathEdit(String path, ObjectId blob, FileMode mode) {
+        return new DirCacheEditor.PathEdit(path) {
+            @Override
+            public void apply(DirCacheEntry ent) {
+                ent.setFileMode(mode);
+                ent.setObjectId(blob);
+            }
+        };
+    }
+
+    private static DirCacheEntry requireEntry(DirCache index, String path, Set<String> deleted) throws FileNotFoundException {
+        DirCacheEntry entry = deleted.contains(path) ? null : index.getEntry(path);
+        if (entry == null) throw new FileNotFoundException("File not found: " + path);
+        return entry;
+    }
+
+    private static String normalizePath(String path) {
+        if (path == null) throw new IllegalArgumentException("Path is required");
+        String p = path.replace('\\', '/');
+        while (p.startsWith("/")) p = p.substring(1);
+        if (p.isEmpty() || p.endsWith("/")) throw new IllegalArgumentException("Invalid path: " + path);
+        for (String segment : p.split("/")) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..") || segment.equalsIgnoreCase(".git")) {
+                throw new IllegalArgumentException("Invalid path: " + path);
+            }
+        }
+        return p;
+    }
 
+    private static String firstLine(String message) {
+        int nl = message.indexOf('\n');
+        return nl >= 0 ? message.substring(0, nl) : message;
+    }
+
+    public void commitFile(UUID repoId, String branch, String path, String content, String message, String author) throws IOException {
+        commitFiles(repoId, branch, List.of(FileChange.upsert(path, content.getBytes(StandardCharsets.UTF_8))),
+                message, new PersonIdent(author, author + "@nicorp.tech"), null);
+    }
+
+    public void deleteFile(UUID repoId, String branch, String path, String message, String author) throws IOException {
+        commitFiles(repoId, branch, List.of(FileChange.delete(path)),
+                message, new PersonIdent(author, author + "@nicorp.tech"), null);
+    }
+}
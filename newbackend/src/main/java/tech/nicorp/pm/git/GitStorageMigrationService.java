@@ -0,0 +1,142 @@
+package tech.nicorp.pm.git;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts repositories from the legacy {@code <root>/<repoId>/.git} layout (with a working tree)
+ * to bare {@code <root>/<repoId>.git} directories, one repository at a time, while the server keeps
+ * serving them.
+ * <p>
+ * A migration takes the repository exclusively from {@link GitMaintenanceService} (skipped while a
+ * push or gc is running; pushes arriving meanwhile wait), renames the git directory atomically and
+ * leaves a {@code .git} symlink to the new location, so handles opened before the rename keep
+ * working until they are released. The pooled handle is invalidated, the working tree is deleted,
+ * and the symlink itself is removed by a later sweep once {@code cleanup-delay-millis} has passed.
+ */
+@Slf4j
+@Service
+public class GitStorageMigrationService {
+    private final GitConfig config;
+    private final GitRepositoryPool pool;
+    private final GitMaintenanceService maintenance;
+    private final long cleanupDelayMillis;
+
+    public GitStorageMigrationService(GitConfig config, GitRepositoryPool pool, GitMaintenanceService maintenance,
+                                      @Value("${git.repos.migration.cleanup-delay-millis:3600000}") long cleanupDelayMillis) {
+        this.config = config;
+        this.pool = pool;
+        this.maintenance = maintenance;
+        this.cleanupDelayMillis = cleanupDelayMillis;
+    }
+
+    @Scheduled(initialDelayString = "${git.repos.migration.initial-delay-millis:60000}",
+            fixedDelayString = "${git.repos.migration.interval-millis:300000}")
+    public void sweep() {
+        Path root = config.getReposRoot();
+        if (!config.isBare() || !Files.isDirectory(root)) return;
+        List<Path> workTrees = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                if (!dir.getFileName().toString().endsWith(".git") && GitMaintenanceService.repoId(dir) != null) {
+                    workTrees.add(dir);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to list repositories for migration: {}", e.getMessage());
+            return;
+        }
+        int migrated = 0;
+        for (Path workTree : workTrees) {
+            String repoId = workTree.getFileName().toString();
+            try {
+                if (Files.isSymbolicLink(workTree.resolve(".git"))) {
+                    cleanup(repoId);
+                } else if (migrate(repoId)) {
+                    migrated++;
+                }
+            } catch (Exception e) {
+                log.warn("Failed to migrate repository {} to bare storage: {}", repoId, e.getMessage());
+            }
+        }
+        if (migrated > 0) {
+            log.info("Migrated {} repositories to bare storage", migrated);
+        }
+    }
+
+    /**
+     * Migrates one repository. Returns false if it is not in the legacy layout or is busy right now.
+     */
+    public boolean migrate(String repoId) throws IOException {
+        Path workTree = config.getWorkTreePath(repoId);
+        Path legacyDir = workTree.resolve(".git");
+        Path bareDir = config.getBareRepoPath(repoId);
+        if (!Files.isDirectory(legacyDir, LinkOption.NOFOLLOW_LINKS) || Files.exists(bareDir)) return false;
+
+        try (GitMaintenanceService.PushHandle exclusive = maintenance.tryExclusive(repoId)) {
+            if (exclusive == null) return false;
+            Files.move(legacyDir, bareDir, StandardCopyOption.ATOMIC_MOVE);
+            try {
+                Files.createSymbolicLink(legacyDir, Path.of("..", bareDir.getFileName().toString()));
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("No compatibility link for repository {}: {}", repoId, e.getMessage());
+            }
+            markBare(bareDir);
+            pool.invalidate(repoId);
+        }
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(workTree)) {
+            for (Path entry : entries) {
+                if (!entry.getFileName().toString().equals(".git")) {
+                    FileSystemUtils.deleteRecursively(entry);
+                }
+            }
+        }
+        if (!Files.exists(legacyDir, LinkOption.NOFOLLOW_LINKS)) {
+            Files.deleteIfExists(workTree);
+        }
+        log.info("Repository {} moved to bare storage", repoId);
+        return true;
+    }
+
+    private void cleanup(String repoId) throws IOException {
+        Path workTree = config.getWorkTreePath(repoId);
+        Path link = workTree.resolve(".git");
+        long age = System.currentTimeMillis()
+                - Files.getLastModifiedTime(link, LinkOption.NOFOLLOW_LINKS).toMillis();
+        if (age < cleanupDelayMillis || !Files.isDirectory(config.getBareRepoPath(repoId))) return;
+        Files.delete(link);
+        Files.deleteIfExists(workTree);
+    }
+
+    private static void markBare(Path gitDir) throws IOException {
+        FileBasedConfig cfg = new FileBasedConfig(gitDir.resolve(Constants.CONFIG).toFile(), FS.DETECTED);
+        try {
+            cfg.load();
+        } catch (ConfigInvalidException e) {
+            throw new IOException("Invalid config in " + gitDir + ": " + e.getMessage(), e);
+        }
+        cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_BARE, true);
+        cfg.unset(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_WORKTREE);
+        cfg.unset("receive", null, "denyCurrentBranch");
+        cfg.save();
+        Files.deleteIfExists(gitDir.resolve("index"));
+    }
+}
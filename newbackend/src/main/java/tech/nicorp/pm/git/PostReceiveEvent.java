@@ -0,0 +1,51 @@
+package tech.nicorp.pm.git;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Pending post-receive work for one ref. Pushes to a ref that still has a pending event only move
+ * {@code newSha} forward and bump {@code revision}, so the event always covers {@code oldSha..newSha}.
+ */
+@Entity
+@Table(name = "post_receive_events")
+@Getter
+@Setter
+@NoArgsConstructor
+public class PostReceiveEvent {
+    @Id
+    @Column(columnDefinition = "uuid")
+    private UUID id = UUID.randomUUID();
+
+    @Column(name = "repository_id", nullable = false, columnDefinition = "uuid")
+    private UUID repositoryId;
+
+    @Column(name = "ref_name", nullable = false, length = 500)
+    private String refName;
+
+    @Column(name = "old_sha", nullable = false, length = 64)
+    private String oldSha;
+
+    @Column(name = "new_sha", nullable = false, length = 64)
+    private String newSha;
+
+    @Column(name = "revision", nullable = false)
+    private int revision;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", columnDefinition = "text")
+    private String lastError;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private OffsetDateTime nextAttemptAt = OffsetDateTime.now();
+
+    @Column(name = "created_at", nullable = false)
+    private OffsetDateTime createdAt = OffsetDateTime.now();
+}
@@ -0,0 +1,25 @@
+package tech.nicorp.pm.git;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface PostReceiveEventRepository extends JpaRepository<PostReceiveEvent, UUID> {
+    Optional<PostReceiveEvent> findByRepositoryIdAndRefName(UUID repositoryId, String refName);
+
+    List<PostReceiveEvent> findByNextAttemptAtLessThanEqualOrderByCreatedAtAsc(OffsetDateTime now, Pageable page);
+
+    // Removes the event only if no push was folded into it while it was being processed
+    @Transactional
+    @Modifying
+    @Query("delete from PostReceiveEvent e where e.id = :id and e.revision = :revision")
+    int deleteProcessed(@Param("id") UUID id, @Param("revision") int revision);
+}
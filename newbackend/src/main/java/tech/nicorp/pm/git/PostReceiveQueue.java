@@ -0,0 +1,223 @@
+package tech.nicorp.pm.git;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tech.nicorp.pm.merge.service.MergeabilityService;
+import tech.nicorp.pm.notifications.WebhookService;
+import tech.nicorp.pm.pipelines.domain.PipelineSource;
+import tech.nicorp.pm.pipelines.service.PipelineService;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Post-receive work (pipelines, merge request mergeability, code search index, webhooks) taken off
+ * the push path.
+ * <p>
+ * A push only records one {@link PostReceiveEvent} per updated ref; if the ref already has a pending
+ * event the push is folded into it, so ten quick pushes to a branch trigger one pipeline for the last
+ * commit. Events live in the database and survive restarts. A small worker pool with a bounded
+ * hand-off queue processes them; whatever does not fit stays in the table and is picked up by the
+ * periodic poll. Failed events are retried with exponential backoff up to {@code max-attempts}.
+ */
+@Slf4j
+@Service
+public class PostReceiveQueue {
+    private final PostReceiveEventRepository events;
+    private final GitService git;
+    private final PipelineService pipelines;
+    private final MergeabilityService mergeability;
+    private final WebhookService webhooks;
+    private final CodeSearchService codeSearch;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final ThreadPoolExecutor executor;
+
+    // events handed to the executor and not finished yet
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+    // serialises folding pushes into events with completing them
+    private final Object lock = new Object();
+
+    public PostReceiveQueue(PostReceiveEventRepository events, GitService git, PipelineService pipelines,
+                            MergeabilityService mergeability, WebhookService webhooks, CodeSearchService codeSearch,
+                            @Value("${git.post-receive.threads:2}") int threads,
+                            @Value("${git.post-receive.batch-size:100}") int batchSize,
+                            @Value("${git.post-receive.max-attempts:5}") int maxAttempts) {
+        this.events = events;
+        this.git = git;
+        this.pipelines = pipelines;
+        this.mergeability = mergeability;
+        this.webhooks = webhooks;
+        this.codeSearch = codeSearch;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(batchSize), r -> {
+                    Thread t = new Thread(r, "post-receive-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Records the successful ref updates of a push and wakes the workers. Called from the receive-pack
+     * post-receive hook, after the refs have been updated.
+     */
+    public void enqueue(UUID repoId, Collection<ReceiveCommand> commands) {
+        boolean added = false;
+        synchronized (lock) {
+            for (ReceiveCommand cmd : commands) {
+                if (cmd.getResult() != ReceiveCommand.Result.OK) continue;
+                PostReceiveEvent event = events.findByRepositoryIdAndRefName(repoId, cmd.getRefName()).orElse(null);
+                if (event == null) {
+                    event = new PostReceiveEvent();
+                    event.setRepositoryId(repoId);
+                    event.setRefName(cmd.getRefName());
+                    event.setOldSha(cmd.getOldId().getName());
+                } else {
+                    event.setRevision(event.getRevision() + 1);
+                    event.setAttempts(0);
+                    event.setNextAttemptAt(OffsetDateTime.now());
+                }
+                event.setNewSha(cmd.getNewId().getName());
+                events.save(event);
+                added = true;
+            }
+        }
+        if (added) dispatch();
+    }
+
+    @Scheduled(fixedDelayString = "${git.post-receive.poll-millis:5000}")
+    public void dispatch() {
+        List<PostReceiveEvent> due;
+        try {
+            due = events.findByNextAttemptAtLessThanEqualOrderByCreatedAtAsc(OffsetDateTime.now(), PageRequest.of(0, batchSize));
+        } catch (Exception e) {
+            log.warn("Failed to load post-receive events: {}", e.getMessage());
+            return;
+        }
+        for (PostReceiveEvent event : due) {
+            if (!inFlight.add(event.getId())) continue;
+            try {
+                executor.execute(() -> process(event));
+            } catch (RejectedExecutionException e) {
+                // the rest stays in the table until the next poll
+                inFlight.remove(event.getId());
+                break;
+            }
+        }
+    }
+
+    void process(PostReceiveEvent queued) {
+        PostReceiveEvent event = null;
+        try {
+            event = pending(queued);
+            if (event != null) {
+                deliver(event);
+                complete(event);
+            }
+        } catch (Exception e) {
+            if (event != null) {
+                fail(event, e);
+            } else {
+                log.warn("Failed to load post-receive event {}: {}", queued.getId(), e.getMessage());
+            }
+        } finally {
+            inFlight.remove(queued.getId());
+        }
+        // keep draining without waiting for the next poll
+        if (executor.getQueue().isEmpty()) dispatch();
+    }
+
+    // dispatch() may have loaded the event while another worker was still finishing it: go ahead only if
+    // the row is still there in the revision that was queued and is due, and deliver what is stored now
+    private PostReceiveEvent pending(PostReceiveEvent queued) {
+        return events.findById(queued.getId())
+                .filter(current -> current.getRevision() == queued.getRevision())
+                .filter(current -> !current.getNextAttemptAt().isAfter(OffsetDateTime.now()))
+                .orElse(null);
+    }
+
+    private void deliver(PostReceiveEvent event) throws Exception {
+        UUID repoId = event.getRepositoryId();
+        String ref = event.getRefName();
+        boolean deleted = ObjectId.zeroId().name().equals(event.getNewSha());
+        if (!deleted) {
+            List<String> changed = git.listChangedPaths(repoId, event.getOldSha(), event.getNewSha());
+            pipelines.trigger(Map.of(
+                    "repository_id", repoId.toString(),
+                    "ref", ref.replace(Constants.R_HEADS, ""),
+                    "commit_sha", event.getNewSha(),
+                    "source", PipelineSource.PUSH.name(),
+                    "changed_paths", String.join(" ", changed)
+            ));
+        }
+        if (ref.startsWith(Constants.R_HEADS)) {
+            mergeability.branchesUpdated(repoId, List.of(ref.substring(Constants.R_HEADS.length())));
+            if (!deleted) codeSearch.refUpdated(repoId, ref);
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("repository_id", repoId.toString());
+        payload.put("ref", ref);
+        payload.put("before", event.getOldSha());
+        payload.put("after", event.getNewSha());
+        webhooks.emit("push", payload);
+    }
+
+    private void complete(PostReceiveEvent event) {
+        synchronized (lock) {
+            if (events.deleteProcessed(event.getId(), event.getRevision()) == 0) {
+                // pushed again meanwhile: keep the event, but only for what has not been processed yet
+                events.findById(event.getId()).ifPresent(current -> {
+                    current.setOldSha(event.getNewSha());
+                    events.save(current);
+                });
+            }
+        }
+    }
+
+    private void fail(PostReceiveEvent event, Exception error) {
+        synchronized (lock) {
+            events.findById(event.getId()).ifPresent(current -> {
+                int attempts = current.getAttempts() + 1;
+                if (attempts >= maxAttempts) {
+                    log.error("Dropping post-receive event for {} in repository {} after {} attempts: {}",
+                            current.getRefName(), current.getRepositoryId(), attempts, error.getMessage());
+                    events.delete(current);
+                    return;
+                }
+                current.setAttempts(attempts);
+                current.setLastError(error.getMessage());
+                current.setNextAttemptAt(OffsetDateTime.now().plusSeconds(1L << Math.min(attempts, 10)));
+                events.save(current);
+                log.warn("Post-receive event for {} in repository {} failed (attempt {}): {}",
+                        current.getRefName(), current.getRepositoryId(), attempts, error.getMessage());
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,70 @@
+package tech.nicorp.pm.git;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.lib.Repository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoded {@code info/refs} advertisements per repository and service, so a no-op fetch does not
+ * rescan and re-encode thousands of refs.
+ * <p>
+ * Entries are keyed by a per-repository generation. JGit fires a refs-changed event for every ref
+ * update made through a {@link Repository} in this process (receive-pack, merges, web commits, branch
+ * operations) and whenever a scan notices that refs changed on disk; the event bumps the generation,
+ * so the next request rebuilds. An advertisement built while refs were changing is stored under the
+ * old generation and never served. Metrics are published as {@code git.refs.cache.*}.
+ */
+@Component
+public class RefAdvertisementCache implements MeterBinder {
+
+    private final WeightedLruCache cache;
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final ListenerHandle listener;
+
+    public RefAdvertisementCache(@Value("${git.refs-cache.max-bytes:16777216}") long maxBytes) {
+        this.cache = new WeightedLruCache(maxBytes);
+        this.listener = Repository.getGlobalListenerList()
+                .addRefsChangedListener(event -> invalidate(event.getRepository()));
+    }
+
+    public byte[] get(Repository repo, String service, GitObjectCache.Loader<byte[]> loader) throws IOException {
+        String dir = directory(repo);
+        long generation = generations.computeIfAbsent(dir, k -> new AtomicLong()).get();
+        return cache.getOrLoad(service + ":" + generation + ":" + dir, loader, bytes -> bytes.length);
+    }
+
+    public void invalidate(Repository repo) {
+        generations.computeIfAbsent(directory(repo), k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public long hits() {
+        return cache.hits();
+    }
+
+    public long misses() {
+        return cache.misses();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        cache.bindTo(registry, "git.refs.cache");
+    }
+
+    @PreDestroy
+    public void close() {
+        listener.remove();
+    }
+
+    private static String directory(Repository repo) {
+        return repo.getDirectory().toPath().toAbsolutePath().normalize().toString();
+    }
+}
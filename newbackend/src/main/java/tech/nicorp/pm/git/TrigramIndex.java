@@ -0,0 +1,267 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trigram index over the files of one tree, for {@link CodeSearchService}.
+ * <p>
+ * Every indexed file gets an ascending document id; each trigram (three bytes, ASCII letters folded
+ * to lower case) maps to the ids of the files containing it, delta/varint encoded, so a posting
+ * usually costs one byte. Files are only ever appended: a changed file is removed (tombstoned) and
+ * added again under a new id, which keeps posting lists sorted; {@link #compact()} drops tombstones.
+ * Once the estimated heap use reaches {@code maxBytes} (allocated posting arrays plus the map entry,
+ * key and list object of every trigram) further files are recorded without trigrams and reported by
+ * {@link #candidates} unconditionally, so they stay searchable by scanning.
+ * <p>
+ * Not thread-safe; {@link CodeSearchService} guards each index with a read/write lock.
+ */
+final class TrigramIndex {
+
+    record Doc(String path, ObjectId blobId) {}
+
+    private static final class Postings {
+        byte[] data = new byte[8];
+        int length;
+        int last = -1;
+        int count;
+
+        int add(int docId) {
+            int before = length;
+            int gap = docId - last;
+            last = docId;
+            count++;
+            while (true) {
+                if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+                if ((gap & ~0x7F) == 0) {
+                    data[length++] = (byte) gap;
+                    break;
+                }
+                data[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            return length - before;
+        }
+
+        int[] decode() {
+            int[] ids = new int[count];
+            int pos = 0;
+            int id = -1;
+            for (int i = 0; i < count; i++) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += gap;
+                ids[i] = id;
+            }
+            return ids;
+        }
+    }
+
+    // heap cost of one trigram besides its posting array: HashMap node and table slot, boxed key,
+    // Postings object and array header (64-bit JVM, compressed oops)
+    private static final int TRIGRAM_OVERHEAD_BYTES = 104;
+
+    private final long maxBytes;
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<String, Integer> byPath = new HashMap<>();
+    private final Map<Integer, Postings> postings = new HashMap<>();
+    private final BitSet unindexed = new BitSet();
+    private long postingBytes;
+    private long heapBytes;
+    private int live;
+
+    TrigramIndex(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Scratch set for de-duplicating the trigrams of a file in {@link #add}. 2 MiB; allocate one per
+     * build or update and drop it afterwards. {@link #add} leaves it cleared.
+     */
+    static BitSet scratch() {
+        return new BitSet(1 << 24);
+    }
+
+    void add(String path, ObjectId blobId, byte[] content, BitSet seen) {
+        remove(path);
+        int id = docs.size();
+        docs.add(new Doc(path, blobId));
+        byPath.put(path, id);
+        live++;
+        if (heapBytes >= maxBytes) {
+            unindexed.set(id);
+            return;
+        }
+        List<Integer> trigrams = new ArrayList<>();
+        int t = 0;
+        for (int i = 0; i < content.length; i++) {
+            t = ((t << 8) | fold(content[i])) & 0xFFFFFF;
+            if (i >= 2 && !seen.get(t)) {
+                seen.set(t);
+                trigrams.add(t);
+            }
+        }
+        for (int trigram : trigrams) {
+            seen.clear(trigram);
+            Postings p = postings.get(trigram);
+            if (p == null) {
+                p = new Postings();
+                postings.put(trigram, p);
+                heapBytes += TRIGRAM_OVERHEAD_BYTES + p.data.length;
+            }
+            int capacity = p.data.length;
+            postingBytes += p.add(id);
+            heapBytes += p.data.length - capacity;
+        }
+    }
+
+    void remove(String path) {
+        Integer id = byPath.remove(path);
+        if (id == null) return;
+        docs.set(id, null);
+        unindexed.clear(id);
+        live--;
+    }
+
+    /**
+     * Ids of live files that may contain all {@code required} strings (every trigram of each), plus all
+     * files indexed without trigrams. With no usable trigram every live file is a candidate.
+     */
+    List<Doc> candidates(Collection<String> required) {
+        List<Integer> trigrams = new ArrayList<>();
+        for (String s : required) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            for (int i = 2; i < bytes.length; i++) {
+                trigrams.add((fold(bytes[i - 2]) << 16) | (fold(bytes[i - 1]) << 8) | fold(bytes[i]));
+            }
+        }
+        List<Doc> result = new ArrayList<>();
+        if (trigrams.isEmpty()) {
+            for (Doc doc : docs) {
+                if (doc != null) result.add(doc);
+            }
+            return result;
+        }
+        List<Postings> lists = new ArrayList<>();
+        for (int trigram : trigrams) {
+            Postings p = postings.get(trigram);
+            if (p == null) {
+                lists = null;
+                break;
+            }
+            lists.add(p);
+        }
+        BitSet matched = new BitSet(docs.size());
+        if (lists != null) {
+            lists.sort((a, b) -> Integer.compare(a.count, b.count));
+            int[] ids = lists.get(0).decode();
+            int n = ids.length;
+            for (int i = 1; i < lists.size() && n > 0; i++) {
+                n = intersect(ids, n, lists.get(i).decode());
+            }
+            for (int i = 0; i < n; i++) matched.set(ids[i]);
+        }
+        matched.or(unindexed);
+        for (int id = matched.nextSetBit(0); id >= 0; id = matched.nextSetBit(id + 1)) {
+            Doc doc = docs.get(id);
+            if (doc != null) result.add(doc);
+        }
+        return result;
+    }
+
+    /**
+     * Renumbers live files and drops removed ones from all posting lists.
+     */
+    void compact() {
+        int[] remap = new int[docs.size()];
+        List<Doc> kept = new ArrayList<>(live);
+        for (int id = 0; id < docs.size(); id++) {
+            Doc doc = docs.get(id);
+            remap[id] = doc == null ? -1 : kept.size();
+            if (doc != null) kept.add(doc);
+        }
+        BitSet keptUnindexed = new BitSet();
+        for (int id = unindexed.nextSetBit(0); id >= 0; id = unindexed.nextSetBit(id + 1)) {
+            if (remap[id] >= 0) keptUnindexed.set(remap[id]);
+        }
+        postingBytes = 0;
+        heapBytes = 0;
+        var it = postings.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            Postings rebuilt = new Postings();
+            for (int id : entry.getValue().decode()) {
+                if (remap[id] >= 0) rebuilt.add(remap[id]);
+            }
+            if (rebuilt.count == 0) {
+                it.remove();
+            } else {
+                rebuilt.data = Arrays.copyOf(rebuilt.data, rebuilt.length);
+                entry.setValue(rebuilt);
+                postingBytes += rebuilt.length;
+                heapBytes += TRIGRAM_OVERHEAD_BYTES + rebuilt.length;
+            }
+        }
+        docs.clear();
+        docs.addAll(kept);
+        byPath.clear();
+        for (int id = 0; id < docs.size(); id++) byPath.put(docs.get(id).path(), id);
+        unindexed.clear();
+        unindexed.or(keptUnindexed);
+    }
+
+    int files() {
+        return live;
+    }
+
+    int removed() {
+        return docs.size() - live;
+    }
+
+    int unindexedFiles() {
+        return unindexed.cardinality();
+    }
+
+    long postingBytes() {
+        return postingBytes;
+    }
+
+    /**
+     * Estimated heap use of the trigram postings, what {@code maxBytes} is checked against.
+     */
+    long heapBytes() {
+        return heapBytes;
+    }
+
+    int trigrams() {
+        return postings.size();
+    }
+
+    private static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b & 0xFF;
+    }
+
+    private static int intersect(int[] ids, int n, int[] other) {
+        int out = 0;
+        int j = 0;
+        for (int i = 0; i < n && j < other.length; i++) {
+            while (j < other.length && other[j] < ids[i]) j++;
+            if (j < other.length && other[j] == ids[i]) ids[out++] = ids[i];
+        }
+        return out;
+    }
+}
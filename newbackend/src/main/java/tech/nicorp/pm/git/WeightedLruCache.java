@@ -0,0 +1,122 @@
+package tech.nicorp.pm.git;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Byte-budgeted LRU map shared by the git read caches. Values are loaded outside the lock;
+ * concurrent misses for one key just load twice. Entries heavier than a quarter of the budget
+ * are returned but never admitted.
+ */
+final class WeightedLruCache {
+
+    private record Entry(Object value, long weight) {}
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    WeightedLruCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    <T> T getOrLoad(String key, GitObjectCache.Loader<T> loader, ToLongFunction<T> weigher) throws IOException {
+        return getOrLoad(key, loader, weigher, value -> true);
+    }
+
+    /**
+     * Lets the caller veto admission, e.g. for results cut short by a time budget.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T getOrLoad(String key, GitObjectCache.Loader<T> loader, ToLongFunction<T> weigher, Predicate<T> admit) throws IOException {
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                hits.incrementAndGet();
+                return (T) e.value();
+            }
+        }
+        misses.incrementAndGet();
+        T value = loader.load();
+        if (admit.test(value)) {
+            put(key, value, weigher.applyAsLong(value));
+        }
+        return value;
+    }
+
+    /**
+     * Lookup without loading; not counted as a hit or miss.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> T getIfPresent(String key) {
+        Entry e = entries.get(key);
+        return e == null ? null : (T) e.value();
+    }
+
+    private void put(String key, Object value, long valueWeight) {
+        long weight = valueWeight + key.length() * 2L;
+        if (weight > maxBytes / 4) return;
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(value, weight));
+            if (previous != null) usedBytes -= previous.weight();
+            usedBytes += weight;
+            Iterator<Entry> it = entries.values().iterator();
+            while (usedBytes > maxBytes && it.hasNext()) {
+                usedBytes -= it.next().weight();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Registers {@code <name>.gets} (tagged result=hit|miss), {@code <name>.evictions},
+     * {@code <name>.size}, {@code <name>.weight} and {@code <name>.hit.ratio}.
+     */
+    void bindTo(MeterRegistry registry, String name) {
+        FunctionCounter.builder(name + ".gets", this, WeightedLruCache::hits).tag("result", "hit").register(registry);
+        FunctionCounter.builder(name + ".gets", this, WeightedLruCache::misses).tag("result", "miss").register(registry);
+        FunctionCounter.builder(name + ".evictions", this, WeightedLruCache::evictions).register(registry);
+        Gauge.builder(name + ".size", this, WeightedLruCache::size).register(registry);
+        Gauge.builder(name + ".weight", this, WeightedLruCache::usedBytes).baseUnit("bytes").register(registry);
+        Gauge.builder(name + ".hit.ratio", this, WeightedLruCache::hitRatio).register(registry);
+    }
+
+    private double hitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+}
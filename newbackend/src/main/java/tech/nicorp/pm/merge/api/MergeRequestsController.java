@@ -1,10 +1,13 @@
 package tech.nicorp.pm.merge.api;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import tech.nicorp.pm.git.GitMergeService;
 import tech.nicorp.pm.merge.domain.MergeRequest;
 import tech.nicorp.pm.merge.service.MergeRequestService;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -47,8 +50,21 @@ public class MergeRequestsController {
     }
 
     @PostMapping("/{mrId}/merge")
-    public ResponseEntity<MergeRequest> merge(@PathVariable UUID repoId, @PathVariable UUID mrId) {
-        return ResponseEntity.ok(mrs.merge(repoId, mrId));
+    public ResponseEntity<Object> merge(@PathVariable UUID repoId, @PathVariable UUID mrId,
+                                        @RequestBody(required = false) Map<String, String> body) throws IOException {
+        String rawMode = body != null ? body.get("mode") : null;
+        GitMergeService.Mode mode;
+        try {
+            mode = GitMergeService.Mode.parse(rawMode);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_mode", "message", "Unknown merge mode: " + rawMode));
+        }
+        try {
+            return ResponseEntity.ok(mrs.merge(repoId, mrId, mode));
+        } catch (GitMergeService.MergeFailedException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "merge_failed", "message", e.getMessage(), "conflicts", e.conflicts()));
+        }
     }
 }
 
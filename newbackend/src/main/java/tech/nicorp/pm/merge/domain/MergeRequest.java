@@ -46,6 +46,29 @@ public class MergeRequest {
 
     @Column(name = "merged_at")
     private OffsetDateTime mergedAt;
-}
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "merge_status", nullable = false)
+    private MergeabilityStatus mergeStatus = MergeabilityStatus.UNCHECKED;
+
+    @Column(name = "merge_base_sha")
+    private String mergeBaseSha;
+
+    @Column(name = "source_sha")
+    private String sourceSha;
+
+    @Column(name = "target_sha")
+    private String targetSha;
 
+    @Column(name = "commits_ahead")
+    private Integer commitsAhead;
+
+    @Column(name = "commits_behind")
+    private Integer commitsBehind;
+
+    @Column(name = "conflict_paths", columnDefinition = "text")
+    private String conflictPaths;
+
+    @Column(name = "merge_status_checked_at")
+    private OffsetDateTime mergeStatusCheckedAt;
+}
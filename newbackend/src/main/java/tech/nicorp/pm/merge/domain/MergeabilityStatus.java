@@ -0,0 +1,8 @@
+package tech.nicorp.pm.merge.domain;
+
+public enum MergeabilityStatus {
+    UNCHECKED,
+    CAN_BE_MERGED,
+    CANNOT_BE_MERGED,
+    BRANCH_MISSING
+}
@@ -1,13 +1,36 @@
 package tech.nicorp.pm.merge.repo;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import tech.nicorp.pm.merge.domain.MergeRequest;
+import tech.nicorp.pm.merge.domain.MergeRequestStatus;
+import tech.nicorp.pm.merge.domain.MergeabilityStatus;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
 public interface MergeRequestRepository extends JpaRepository<MergeRequest, UUID> {
     List<MergeRequest> findByRepositoryIdOrderByCreatedAtDesc(UUID repoId);
-}
 
+    List<MergeRequest> findByRepositoryIdAndStatus(UUID repoId, MergeRequestStatus status);
 
+    // Touches only the mergeability columns, so a background check never overwrites a concurrent merge/close
+    @Transactional
+    @Modifying
+    @Query("update MergeRequest m set m.mergeStatus = :status, m.mergeBaseSha = :mergeBase, m.sourceSha = :sourceSha, " +
+            "m.targetSha = :targetSha, m.commitsAhead = :ahead, m.commitsBehind = :behind, m.conflictPaths = :conflicts, " +
+            "m.mergeStatusCheckedAt = :checkedAt where m.id = :id")
+    int updateMergeability(@Param("id") UUID id,
+                           @Param("status") MergeabilityStatus status,
+                           @Param("mergeBase") String mergeBase,
+                           @Param("sourceSha") String sourceSha,
+                           @Param("targetSha") String targetSha,
+                           @Param("ahead") Integer ahead,
+                           @Param("behind") Integer behind,
+                           @Param("conflicts") String conflicts,
+                           @Param("checkedAt") OffsetDateTime checkedAt);
+}
@@ -2,12 +2,12 @@ package tech.nicorp.pm.merge.service;
 
 import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.MergeResult;
-import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import tech.nicorp.pm.git.GitConfig;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import tech.nicorp.pm.git.GitMergeService;
 import tech.nicorp.pm.merge.domain.MergeRequest;
 import tech.nicorp.pm.merge.domain.MergeRequestApproval;
 import tech.nicorp.pm.merge.domain.MergeRequestStatus;
@@ -19,8 +19,7 @@ import tech.nicorp.pm.users.domain.User;
 import tech.nicorp.pm.users.repo.UserRepository;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -32,7 +31,8 @@ public class MergeRequestService {
     private final MergeRequestApprovalRepository approvals;
     private final UserRepository users;
     private final EntityManager em;
-    private final GitConfig gitConfig;
+    private final GitMergeService gitMerge;
+    private final MergeabilityService mergeability;
 
     @Transactional
     public MergeRequest create(UUID repoId, Map<String, String> body) {
@@ -45,7 +45,9 @@ public class MergeRequestService {
         mr.setSourceBranch(body.get("source_branch"));
         mr.setTargetBranch(body.get("target_branch"));
         mr.setTitle(body.getOrDefault("title", mr.getSourceBranch() + " -> " + mr.getTargetBranch()));
-        return mrs.save(mr);
+        MergeRequest saved = mrs.save(mr);
+        afterCommit(() -> mergeability.branchesUpdated(repoId, List.of(saved.getSourceBranch(), saved.getTargetBranch())));
+        return saved;
     }
 
     public List<MergeRequest> list(UUID repoId) {
@@ -73,48 +75,37 @@ public class MergeRequestService {
     }
 
     @Transactional
-    public MergeRequest merge(UUID repoId, UUID mrId) {
+    public MergeRequest merge(UUID repoId, UUID mrId, GitMergeService.Mode mode) throws IOException {
         MergeRequest mr = mrs.findById(mrId).orElseThrow();
-        String source = mr.getSourceBranch();
-        String target = mr.getTargetBranch();
+        String message = mode == GitMergeService.Mode.SQUASH ? mr.getTitle() : null;
+        gitMerge.merge(repoId, mr.getSourceBranch(), mr.getTargetBranch(), mode, message, currentIdent());
 
-        // Clone bare repo into temp workdir
-        Path bare = gitConfig.getRepoPath(repoId.toString());
-        Path tmpDir;
-        try {
-            tmpDir = Files.createTempDirectory("mr-merge-");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        mr.setStatus(MergeRequestStatus.MERGED);
+        mr.setMergedAt(OffsetDateTime.now());
+        MergeRequest saved = mrs.save(mr);
+        // other MRs into the same target now have a different base
+        afterCommit(() -> mergeability.branchesUpdated(repoId, List.of(saved.getTargetBranch())));
+        return saved;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
         }
-        try (Git git = Git.cloneRepository()
-                .setURI(bare.toUri().toString())
-                .setDirectory(tmpDir.toFile())
-                .call()) {
-            // checkout target
-            git.checkout().setName(target).call();
-            // merge source
-            MergeResult result = git.merge().include(git.getRepository().findRef("refs/heads/" + source)).call();
-            if (!result.getMergeStatus().isSuccessful()) {
-                throw new RuntimeException("Merge conflict: " + result.getMergeStatus());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
             }
-            // push back to bare repo
-            git.push().setRemote("origin").setRefSpecs(new RefSpec(target + ":refs/heads/" + target)).call();
+        });
+    }
 
-            mr.setStatus(MergeRequestStatus.MERGED);
-            return mrs.save(mr);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            // cleanup
-            try {
-                Files.walk(tmpDir)
-                        .sorted((a, b) -> b.getNameCount() - a.getNameCount())
-                        .forEach(p -> {
-                            try { Files.deleteIfExists(p); } catch (IOException ignored) {}
-                        });
-            } catch (Exception ignored) {}
-        }
+    private PersonIdent currentIdent() {
+        String name = SecurityUtil.getCurrentUserId()
+                .flatMap(users::findById)
+                .map(User::getUsername)
+                .orElse("system");
+        return new PersonIdent(name, name + "@nicorp.tech");
     }
 }
-
-
@@ -0,0 +1,118 @@
+package tech.nicorp.pm.merge.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.nicorp.pm.git.GitMergeService;
+import tech.nicorp.pm.merge.domain.MergeRequest;
+import tech.nicorp.pm.merge.domain.MergeRequestStatus;
+import tech.nicorp.pm.merge.domain.MergeabilityStatus;
+import tech.nicorp.pm.merge.repo.MergeRequestRepository;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Precomputes mergeability (merge base, ahead/behind, conflicts) of open merge requests in the
+ * background after pushes, so the UI knows whether an MR can merge before anyone clicks the button.
+ * <p>
+ * Work is coalesced per repository: branches pushed while a check for the repository is still
+ * queued are added to that check instead of scheduling another one. Checks run on a small
+ * bounded pool; when its queue is full the push is dropped and the affected MRs stay on their
+ * previous status until the next push.
+ */
+@Slf4j
+@Service
+public class MergeabilityService {
+    private final MergeRequestRepository mrs;
+    private final GitMergeService gitMerge;
+    private final ThreadPoolExecutor executor;
+
+    // repoId -> branches pushed since the queued check for that repo was scheduled
+    private final Map<UUID, Set<String>> pending = new ConcurrentHashMap<>();
+
+    public MergeabilityService(MergeRequestRepository mrs, GitMergeService gitMerge,
+                               @Value("${merge.mergeability.threads:2}") int threads,
+                               @Value("${merge.mergeability.queue-capacity:256}") int queueCapacity) {
+        this.mrs = mrs;
+        this.gitMerge = gitMerge;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "mergeability-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules a recheck of open MRs in the repository whose source or target is one of {@code branches}
+     * (short names, without {@code refs/heads/}).
+     */
+    public void branchesUpdated(UUID repoId, Collection<String> branches) {
+        if (branches.isEmpty()) return;
+        boolean[] scheduled = {false};
+        pending.compute(repoId, (id, existing) -> {
+            if (existing != null) {
+                existing.addAll(branches);
+                return existing;
+            }
+            scheduled[0] = true;
+            Set<String> set = ConcurrentHashMap.newKeySet();
+            set.addAll(branches);
+            return set;
+        });
+        if (!scheduled[0]) return;
+        try {
+            executor.execute(() -> run(repoId));
+        } catch (RejectedExecutionException e) {
+            pending.remove(repoId);
+            log.warn("Mergeability queue full, skipping check for repository {}", repoId);
+        }
+    }
+
+    private void run(UUID repoId) {
+        Set<String> branches = pending.remove(repoId);
+        if (branches == null) return;
+        for (MergeRequest mr : mrs.findByRepositoryIdAndStatus(repoId, MergeRequestStatus.OPEN)) {
+            if (branches.contains(mr.getSourceBranch()) || branches.contains(mr.getTargetBranch())) {
+                check(repoId, mr);
+            }
+        }
+    }
+
+    void check(UUID repoId, MergeRequest mr) {
+        try {
+            GitMergeService.Mergeability m = gitMerge.check(repoId, mr.getSourceBranch(), mr.getTargetBranch());
+            MergeabilityStatus status;
+            if (!m.branchesExist()) {
+                status = MergeabilityStatus.BRANCH_MISSING;
+            } else if (m.conflicts().isEmpty()) {
+                status = MergeabilityStatus.CAN_BE_MERGED;
+            } else {
+                status = MergeabilityStatus.CANNOT_BE_MERGED;
+            }
+            mrs.updateMergeability(mr.getId(), status, m.mergeBaseSha(), m.sourceSha(), m.targetSha(),
+                    m.branchesExist() ? m.ahead() : null, m.branchesExist() ? m.behind() : null,
+                    m.conflicts().isEmpty() ? null : String.join("\n", m.conflicts()), OffsetDateTime.now());
+        } catch (Exception e) {
+            log.warn("Mergeability check failed for merge request {}: {}", mr.getId(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -25,7 +25,7 @@ public class Webhook {
     private String secret;
 
     @Column(name = "events", nullable = false)
-    private String events; // comma-separated: pipeline,mr
+    private String events; // comma-separated: pipeline,mr,push
 
     @Column(name = "created_at", nullable = false)
     private OffsetDateTime createdAt = OffsetDateTime.now();
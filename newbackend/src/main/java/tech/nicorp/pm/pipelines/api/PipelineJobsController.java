@@ -1,34 +1,118 @@
 package tech.nicorp.pm.pipelines.api;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import tech.nicorp.pm.pipelines.domain.PipelineJob;
 import tech.nicorp.pm.pipelines.repo.PipelineJobRepository;
-import tech.nicorp.pm.pipelines.repo.PipelineLogChunkRepository;
+import tech.nicorp.pm.pipelines.service.PipelineLogBuffer;
+import tech.nicorp.pm.pipelines.service.PipelineLogMigrationService;
+import tech.nicorp.pm.pipelines.service.PipelineLogStore;
 import tech.nicorp.pm.pipelines.service.PipelineService;
 
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/pipelines/jobs")
 public class PipelineJobsController {
 
-    private final PipelineLogChunkRepository logRepo;
     private final PipelineJobRepository jobRepo;
     private final PipelineService pipelineService;
+    private final PipelineLogBuffer logBuffer;
+    private final PipelineLogStore logStore;
+    private final PipelineLogMigrationService logMigration;
 
-    public PipelineJobsController(PipelineLogChunkRepository logRepo, PipelineJobRepository jobRepo, PipelineService pipelineService) {
-        this.logRepo = logRepo;
+    public PipelineJobsController(PipelineJobRepository jobRepo, PipelineService pipelineService,
+                                  PipelineLogBuffer logBuffer, PipelineLogStore logStore,
+                                  PipelineLogMigrationService logMigration) {
         this.jobRepo = jobRepo;
         this.pipelineService = pipelineService;
+        this.logBuffer = logBuffer;
+        this.logStore = logStore;
+        this.logMigration = logMigration;
     }
 
+    /**
+     * Streams the job log from disk. A single {@code Range: bytes=...} gets 206 / 416; alternatively
+     * {@code offset} and {@code limit} select a slice with a plain 200, which suits polling for new output:
+     * {@code X-Next-Offset} is where the next request should start and {@code X-Log-Size} the current length.
+     */
     @GetMapping("/{jobId}/logs")
-    public ResponseEntity<String> getLogs(@PathVariable UUID jobId) {
-        StringBuilder sb = new StringBuilder();
-        logRepo.findByJobIdOrderByCreatedAtAsc(jobId).forEach(c -> sb.append(c.getContent()));
-        return ResponseEntity.ok(sb.toString());
+    public void getLogs(@PathVariable UUID jobId,
+                        @RequestParam(value = "offset", required = false) Long offset,
+                        @RequestParam(value = "limit", required = false) Long limit,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        logMigration.ensureMigrated(jobId);
+        long size = logStore.size(jobId);
+        if (size == 0 && !jobRepo.existsById(jobId)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long start = 0;
+        long end = size - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+            if (ranges.size() == 1) {
+                try {
+                    start = ranges.get(0).getRangeStart(size);
+                    end = ranges.get(0).getRangeEnd(size);
+                } catch (IllegalArgumentException e) {
+                    start = size;
+                }
+                if (start >= size || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        } else if (offset != null || limit != null) {
+            if ((offset != null && offset < 0) || (limit != null && limit < 0)) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "offset and limit must not be negative");
+                return;
+            }
+            start = offset != null ? Math.min(offset, size) : 0;
+            end = limit != null ? Math.min(size, start + limit) - 1 : size - 1;
+        }
+
+        long length = Math.max(0, end - start + 1);
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE + ";charset=UTF-8");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        response.setHeader("X-Log-Size", String.valueOf(size));
+        response.setHeader("X-Next-Offset", String.valueOf(start + length));
+        response.setContentLengthLong(length);
+        if (length > 0) {
+            logStore.transferTo(jobId, start, length, Channels.newChannel(response.getOutputStream()));
+        }
+        response.flushBuffer();
+    }
+
+    // same as /api/pipelines/runners/jobs/{jobId}/logs, the path runner.py posts to
+    @PostMapping("/{jobId}/logs")
+    public ResponseEntity<Void> submitLogs(@PathVariable UUID jobId, @RequestBody String body) {
+        try {
+            logBuffer.ingest(jobId, body);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.accepted().build();
     }
 
     @PostMapping("/{jobId}/start")
@@ -2,12 +2,18 @@ package tech.nicorp.pm.pipelines.api;
 
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import tech.nicorp.pm.pipelines.domain.PipelineJob;
-import tech.nicorp.pm.pipelines.repo.PipelineLogChunkRepository;
+import tech.nicorp.pm.pipelines.service.JobLeaseDispatcher;
+import tech.nicorp.pm.pipelines.service.PipelineLogBuffer;
 import tech.nicorp.pm.pipelines.service.RunnerService;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -15,32 +21,75 @@ import java.util.UUID;
 @RequestMapping("/api/pipelines/runners")
 public class RunnerController {
 
+    private static final int MAX_WAIT_SECONDS = 60;
+    private static final String RUNNER_NAME_HEADER = "X-Runner-Name";
+
     private final RunnerService runnerService;
-    private final PipelineLogChunkRepository logRepo;
+    private final JobLeaseDispatcher leases;
+    private final PipelineLogBuffer logBuffer;
 
-    public RunnerController(RunnerService runnerService, PipelineLogChunkRepository logRepo) {
+    public RunnerController(RunnerService runnerService, JobLeaseDispatcher leases, PipelineLogBuffer logBuffer) {
         this.runnerService = runnerService;
-        this.logRepo = logRepo;
+        this.leases = leases;
+        this.logBuffer = logBuffer;
     }
 
+    /**
+     * Hands out the next runnable job. With {@code wait} (seconds, at most {@value #MAX_WAIT_SECONDS})
+     * a runner with nothing to do is held until a job becomes runnable or the wait runs out, instead of
+     * polling again; either way the answer is {@code jobId: null} when there is no job.
+     */
     @PostMapping("/lease")
-    public ResponseEntity<Map<String, Object>> leaseJob(@RequestBody(required = false) Map<String, Object> runnerInfo) {
-        Optional<PipelineJob> leased = runnerService.leaseJob(runnerInfo == null ? Map.of() : runnerInfo);
-        return ResponseEntity.ok(leased.<Map<String, Object>>map(j -> Map.of(
-                        "jobId", j.getId(),
-                        "image", j.getImage(),
-                        "script", j.getScript(),
-                        "env", j.getEnvJson(),
-                        "leasedAt", OffsetDateTime.now().toString()
-                )).orElseGet(() -> Map.of(
-                        "jobId", null,
-                        "leasedAt", OffsetDateTime.now().toString()
-                )));
+    public DeferredResult<ResponseEntity<Map<String, Object>>> leaseJob(
+            @RequestBody(required = false) Map<String, Object> runnerInfo,
+            @RequestHeader(value = RUNNER_NAME_HEADER, required = false) String runnerName,
+            @RequestParam(value = "wait", defaultValue = "0") int waitSeconds) {
+        Duration wait = Duration.ofSeconds(Math.max(0, Math.min(waitSeconds, MAX_WAIT_SECONDS)));
+        return leases.lease(withName(runnerInfo, runnerName), wait, RunnerController::leaseResponse);
+    }
+
+    /**
+     * Runner heartbeat with its {@code tags}, concurrency limit ({@code max_jobs}) and cached
+     * {@code images} and {@code repos}, used to schedule jobs onto it.
+     */
+    @PostMapping("/heartbeat")
+    public ResponseEntity<Map<String, Object>> heartbeat(
+            @RequestBody(required = false) Map<String, Object> runnerInfo,
+            @RequestHeader(value = RUNNER_NAME_HEADER, required = false) String runnerName) {
+        return runnerService.heartbeat(withName(runnerInfo, runnerName))
+                .<ResponseEntity<Map<String, Object>>>map(r -> ResponseEntity.ok(Map.of(
+                        "id", r.getId(),
+                        "name", r.getName(),
+                        "active", r.isActive())))
+                .orElseGet(() -> ResponseEntity.badRequest().body(Map.of("error", "name is required")));
+    }
+
+    private static Map<String, Object> withName(Map<String, Object> runnerInfo, String runnerName) {
+        Map<String, Object> info = runnerInfo == null ? new HashMap<>() : new HashMap<>(runnerInfo);
+        if (runnerName != null && !runnerName.isBlank()) info.putIfAbsent("name", runnerName);
+        return info;
+    }
+
+    private static ResponseEntity<Map<String, Object>> leaseResponse(Optional<PipelineJob> leased) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("jobId", leased.map(PipelineJob::getId).orElse(null));
+        leased.ifPresent(j -> {
+            body.put("image", j.getImage());
+            body.put("script", j.getScript());
+            body.put("env", j.getEnvJson());
+            body.put("timeoutSeconds", j.getTimeoutSeconds());
+        });
+        body.put("leasedAt", OffsetDateTime.now().toString());
+        return ResponseEntity.ok(body);
     }
 
     @PostMapping("/jobs/{jobId}/logs")
     public ResponseEntity<Void> submitLogs(@PathVariable UUID jobId, @RequestBody String logsChunk) {
-        runnerService.appendLogs(jobId, logsChunk);
+        try {
+            logBuffer.ingest(jobId, logsChunk);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
         return ResponseEntity.accepted().build();
     }
 
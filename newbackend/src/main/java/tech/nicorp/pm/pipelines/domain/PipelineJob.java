@@ -6,6 +6,8 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 
 @Entity
@@ -54,6 +56,18 @@ public class PipelineJob {
     @Column(name = "timeout_seconds")
     private Integer timeoutSeconds;
 
+    @Column(name = "tags", columnDefinition = "text")
+    private String tags; // comma-separated, all required on the runner
+
+    // the same tags, one row each, so the lease query can match them against a runner's tags
+    @ElementCollection
+    @CollectionTable(name = "pipeline_job_tags", joinColumns = @JoinColumn(name = "job_id"))
+    @Column(name = "tag")
+    private Set<String> tagSet = new HashSet<>();
+
+    @Column(name = "runner_id", columnDefinition = "uuid")
+    private UUID runnerId;
+
     @Column(name = "env_json", columnDefinition = "text")
     private String envJson;
 
@@ -63,6 +77,10 @@ public class PipelineJob {
     @Column(name = "created_at", nullable = false)
     private OffsetDateTime createdAt = OffsetDateTime.now();
 
+    // null while a manual job waits for release; see RunnerService#leaseJob
+    @Column(name = "ready_at")
+    private OffsetDateTime readyAt;
+
     @Column(name = "started_at")
     private OffsetDateTime startedAt;
 
@@ -27,6 +27,15 @@ public class Runner {
     @Column(name = "tags")
     private String tags; // comma-separated
 
+    @Column(name = "max_jobs")
+    private Integer maxJobs; // concurrent jobs, null for no limit
+
+    @Column(name = "cached_images", columnDefinition = "text")
+    private String cachedImages; // comma-separated
+
+    @Column(name = "cached_repos", columnDefinition = "text")
+    private String cachedRepos; // comma-separated repository ids
+
     @Column(name = "active", nullable = false)
     private boolean active = true;
 
@@ -1,11 +1,37 @@
 package tech.nicorp.pm.pipelines.repo;
 
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import tech.nicorp.pm.pipelines.domain.JobStatus;
 import tech.nicorp.pm.pipelines.domain.PipelineJob;
 
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 public interface PipelineJobRepository extends JpaRepository<PipelineJob, UUID> {
-}
 
+    // SELECT ... FOR UPDATE SKIP LOCKED (lock timeout -2) over idx_pipeline_jobs_runnable:
+    // concurrent runners each get a different row instead of waiting on the same one.
+    // Only jobs whose tags are all in runnerTags qualify, so jobs nobody live can run never fill the page;
+    // runnerTags must not be empty (pass a blank tag for a runner without tags).
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("select j from PipelineJob j where j.status = :status and j.readyAt <= :now"
+            + " and not exists (select t from PipelineJob o join o.tagSet t where o.id = j.id and t not in :runnerTags)"
+            + " order by j.readyAt asc")
+    List<PipelineJob> lockRunnable(@Param("status") JobStatus status, @Param("now") OffsetDateTime now,
+                                   @Param("runnerTags") Collection<String> runnerTags, Pageable page);
+
+    long countByRunnerIdAndStatus(UUID runnerId, JobStatus status);
 
+    @Query("select j.runnerId, count(j) from PipelineJob j where j.status = :status and j.runnerId in :runnerIds group by j.runnerId")
+    List<Object[]> countByRunner(@Param("status") JobStatus status, @Param("runnerIds") Collection<UUID> runnerIds);
+}
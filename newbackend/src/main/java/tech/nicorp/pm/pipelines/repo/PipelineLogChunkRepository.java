@@ -1,13 +1,37 @@
 package tech.nicorp.pm.pipelines.repo;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import tech.nicorp.pm.pipelines.domain.PipelineLogChunk;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
+/**
+ * Legacy log rows; new output goes to {@link tech.nicorp.pm.pipelines.service.PipelineLogStore} and the
+ * rows are moved there by {@link tech.nicorp.pm.pipelines.service.PipelineLogMigrationService}.
+ */
 public interface PipelineLogChunkRepository extends JpaRepository<PipelineLogChunk, UUID> {
-    List<PipelineLogChunk> findByJobIdOrderByCreatedAtAsc(UUID jobId);
-}
+    @Query("select distinct c.job.id from PipelineLogChunk c")
+    List<UUID> findJobIds(Pageable page);
+
+    boolean existsByJobId(UUID jobId);
 
+    // must run inside a transaction; rows are fetched in batches rather than all at once
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "256"))
+    @Query("select c.content from PipelineLogChunk c where c.job.id = :jobId order by c.createdAt, c.id")
+    Stream<String> streamContent(@Param("jobId") UUID jobId);
 
+    @Transactional
+    @Modifying
+    @Query("delete from PipelineLogChunk c where c.job.id = :jobId")
+    int deleteByJobId(@Param("jobId") UUID jobId);
+}
@@ -1,11 +1,23 @@
 package tech.nicorp.pm.pipelines.repo;
 
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import tech.nicorp.pm.pipelines.domain.Runner;
 
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 public interface RunnerRepository extends JpaRepository<Runner, UUID> {
-}
 
+    // serialises leases of one runner, so its concurrency limit holds
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Runner r where r.name = :name")
+    Optional<Runner> lockByName(@Param("name") String name);
 
+    List<Runner> findByActiveTrueAndLastHeartbeatAtAfter(OffsetDateTime since);
+}
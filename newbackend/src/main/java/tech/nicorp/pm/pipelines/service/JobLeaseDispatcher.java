@@ -0,0 +1,151 @@
+package tech.nicorp.pm.pipelines.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
+import tech.nicorp.pm.pipelines.domain.PipelineJob;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Long-poll job leasing. A runner that finds nothing to do parks its request here instead of polling
+ * again, and is woken when a job may have become runnable: a pipeline was triggered, a manual job
+ * released, or a delayed job's start time reached.
+ * <p>
+ * Parked requests are offered jobs oldest first on a single dispatcher thread, which also runs the delayed
+ * wake-ups. Wake-ups scheduled before a restart are lost, so a periodic sweep retries while anyone is
+ * waiting.
+ */
+@Slf4j
+@Service
+public class JobLeaseDispatcher {
+
+    private record Waiter<T>(Map<String, Object> runnerInfo, DeferredResult<T> result,
+                             Function<Optional<PipelineJob>, T> response) {
+        boolean deliver(PipelineJob job) {
+            return result.setResult(response.apply(Optional.of(job)));
+        }
+    }
+
+    private final RunnerService runners;
+    private final ConcurrentLinkedDeque<Waiter<?>> waiters = new ConcurrentLinkedDeque<>();
+    private final AtomicLong signals = new AtomicLong();
+    private final AtomicBoolean dispatchPending = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "job-lease-dispatcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public JobLeaseDispatcher(RunnerService runners) {
+        this.runners = runners;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Leases a job right away or parks for up to {@code wait}; on timeout the result is
+     * {@code response(Optional.empty())}.
+     */
+    public <T> DeferredResult<T> lease(Map<String, Object> runnerInfo, Duration wait, Function<Optional<PipelineJob>, T> response) {
+        long seen = signals.get();
+        Optional<PipelineJob> job = runners.leaseJob(runnerInfo);
+        if (job.isPresent() || wait.isZero() || wait.isNegative()) {
+            DeferredResult<T> result = new DeferredResult<>();
+            result.setResult(response.apply(job));
+            return result;
+        }
+        DeferredResult<T> result = new DeferredResult<>(wait.toMillis(), response.apply(Optional.empty()));
+        Waiter<T> waiter = new Waiter<>(runnerInfo, result, response);
+        result.onCompletion(() -> waiters.remove(waiter));
+        waiters.add(waiter);
+        // a job enqueued between the lease attempt and parking would otherwise wait for the next signal
+        if (signals.get() != seen) signal();
+        return result;
+    }
+
+    /**
+     * Jobs were queued or released in the current transaction; wakes waiting runners once it commits.
+     */
+    public void jobsReady() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            signal();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                signal();
+            }
+        });
+    }
+
+    /**
+     * Wakes waiting runners when a delayed job becomes runnable.
+     */
+    public void jobReadyAt(OffsetDateTime readyAt) {
+        long delay = Math.max(0, Duration.between(OffsetDateTime.now(), readyAt).toMillis());
+        executor.schedule(this::signal, delay, TimeUnit.MILLISECONDS);
+    }
+
+    int waiting() {
+        return waiters.size();
+    }
+
+    @Scheduled(fixedDelayString = "${pipelines.lease.sweep-millis:15000}")
+    public void sweep() {
+        if (!waiters.isEmpty()) signal();
+    }
+
+    private void signal() {
+        signals.incrementAndGet();
+        if (dispatchPending.compareAndSet(false, true)) {
+            executor.execute(this::dispatch);
+        }
+    }
+
+    private void dispatch() {
+        dispatchPending.set(false);
+        for (Iterator<Waiter<?>> it = waiters.iterator(); it.hasNext(); ) {
+            Waiter<?> waiter = it.next();
+            if (waiter.result().isSetOrExpired()) {
+                it.remove();
+                continue;
+            }
+            Optional<PipelineJob> job;
+            try {
+                job = runners.leaseJob(waiter.runnerInfo());
+            } catch (RuntimeException e) {
+                log.warn("Lease for a waiting runner failed: {}", e.getMessage());
+                return;
+            }
+            // nothing this runner can take (tags, capacity); later waiters may still match
+            if (job.isEmpty()) continue;
+            it.remove();
+            if (!waiter.deliver(job.get())) {
+                // the request timed out while the job was being claimed
+                runners.releaseLease(job.get().getId());
+                signal();
+                return;
+            }
+        }
+    }
+}
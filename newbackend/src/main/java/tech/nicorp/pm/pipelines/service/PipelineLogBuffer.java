@@ -0,0 +1,230 @@
+package tech.nicorp.pm.pipelines.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.nicorp.pm.pipelines.repo.PipelineJobRepository;
+import tech.nicorp.pm.websocket.WebSocketSessionManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers runner log output per job and writes it in batches.
+ * <p>
+ * Runners number their chunks ({@code seq}); retried chunks are dropped and chunks that arrive early
+ * wait until the gap before them is filled, or until {@code reorder-millis} have passed, after which
+ * the gap is skipped. In-order output is flushed every {@code flush-millis} (and as soon as a job has
+ * {@code max-batch-bytes} pending) as one {@link PipelineLogStore} append and one WebSocket frame per
+ * job, instead of a write and a frame per chunk.
+ */
+@Slf4j
+@Service
+public class PipelineLogBuffer {
+
+    private static final class JobLog {
+        long nextSeq;
+        // early chunks by seq, with the time the first of them arrived
+        final TreeMap<Long, String> early = new TreeMap<>();
+        long earlySinceNanos;
+        final StringBuilder ready = new StringBuilder();
+        long lastAppendNanos = System.nanoTime();
+        // held while a batch is taken and stored, so batches of a job are stored in order
+        final Object writeLock = new Object();
+    }
+
+    private final PipelineJobRepository jobRepository;
+    private final PipelineLogStore logStore;
+    private final WebSocketSessionManager sessionManager;
+    private final int maxBatchBytes;
+    private final long reorderNanos;
+    private final long idleNanos;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<UUID, JobLog> jobs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pipeline-log-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PipelineLogBuffer(PipelineJobRepository jobRepository, PipelineLogStore logStore,
+                             WebSocketSessionManager sessionManager,
+                             @Value("${pipelines.logs.flush-millis:200}") long flushMillis,
+                             @Value("${pipelines.logs.max-batch-bytes:262144}") int maxBatchBytes,
+                             @Value("${pipelines.logs.reorder-millis:2000}") long reorderMillis,
+                             @Value("${pipelines.logs.idle-minutes:30}") long idleMinutes) {
+        this.jobRepository = jobRepository;
+        this.logStore = logStore;
+        this.sessionManager = sessionManager;
+        this.maxBatchBytes = maxBatchBytes;
+        this.reorderNanos = TimeUnit.MILLISECONDS.toNanos(reorderMillis);
+        this.idleNanos = TimeUnit.MINUTES.toNanos(idleMinutes);
+        executor.scheduleWithFixedDelay(this::flushSafely, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        flushSafely();
+    }
+
+    /**
+     * Accepts a request body from a runner: {@code {"seq": 3, "content": "..."}}, an array of those,
+     * or plain text without a sequence number.
+     */
+    public void ingest(UUID jobId, String body) {
+        String trimmed = body == null ? "" : body.stripLeading();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            JsonNode root;
+            try {
+                root = mapper.readTree(trimmed);
+            } catch (JsonProcessingException e) {
+                root = null;
+            }
+            if (root != null) {
+                for (JsonNode chunk : root.isArray() ? root : List.of(root)) {
+                    JsonNode seq = chunk.get("seq");
+                    append(jobId, seq != null && seq.canConvertToLong() ? seq.asLong() : null, chunk.path("content").asText(""));
+                }
+                return;
+            }
+        }
+        if (body != null && !body.isEmpty()) append(jobId, null, body);
+    }
+
+    /**
+     * Accepts one chunk. {@code seq} may be null for clients that do not number their output; such
+     * chunks are appended in arrival order. Throws {@link NoSuchElementException} for an unknown job.
+     */
+    public void append(UUID jobId, Long seq, String content) {
+        JobLog buf = jobs.get(jobId);
+        if (buf == null) {
+            if (!jobRepository.existsById(jobId)) throw new NoSuchElementException("Job not found: " + jobId);
+            buf = jobs.computeIfAbsent(jobId, id -> new JobLog());
+        }
+        boolean full;
+        synchronized (buf) {
+            buf.lastAppendNanos = System.nanoTime();
+            if (seq == null) {
+                buf.ready.append(content);
+            } else if (seq < buf.nextSeq || buf.early.containsKey(seq)) {
+                return;
+            } else if (seq == buf.nextSeq) {
+                buf.ready.append(content);
+                buf.nextSeq++;
+                drainEarly(buf);
+            } else {
+                if (buf.early.isEmpty()) buf.earlySinceNanos = System.nanoTime();
+                buf.early.put(seq, content);
+            }
+            full = buf.ready.length() >= maxBatchBytes;
+        }
+        if (full) executor.execute(this::flushSafely);
+    }
+
+    /**
+     * Flushes what is buffered for a finished job and forgets it; chunks arriving late start a new buffer.
+     * Never throws: if the output cannot be stored it is kept for the periodic flush, so a storage error
+     * does not undo the caller's status update.
+     */
+    public void finish(UUID jobId) {
+        JobLog buf = jobs.remove(jobId);
+        if (buf == null) return;
+        synchronized (buf) {
+            buf.nextSeq = Long.MAX_VALUE;
+            buf.early.values().forEach(buf.ready::append);
+            buf.early.clear();
+        }
+        try {
+            write(Map.of(jobId, buf));
+            logStore.close(jobId);
+        } catch (RuntimeException e) {
+            log.warn("Storing the final log output of job {} failed, will retry: {}", jobId, e.getMessage());
+            JobLog current = jobs.putIfAbsent(jobId, buf);
+            if (current != null) {
+                // late chunks started a new buffer meanwhile; the older output goes first
+                String pending;
+                synchronized (buf) {
+                    pending = buf.ready.toString();
+                }
+                synchronized (current) {
+                    current.ready.insert(0, pending);
+                }
+            }
+        }
+    }
+
+    void flush() {
+        long now = System.nanoTime();
+        for (Map.Entry<UUID, JobLog> e : jobs.entrySet()) {
+            JobLog buf = e.getValue();
+            synchronized (buf) {
+                if (!buf.early.isEmpty() && now - buf.earlySinceNanos > reorderNanos) {
+                    // the missing chunk is not coming: continue from the earliest one we have
+                    buf.nextSeq = buf.early.firstKey();
+                    drainEarly(buf);
+                    if (!buf.early.isEmpty()) buf.earlySinceNanos = now;
+                }
+                if (buf.ready.isEmpty() && buf.early.isEmpty() && now - buf.lastAppendNanos > idleNanos) {
+                    jobs.remove(e.getKey(), buf);
+                }
+            }
+        }
+        write(jobs);
+    }
+
+    // jobs are written independently: a slow or failing job does not hold up the others
+    private void write(Map<UUID, JobLog> logs) {
+        RuntimeException failure = null;
+        for (Map.Entry<UUID, JobLog> e : logs.entrySet()) {
+            UUID jobId = e.getKey();
+            JobLog buf = e.getValue();
+            synchronized (buf.writeLock) {
+                String batch;
+                synchronized (buf) {
+                    if (buf.ready.isEmpty()) continue;
+                    batch = buf.ready.toString();
+                    buf.ready.setLength(0);
+                }
+                try {
+                    logStore.append(jobId, batch);
+                } catch (RuntimeException ex) {
+                    if (failure == null) failure = ex;
+                    // keep the output for the next flush, ahead of anything that arrived meanwhile
+                    synchronized (buf) {
+                        buf.ready.insert(0, batch);
+                    }
+                    continue;
+                }
+                sessionManager.sendPipelineLogToJob(jobId, "log", batch);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Flushing pipeline logs failed: {}", e.getMessage());
+        }
+    }
+
+    private static void drainEarly(JobLog buf) {
+        while (!buf.early.isEmpty() && buf.early.firstKey() == buf.nextSeq) {
+            buf.ready.append(buf.early.pollFirstEntry().getValue());
+            buf.nextSeq++;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package tech.nicorp.pm.pipelines.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+import tech.nicorp.pm.pipelines.repo.PipelineLogChunkRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Moves job logs from the legacy {@code pipeline_log_chunks} table into {@link PipelineLogStore}, a batch
+ * of jobs per sweep until the table is empty. A log that is read before its turn is moved right away.
+ * <p>
+ * Output appended to the store before a job is moved (a job running across the upgrade) ends up after
+ * the legacy rows. The rows are deleted once the store has the job's log; a crash in between only
+ * repeats the delete.
+ */
+@Slf4j
+@Service
+public class PipelineLogMigrationService {
+    private final PipelineLogChunkRepository chunks;
+    private final PipelineLogStore store;
+    private final TransactionOperations transactions;
+    private final int batchSize;
+    private volatile boolean done;
+
+    public PipelineLogMigrationService(PipelineLogChunkRepository chunks, PipelineLogStore store,
+                                       TransactionOperations transactions,
+                                       @Value("${pipelines.logs.migration.batch-size:100}") int batchSize) {
+        this.chunks = chunks;
+        this.store = store;
+        this.transactions = transactions;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(initialDelayString = "${pipelines.logs.migration.initial-delay-millis:30000}",
+            fixedDelayString = "${pipelines.logs.migration.interval-millis:10000}")
+    public void sweep() {
+        if (done) return;
+        List<UUID> jobIds = chunks.findJobIds(PageRequest.of(0, batchSize));
+        if (jobIds.isEmpty()) {
+            done = true;
+            log.info("Pipeline logs table is empty; all logs are in {}", PipelineLogStore.class.getSimpleName());
+            return;
+        }
+        int migrated = 0;
+        for (UUID jobId : jobIds) {
+            try {
+                migrate(jobId);
+                migrated++;
+            } catch (RuntimeException e) {
+                log.warn("Failed to migrate logs of job {}: {}", jobId, e.getMessage());
+            }
+        }
+        log.info("Migrated logs of {} jobs to file storage", migrated);
+    }
+
+    /**
+     * Makes sure the store has the complete log of the job before it is read.
+     */
+    public void ensureMigrated(UUID jobId) {
+        if (!done && chunks.existsByJobId(jobId)) migrate(jobId);
+    }
+
+    void migrate(UUID jobId) {
+        if (!store.imported(jobId)) {
+            transactions.executeWithoutResult(status -> {
+                try (Stream<String> rows = chunks.streamContent(jobId)) {
+                    Iterator<String> it = rows.iterator();
+                    store.importLegacy(jobId, out -> {
+                        while (it.hasNext()) out.append(it.next());
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        chunks.deleteByJobId(jobId);
+    }
+}
@@ -0,0 +1,401 @@
+package tech.nicorp.pm.pipelines.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tech.nicorp.pm.git.GitConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Job logs as append-only files: {@code <dir>/<jobId>/<base offset>.log} segments of up to
+ * {@code segment-bytes} each, plus an {@code index} of fixed 16-byte entries (end offset, epoch millis),
+ * one per appended batch.
+ * <p>
+ * The last index entry is the committed length of the log, and readers never go past it, so a batch that
+ * is still being written (or was cut short by a crash) is invisible; the writer truncates such a tail the
+ * next time it opens the log. Reads are {@link FileChannel#transferTo} over the segments, nothing is
+ * loaded into memory.
+ * <p>
+ * A running job keeps its files open between batches. Appends are not forced to disk one by one:
+ * {@link #sync} forces them every {@code sync-millis} (data before index), as do filling a segment and
+ * {@link #close}. A process crash loses nothing committed; a power loss can lose the last
+ * {@code sync-millis} of output, and if the index outlived the data the writer cuts it back to the data
+ * it finds on reopening. Writers idle for {@code writer-idle-seconds} are closed.
+ */
+@Slf4j
+@Service
+public class PipelineLogStore {
+
+    private static final String INDEX = "index";
+    private static final String IMPORTED = "imported";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int ENTRY_BYTES = 16;
+
+    private final Path root;
+    private final long segmentBytes;
+    private final long idleNanos;
+    // writers for the same job are serialized; different jobs proceed in parallel
+    private final Object[] locks = new Object[64];
+    // open writers of jobs that are being written to, guarded by the job's lock
+    private final Map<UUID, Writer> writers = new ConcurrentHashMap<>();
+
+    public PipelineLogStore(GitConfig config,
+                            @Value("${pipelines.logs.dir:}") String dir,
+                            @Value("${pipelines.logs.segment-bytes:67108864}") long segmentBytes,
+                            @Value("${pipelines.logs.writer-idle-seconds:60}") long idleSeconds) {
+        this.root = dir == null || dir.isBlank()
+                ? config.getReposRoot().resolve(".pipeline-logs")
+                : Path.of(dir);
+        this.segmentBytes = segmentBytes;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        for (int i = 0; i < locks.length; i++) locks[i] = new Object();
+    }
+
+    /**
+     * Receives the content of a legacy log, see {@link #importLegacy}.
+     */
+    @FunctionalInterface
+    public interface LegacySource {
+        void writeTo(Appender out) throws IOException;
+    }
+
+    public interface Appender {
+        void append(String content) throws IOException;
+    }
+
+    /**
+     * Committed length of the log in bytes; 0 for a job without output.
+     */
+    public long size(UUID jobId) {
+        try {
+            return committed(dir(jobId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends one batch and commits it, opening the job's writer if it is not open yet.
+     */
+    public void append(UUID jobId, String content) {
+        if (content == null || content.isEmpty()) return;
+        synchronized (lock(jobId)) {
+            Writer w = writers.get(jobId);
+            try {
+                if (w == null) {
+                    w = new Writer(dir(jobId));
+                    writers.put(jobId, w);
+                }
+                w.write(content.getBytes(StandardCharsets.UTF_8));
+                w.commit();
+            } catch (IOException e) {
+                // reopening truncates whatever this batch left behind
+                if (w != null) discard(jobId, w, e);
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Forces the job's log to disk and closes its files; a later append opens them again.
+     */
+    public void close(UUID jobId) {
+        synchronized (lock(jobId)) {
+            Writer w = writers.remove(jobId);
+            if (w == null) return;
+            try {
+                w.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Forces what was appended since the last sync and closes the writers of jobs that stopped writing.
+     */
+    @Scheduled(fixedDelayString = "${pipelines.logs.sync-millis:1000}")
+    public void sync() {
+        long now = System.nanoTime();
+        for (UUID jobId : writers.keySet()) {
+            synchronized (lock(jobId)) {
+                Writer w = writers.get(jobId);
+                if (w == null) continue;
+                try {
+                    if (now - w.lastUsedNanos > idleNanos) {
+                        writers.remove(jobId);
+                        w.close();
+                    } else {
+                        w.sync();
+                    }
+                } catch (IOException e) {
+                    log.warn("Syncing the log of job {} failed: {}", jobId, e.getMessage());
+                    discard(jobId, w, e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (UUID jobId : writers.keySet()) {
+            try {
+                close(jobId);
+            } catch (UncheckedIOException e) {
+                log.warn("Closing the log of job {} failed: {}", jobId, e.getMessage());
+            }
+        }
+    }
+
+    private void discard(UUID jobId, Writer w, IOException cause) {
+        writers.remove(jobId, w);
+        try {
+            w.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Copies {@code count} bytes of the log starting at {@code position} to {@code target}, clamped to the
+     * committed length. Returns the number of bytes written.
+     */
+    public long transferTo(UUID jobId, long position, long count, WritableByteChannel target) throws IOException {
+        return transferTo(dir(jobId), position, count, target);
+    }
+
+    private static long transferTo(Path dir, long position, long count, WritableByteChannel target) throws IOException {
+        long end = position + Math.min(count, Math.max(0, committed(dir) - position));
+        long written = 0;
+        List<Long> bases = segments(dir);
+        for (int i = 0; i < bases.size() && position < end; i++) {
+            long base = bases.get(i);
+            long next = i + 1 < bases.size() ? bases.get(i + 1) : Long.MAX_VALUE;
+            if (position >= next) continue;
+            try (FileChannel channel = FileChannel.open(segment(dir, base), StandardOpenOption.READ)) {
+                long limit = Math.min(end, Math.min(next, base + channel.size()));
+                while (position < limit) {
+                    long n = channel.transferTo(position - base, limit - position, target);
+                    if (n <= 0) break;
+                    position += n;
+                    written += n;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Whether {@link #importLegacy} has completed for the job.
+     */
+    public boolean imported(UUID jobId) {
+        return Files.exists(dir(jobId).resolve(IMPORTED));
+    }
+
+    /**
+     * Rebuilds the log of a job as the legacy content followed by whatever was appended here before the
+     * import. The legacy content is written to a private directory without blocking appends; only copying
+     * what was appended meanwhile and swapping the new log in happen under the job's lock. Does nothing if
+     * the job was imported before.
+     */
+    public void importLegacy(UUID jobId, LegacySource legacy) throws IOException {
+        Path dir = dir(jobId);
+        if (Files.exists(dir.resolve(IMPORTED))) return;
+        Files.createDirectories(root);
+        Path tmp = Files.createTempDirectory(root, jobId + ".import.");
+        try {
+            try (Writer w = new Writer(tmp)) {
+                legacy.writeTo(content -> w.write(content.getBytes(StandardCharsets.UTF_8)));
+                w.commit();
+            }
+            synchronized (lock(jobId)) {
+                if (Files.exists(dir.resolve(IMPORTED))) return;
+                Writer open = writers.remove(jobId);
+                if (open != null) open.close();
+                long size = committed(dir);
+                if (size > 0) {
+                    try (Writer w = new Writer(tmp)) {
+                        w.write(dir, size);
+                        w.commit();
+                    }
+                }
+                Files.createFile(tmp.resolve(IMPORTED));
+                Path old = dir.resolveSibling(jobId + ".old");
+                deleteTree(old);
+                if (Files.exists(dir)) Files.move(dir, old, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+                // readers that already opened the old segments keep reading them
+                deleteTree(old);
+            }
+        } finally {
+            deleteTree(tmp);
+        }
+    }
+
+    private final class Writer implements AutoCloseable {
+        private final Path dir;
+        private final FileChannel index;
+        private FileChannel segment;
+        private long segmentBase;
+        private long end;
+        // committed since the last force
+        private boolean dirty;
+        long lastUsedNanos = System.nanoTime();
+
+        Writer(Path dir) throws IOException {
+            this.dir = dir;
+            Files.createDirectories(dir);
+            this.end = committed(dir);
+            this.index = FileChannel.open(dir.resolve(INDEX), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // drop a torn index entry and anything written after the last commit
+            index.truncate(index.size() / ENTRY_BYTES * ENTRY_BYTES);
+            index.position(index.size());
+            List<Long> bases = segments(dir);
+            for (int i = bases.size() - 1; i > 0 && bases.get(i) >= end; i--) {
+                Files.delete(segment(dir, bases.remove(i)));
+            }
+            segmentBase = bases.isEmpty() ? 0 : bases.get(bases.size() - 1);
+            segment = FileChannel.open(segment(dir, segmentBase), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (segmentBase + segment.size() < end) {
+                // the index reached the disk but the data did not (power loss before a sync)
+                end = segmentBase + segment.size();
+                commit();
+                sync();
+            }
+            segment.truncate(end - segmentBase);
+            segment.position(end - segmentBase);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                roll();
+                int n = (int) Math.min(buf.remaining(), segmentBytes - (end - segmentBase));
+                ByteBuffer slice = buf.slice(buf.position(), n);
+                while (slice.hasRemaining()) end += segment.write(slice);
+                buf.position(buf.position() + n);
+            }
+        }
+
+        // copies the first {@code size} committed bytes of another log
+        void write(Path source, long size) throws IOException {
+            long copied = 0;
+            while (copied < size) {
+                roll();
+                long n = Math.min(size - copied, segmentBytes - (end - segmentBase));
+                long before = segment.position();
+                transferTo(source, copied, n, segment);
+                long done = segment.position() - before;
+                if (done <= 0) throw new IOException("Short read from " + source);
+                copied += done;
+                end += done;
+            }
+        }
+
+        void commit() throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES).putLong(end).putLong(System.currentTimeMillis()).flip();
+            while (entry.hasRemaining()) index.write(entry);
+            dirty = true;
+            lastUsedNanos = System.nanoTime();
+        }
+
+        // data before index, so that what the forced index commits is on disk too
+        void sync() throws IOException {
+            if (!dirty) return;
+            segment.force(false);
+            index.force(false);
+            dirty = false;
+        }
+
+        private void roll() throws IOException {
+            if (end - segmentBase < segmentBytes) return;
+            segment.force(false);
+            segment.close();
+            segmentBase = end;
+            segment = FileChannel.open(segment(dir, segmentBase), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                sync();
+            } finally {
+                try {
+                    segment.close();
+                } finally {
+                    index.close();
+                }
+            }
+        }
+    }
+
+    private static long committed(Path dir) throws IOException {
+        try (FileChannel index = FileChannel.open(dir.resolve(INDEX), StandardOpenOption.READ)) {
+            long entries = index.size() / ENTRY_BYTES;
+            if (entries == 0) return 0;
+            ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+            long at = (entries - 1) * ENTRY_BYTES;
+            while (buf.hasRemaining()) {
+                if (index.read(buf, at + buf.position()) < 0) throw new IOException("Truncated index in " + dir);
+            }
+            return buf.flip().getLong();
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static List<Long> segments(Path dir) throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        } catch (NoSuchFileException e) {
+            return bases;
+        }
+        bases.sort(Comparator.naturalOrder());
+        return bases;
+    }
+
+    private static Path segment(Path dir, long base) {
+        return dir.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    private Path dir(UUID jobId) {
+        return root.resolve(jobId.toString());
+    }
+
+    private Object lock(UUID jobId) {
+        return locks[Math.floorMod(jobId.hashCode(), locks.length)];
+    }
+}
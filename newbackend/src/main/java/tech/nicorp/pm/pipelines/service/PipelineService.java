@@ -9,6 +9,7 @@ import tech.nicorp.pm.pipelines.repo.PipelineRepository;
 import tech.nicorp.pm.git.GitService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.time.OffsetDateTime;
 import java.util.Map;
 import java.util.UUID;
 import java.util.HashMap;
@@ -21,6 +22,7 @@ public class PipelineService {
     private final PipelineRepository pipelineRepository;
     private final PipelineJobRepository jobRepository;
     private final GitService gitService;
+    private final JobLeaseDispatcher leases;
     private final PipelineYamlParser yamlParser = new PipelineYamlParser();
     private final ObjectMapper mapper = new ObjectMapper();
 
@@ -58,12 +60,29 @@ public class PipelineService {
                 job.setAllowFailure(decision.allowFailure != null && decision.allowFailure);
                 job.setStartAfterSeconds(decision.startAfterSeconds);
                 job.setRuleHint(decision.ruleHint);
+                job.setTags(RunnerScheduler.join(js.tags != null ? js.tags : spec.defaults.tags));
+                job.setTagSet(RunnerScheduler.split(job.getTags()));
+                job.setReadyAt(readyAt(job));
                 jobRepository.save(job);
+                if (job.getReadyAt() != null && job.getReadyAt().isAfter(job.getCreatedAt())) {
+                    leases.jobReadyAt(job.getReadyAt());
+                }
             }
+            leases.jobsReady();
         } catch (Exception ignored) {}
         return pipeline;
     }
 
+    // manual jobs become ready on release, delayed ones once their delay has passed
+    private static OffsetDateTime readyAt(PipelineJob job) {
+        return switch (job.getWhenType()) {
+            case MANUAL -> job.isManualReleased() ? job.getCreatedAt() : null;
+            case DELAYED -> job.getStartAfterSeconds() == null ? job.getCreatedAt()
+                    : job.getCreatedAt().plusSeconds(job.getStartAfterSeconds());
+            default -> job.getCreatedAt();
+        };
+    }
+
     private Map<String, String> buildCiEnv(Pipeline pipeline, Map<String, Object> req) {
         Map<String, String> env = new HashMap<>();
         env.put("CI_PIPELINE_SOURCE", pipeline.getSource().name().toLowerCase());
@@ -165,6 +184,10 @@ public class PipelineService {
     public PipelineJob releaseManual(UUID jobId) {
         PipelineJob job = jobRepository.findById(jobId).orElseThrow();
         job.setManualReleased(true);
+        if (job.getStatus() == JobStatus.QUEUED && job.getReadyAt() == null) {
+            job.setReadyAt(OffsetDateTime.now());
+            leases.jobsReady();
+        }
         jobRepository.save(job);
         return job;
     }
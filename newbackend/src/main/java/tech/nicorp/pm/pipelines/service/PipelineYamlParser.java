@@ -10,6 +10,7 @@ public class PipelineYamlParser {
         public String image;
         public Map<String, String> variables = new HashMap<>();
         public List<String> beforeScript = new ArrayList<>();
+        public List<String> tags = new ArrayList<>();
     }
 
     public static class RuleSpec {
@@ -24,6 +25,7 @@ public class PipelineYamlParser {
         public String image;
         public List<String> script = new ArrayList<>();
         public List<RuleSpec> rules = new ArrayList<>();
+        public List<String> tags; // null: inherit default tags
     }
 
     public static class PipelineSpec {
@@ -52,6 +54,7 @@ public class PipelineYamlParser {
             } else if (bs instanceof String s) {
                 spec.defaults.beforeScript.add(s);
             }
+            spec.defaults.tags.addAll(stringList(dm.get("tags")));
         }
 
         Object jobsObj = root.get("jobs");
@@ -70,6 +73,7 @@ public class PipelineYamlParser {
                 } else if (script instanceof String s) {
                     js.script.add(s);
                 }
+                if (jobMap.containsKey("tags")) js.tags = stringList(jobMap.get("tags"));
                 Object rules = jobMap.get("rules");
                 if (rules instanceof List<?> rl) {
                     for (Object ro : rl) {
@@ -92,6 +96,16 @@ public class PipelineYamlParser {
         }
         return spec;
     }
-}
-
 
+    // tags: [a, b] or tags: a
+    private static List<String> stringList(Object value) {
+        List<String> out = new ArrayList<>();
+        if (value instanceof List<?> ls) {
+            for (Object v : ls) if (v != null) out.add(String.valueOf(v).trim());
+        } else if (value != null) {
+            out.add(String.valueOf(value).trim());
+        }
+        out.removeIf(String::isEmpty);
+        return out;
+    }
+}
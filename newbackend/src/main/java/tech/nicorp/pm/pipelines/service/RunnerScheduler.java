@@ -0,0 +1,98 @@
+package tech.nicorp.pm.pipelines.service;
+
+import tech.nicorp.pm.pipelines.domain.PipelineJob;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which of the ready jobs a polling runner takes.
+ * <p>
+ * A runner only gets jobs whose tags are all among its own tags, and nothing while it is at the
+ * concurrency limit from its last heartbeat. Among the jobs it can run it prefers those whose image or
+ * repository it already has cached. A job that another live runner with free capacity has cached
+ * (and this one has not) is left to that runner for a short grace period after it becomes ready.
+ */
+final class RunnerScheduler {
+
+    private RunnerScheduler() {}
+
+    /**
+     * What is known about a runner. {@code maxJobs <= 0} means no limit.
+     */
+    record RunnerState(UUID id, Set<String> tags, int maxJobs, long running, Set<String> images, Set<String> repos) {
+
+        static RunnerState anonymous() {
+            return new RunnerState(null, Set.of(), 0, 0, Set.of(), Set.of());
+        }
+
+        boolean hasCapacity() {
+            return maxJobs <= 0 || running < maxJobs;
+        }
+
+        boolean canRun(Candidate c) {
+            return tags.containsAll(c.tags());
+        }
+
+        int affinity(Candidate c) {
+            int score = 0;
+            if (c.image() != null && images.contains(c.image())) score++;
+            if (c.repo() != null && repos.contains(c.repo())) score++;
+            return score;
+        }
+    }
+
+    record Candidate(PipelineJob job, Set<String> tags, String image, String repo) {}
+
+    /**
+     * Candidates come in ready order; the earliest job wins among equally good ones.
+     */
+    static Optional<PipelineJob> choose(RunnerState runner, List<Candidate> candidates, Collection<RunnerState> others,
+                                        OffsetDateTime now, Duration affinityGrace) {
+        if (!runner.hasCapacity()) return Optional.empty();
+        Candidate best = null;
+        int bestScore = -1;
+        for (Candidate c : candidates) {
+            if (!runner.canRun(c)) continue;
+            int score = runner.affinity(c);
+            if (score <= bestScore) continue;
+            if (reservedForOther(c, score, others, now, affinityGrace)) continue;
+            best = c;
+            bestScore = score;
+        }
+        return Optional.ofNullable(best).map(Candidate::job);
+    }
+
+    private static boolean reservedForOther(Candidate c, int score, Collection<RunnerState> others,
+                                            OffsetDateTime now, Duration grace) {
+        OffsetDateTime readyAt = c.job().getReadyAt();
+        if (readyAt == null || !readyAt.plus(grace).isAfter(now)) return false;
+        for (RunnerState other : others) {
+            if (other.hasCapacity() && other.canRun(c) && other.affinity(c) > score) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Comma-separated list as stored in {@code runners.tags} and {@code pipeline_jobs.tags}; blank entries dropped.
+     */
+    static Set<String> split(String value) {
+        if (value == null || value.isBlank()) return Set.of();
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    static String join(Collection<String> values) {
+        return values == null || values.isEmpty() ? null : String.join(",", values);
+    }
+}
@@ -1,56 +1,156 @@
 package tech.nicorp.pm.pipelines.service;
 
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import tech.nicorp.pm.pipelines.domain.JobStatus;
 import tech.nicorp.pm.pipelines.domain.PipelineJob;
-import tech.nicorp.pm.pipelines.domain.PipelineLogChunk;
-import tech.nicorp.pm.pipelines.domain.WhenType;
+import tech.nicorp.pm.pipelines.domain.Runner;
 import tech.nicorp.pm.pipelines.repo.PipelineJobRepository;
-import tech.nicorp.pm.pipelines.repo.PipelineLogChunkRepository;
+import tech.nicorp.pm.pipelines.repo.RunnerRepository;
 import tech.nicorp.pm.websocket.WebSocketSessionManager;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 
 @Service
-@RequiredArgsConstructor
 public class RunnerService {
     private final PipelineJobRepository jobRepository;
-    private final PipelineLogChunkRepository logRepository;
+    private final RunnerRepository runnerRepository;
+    private final PipelineLogBuffer logBuffer;
     private final WebSocketSessionManager sessionManager;
+    private final int candidateWindow;
+    private final Duration affinityGrace;
+    private final Duration heartbeatTimeout;
 
+    public RunnerService(PipelineJobRepository jobRepository, RunnerRepository runnerRepository,
+                         PipelineLogBuffer logBuffer, WebSocketSessionManager sessionManager,
+                         @Value("${pipelines.lease.candidates:16}") int candidateWindow,
+                         @Value("${pipelines.lease.affinity-grace-seconds:10}") long affinityGraceSeconds,
+                         @Value("${pipelines.runners.heartbeat-timeout-seconds:90}") long heartbeatTimeoutSeconds) {
+        this.jobRepository = jobRepository;
+        this.runnerRepository = runnerRepository;
+        this.logBuffer = logBuffer;
+        this.sessionManager = sessionManager;
+        this.candidateWindow = candidateWindow;
+        this.affinityGrace = Duration.ofSeconds(affinityGraceSeconds);
+        this.heartbeatTimeout = Duration.ofSeconds(heartbeatTimeoutSeconds);
+    }
+
+    /**
+     * Claims a job for the runner described by {@code runnerInfo} and marks it RUNNING in the same
+     * transaction. The oldest ready jobs this runner's tags allow are locked with SKIP LOCKED, so competing
+     * leases never hand out the same job and jobs no runner can take do not block the queue;
+     * {@link RunnerScheduler} picks among them by capacity and cache affinity.
+     * A runner without a {@code name} gets untagged jobs only and has no concurrency limit.
+     */
     @Transactional
     public Optional<PipelineJob> leaseJob(Map<String, Object> runnerInfo) {
-        // naive implementation: pick first queued job that is not manual/delayed or whose delay elapsed
-        List<PipelineJob> jobs = jobRepository.findAll();
         OffsetDateTime now = OffsetDateTime.now();
-        return jobs.stream()
-                .filter(j -> j.getStatus() == JobStatus.QUEUED)
-                .filter(j -> j.getWhenType() != WhenType.MANUAL || j.isManualReleased())
-                .filter(j -> j.getWhenType() != WhenType.DELAYED || (j.getStartAfterSeconds() == null || j.getCreatedAt().plusSeconds(j.getStartAfterSeconds()).isBefore(now)))
-                .sorted(Comparator.comparing(PipelineJob::getCreatedAt))
-                .findFirst()
-                .map(j -> {
-                    j.setStatus(JobStatus.RUNNING);
-                    j.setStartedAt(now);
-                    return jobRepository.save(j);
-                });
+        Runner runner = register(runnerInfo, now);
+        RunnerScheduler.RunnerState self = runner == null ? RunnerScheduler.RunnerState.anonymous()
+                : state(runner, jobRepository.countByRunnerIdAndStatus(runner.getId(), JobStatus.RUNNING));
+        if (!self.hasCapacity()) {
+            return Optional.empty();
+        }
+        // an empty IN list is not valid SQL; no job has a blank tag
+        Collection<String> tags = self.tags().isEmpty() ? List.of("") : self.tags();
+        List<PipelineJob> ready = jobRepository.lockRunnable(JobStatus.QUEUED, now, tags, PageRequest.of(0, candidateWindow));
+        if (ready.isEmpty()) {
+            return Optional.empty();
+        }
+        List<RunnerScheduler.Candidate> candidates = ready.stream()
+                .map(j -> new RunnerScheduler.Candidate(j, RunnerScheduler.split(j.getTags()), j.getImage(),
+                        j.getPipeline() != null ? String.valueOf(j.getPipeline().getRepositoryId()) : null))
+                .toList();
+        Optional<PipelineJob> chosen = RunnerScheduler.choose(self, candidates, liveRunners(runner, now), now, affinityGrace);
+        chosen.ifPresent(job -> {
+            job.setStatus(JobStatus.RUNNING);
+            job.setStartedAt(now);
+            job.setRunnerId(self.id());
+            jobRepository.save(job);
+        });
+        return chosen;
     }
 
+    /**
+     * Records a runner heartbeat: {@code name}, {@code tags}, {@code max_jobs} and the {@code images} and
+     * {@code repos} it has cached. Unknown runners are registered on first contact.
+     */
     @Transactional
-    public void appendLogs(UUID jobId, String content) {
-        PipelineJob job = jobRepository.findById(jobId).orElseThrow();
-        PipelineLogChunk chunk = new PipelineLogChunk();
-        chunk.setJob(job);
-        chunk.setContent(content);
-        logRepository.save(chunk);
-        sessionManager.sendPipelineLogToJob(jobId, "log", content);
+    public Optional<Runner> heartbeat(Map<String, Object> runnerInfo) {
+        return Optional.ofNullable(register(runnerInfo, OffsetDateTime.now()));
+    }
+
+    private Runner register(Map<String, Object> info, OffsetDateTime now) {
+        Object name = info.get("name");
+        if (name == null || name.toString().isBlank()) {
+            return null;
+        }
+        Runner runner = runnerRepository.lockByName(name.toString()).orElseGet(() -> {
+            Runner r = new Runner();
+            r.setName(name.toString());
+            r.setTokenHash("");
+            return r;
+        });
+        if (info.containsKey("tags")) runner.setTags(RunnerScheduler.join(stringList(info.get("tags"))));
+        if (info.get("max_jobs") instanceof Number n) runner.setMaxJobs(n.intValue() > 0 ? n.intValue() : null);
+        if (info.containsKey("images")) runner.setCachedImages(RunnerScheduler.join(stringList(info.get("images"))));
+        if (info.containsKey("repos")) runner.setCachedRepos(RunnerScheduler.join(stringList(info.get("repos"))));
+        runner.setLastHeartbeatAt(now);
+        return runnerRepository.save(runner);
+    }
+
+    // other runners that heartbeated recently, with their running job counts
+    private List<RunnerScheduler.RunnerState> liveRunners(Runner self, OffsetDateTime now) {
+        List<Runner> live = runnerRepository.findByActiveTrueAndLastHeartbeatAtAfter(now.minus(heartbeatTimeout)).stream()
+                .filter(r -> self == null || !r.getId().equals(self.getId()))
+                .toList();
+        if (live.isEmpty()) {
+            return List.of();
+        }
+        Map<UUID, Long> running = new HashMap<>();
+        for (Object[] row : jobRepository.countByRunner(JobStatus.RUNNING, live.stream().map(Runner::getId).toList())) {
+            running.put((UUID) row[0], (Long) row[1]);
+        }
+        return live.stream().map(r -> state(r, running.getOrDefault(r.getId(), 0L))).toList();
+    }
+
+    private static RunnerScheduler.RunnerState state(Runner r, long running) {
+        return new RunnerScheduler.RunnerState(r.getId(), RunnerScheduler.split(r.getTags()),
+                r.getMaxJobs() != null ? r.getMaxJobs() : 0, running,
+                RunnerScheduler.split(r.getCachedImages()), RunnerScheduler.split(r.getCachedRepos()));
+    }
+
+    private static List<String> stringList(Object value) {
+        if (value instanceof Collection<?> c) {
+            return c.stream().filter(Objects::nonNull).map(Object::toString).toList();
+        }
+        return value == null ? List.of() : List.copyOf(RunnerScheduler.split(value.toString()));
+    }
+
+    /**
+     * Puts a job leased by {@link #leaseJob} back in the queue when it could not be handed to the runner.
+     */
+    @Transactional
+    public void releaseLease(UUID jobId) {
+        jobRepository.findById(jobId)
+                .filter(j -> j.getStatus() == JobStatus.RUNNING)
+                .ifPresent(j -> {
+                    j.setStatus(JobStatus.QUEUED);
+                    j.setStartedAt(null);
+                    j.setRunnerId(null);
+                    jobRepository.save(j);
+                });
     }
 
     @Transactional
@@ -58,12 +158,16 @@ public class RunnerService {
         PipelineJob job = jobRepository.findById(jobId).orElseThrow();
         Object status = payload.get("status");
         if (status != null) {
-            job.setStatus(JobStatus.valueOf(status.toString()));
+            job.setStatus(JobStatus.valueOf(status.toString().toUpperCase(Locale.ROOT)));
         }
         if (payload.containsKey("finished")) {
             job.setFinishedAt(OffsetDateTime.now());
         }
         jobRepository.save(job);
+        if (job.getStatus() != JobStatus.QUEUED && job.getStatus() != JobStatus.RUNNING) {
+            // remaining output goes out before the status frame
+            logBuffer.finish(jobId);
+        }
         sessionManager.sendPipelineLogToJob(jobId, "status", job.getStatus().name());
     }
 }
@@ -213,6 +213,7 @@ public class RepositoriesController {
     public ResponseEntity<Object> delete(@PathVariable("id") UUID id) {
         if (!repositories.existsById(id)) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "repository_not_found"));
         repositories.deleteById(id);
+        git.forgetRepository(id);
         return ResponseEntity.noContent().build();
     }
 
@@ -2,12 +2,15 @@ package tech.nicorp.pm.repositories.api;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import tech.nicorp.pm.git.BranchOverviewService;
 import tech.nicorp.pm.git.GitService;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -16,10 +19,43 @@ import java.util.UUID;
 @Tag(name = "Repository Branches", description = "Управление ветками репозитория")
 public class RepositoryBranchesController {
 
+    private static final int MAX_OVERVIEW_LIMIT = 200;
+
     private final GitService git;
+    private final BranchOverviewService overview;
 
-    public RepositoryBranchesController(GitService git) {
+    public RepositoryBranchesController(GitService git, BranchOverviewService overview) {
         this.git = git;
+        this.overview = overview;
+    }
+
+    @GetMapping
+    @Operation(summary = "Список веток с последним коммитом и расхождением с основной веткой")
+    public ResponseEntity<Object> listBranches(
+            @PathVariable("repoId") UUID repoId,
+            @RequestParam(value = "sort", required = false) String sort,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) throws IOException {
+        BranchOverviewService.Sort order;
+        try {
+            order = BranchOverviewService.Sort.parse(sort);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_sort"));
+        }
+        BranchOverviewService.Page page;
+        try {
+            page = overview.overview(repoId, order, after, Math.max(1, Math.min(limit, MAX_OVERVIEW_LIMIT)));
+        } catch (RepositoryNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_cursor"));
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("default_branch", page.defaultBranch());
+        body.put("total", page.total());
+        body.put("branches", page.branches());
+        body.put("next", page.next());
+        return ResponseEntity.ok(body);
     }
 
     @PostMapping
@@ -1,31 +1,81 @@
 package tech.nicorp.pm.repositories.api;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import tech.nicorp.pm.git.GitArchiveService;
+import tech.nicorp.pm.git.GitBlameService;
+import tech.nicorp.pm.git.GitDiffService;
+import tech.nicorp.pm.git.FileHistoryService;
 import tech.nicorp.pm.git.GitService;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/repositories/{repoId}")
 public class RepositoryContentController {
+    private static final int MAX_COMMITS_LIMIT = 500;
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final Pattern FULL_SHA = Pattern.compile("[0-9a-fA-F]{40}");
+    private static final int SNIFF_BYTES = 8000;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
 
     private final GitService git;
+    private final GitDiffService diffs;
+    private final GitArchiveService archives;
+    private final GitBlameService blames;
+    private final FileHistoryService history;
 
-    public RepositoryContentController(GitService git) {
+    public RepositoryContentController(GitService git, GitDiffService diffs, GitArchiveService archives,
+                                       GitBlameService blames, FileHistoryService history) {
         this.git = git;
+        this.diffs = diffs;
+        this.archives = archives;
+        this.blames = blames;
+        this.history = history;
     }
 
     @GetMapping("/files")
-    public ResponseEntity<Object> listFiles(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref, @RequestParam(value = "path", required = false) String path) {
+    public ResponseEntity<Object> listFiles(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref, @RequestParam(value = "path", required = false) String path,
+                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        boolean immutable = isFullSha(ref);
+        String etag = immutable ? etag("files", ref, path) : null;
+        if (etag != null && etagMatches(ifNoneMatch, etag)) {
+            return notModified(etag, true);
+        }
         try {
-            return ResponseEntity.ok(git.listFiles(repoId, ref, path));
+            GitService.Listing listing = git.listing(repoId, ref, path);
+            if (etag == null && listing.objectId() != null) {
+                etag = etag("files", listing.objectId(), path);
+                if (etagMatches(ifNoneMatch, etag)) {
+                    return notModified(etag, false);
+                }
+            }
+            return cacheable(ResponseEntity.ok(), etag, immutable).body(listing.entries());
         } catch (IOException e) {
             System.err.println("Error listing files for repo " + repoId + " ref " + ref + ": " + e.getMessage());
             e.printStackTrace();
@@ -38,13 +88,23 @@ public class RepositoryContentController {
     }
 
     @GetMapping(value = "/file", produces = {MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
-    public ResponseEntity<?> getFile(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref, @RequestParam("path") String path) throws IOException {
+    public ResponseEntity<?> getFile(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref, @RequestParam("path") String path,
+                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
+        boolean immutable = isFullSha(ref);
+        if (immutable && etagMatches(ifNoneMatch, etag("file", ref, path))) {
+            return notModified(etag("file", ref, path), true);
+        }
+        GitService.Blob blob = git.blob(repoId, ref, path);
+        String etag = immutable ? etag("file", ref, path) : etag("file", blob.objectId(), path);
+        if (!immutable && etagMatches(ifNoneMatch, etag)) {
+            return notModified(etag, false);
+        }
+
         String lowerPath = path.toLowerCase();
         if (lowerPath.endsWith(".png") || lowerPath.endsWith(".jpg") || lowerPath.endsWith(".jpeg") ||
             lowerPath.endsWith(".gif") || lowerPath.endsWith(".svg") || lowerPath.endsWith(".webp") ||
             lowerPath.endsWith(".bmp") || lowerPath.endsWith(".ico")) {
             
-            byte[] bytes = git.fileBytes(repoId, ref, path);
             String ext = lowerPath.substring(lowerPath.lastIndexOf('.') + 1);
             MediaType contentType = MediaType.IMAGE_PNG;
             
@@ -70,23 +130,229 @@ public class RepositoryContentController {
                     break;
             }
             
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(contentType);
-            headers.setCacheControl("max-age=3600");
-            
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(bytes);
+            return cacheable(ResponseEntity.ok(), etag, immutable)
+                    .contentType(contentType)
+                    .body(blob.bytes());
         }
         
-        return ResponseEntity.ok()
+        return cacheable(ResponseEntity.ok(), etag, immutable)
                 .contentType(MediaType.TEXT_PLAIN)
-                .body(git.fileContent(repoId, ref, path));
+                .body(new String(blob.bytes()));
+    }
+
+    /**
+     * Streams a blob without loading it into memory. Supports a single {@code Range: bytes=...}
+     * (206 / 416), {@code If-None-Match} and {@code If-Range}; textual content is always served as text/plain.
+     */
+    @GetMapping("/raw")
+    public void getRawFile(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref, @RequestParam("path") String path,
+                           @RequestParam(value = "download", defaultValue = "false") boolean download,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean immutable = isFullSha(ref);
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (immutable && etagMatches(ifNoneMatch, etag("file", ref, path))) {
+            writeNotModified(response, etag("file", ref, path), true);
+            return;
+        }
+
+        GitService.BlobStream blob;
+        try {
+            blob = git.openBlob(repoId, ref, path);
+        } catch (FileNotFoundException | IncorrectObjectTypeException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try (blob) {
+            String etag = immutable ? etag("file", ref, path) : etag("file", blob.objectId(), path);
+            if (etagMatches(ifNoneMatch, etag)) {
+                writeNotModified(response, etag, immutable);
+                return;
+            }
+
+            long size = blob.size();
+            long start = 0;
+            long end = size - 1;
+            String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+            String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+            if (rangeHeader != null && (ifRange == null || ifRange.equals(etag))) {
+                List<HttpRange> ranges;
+                try {
+                    ranges = HttpRange.parseRanges(rangeHeader);
+                } catch (IllegalArgumentException e) {
+                    ranges = List.of();
+                }
+                // multipart/byteranges is not worth it here; several ranges get the full body
+                if (ranges.size() == 1) {
+                    try {
+                        start = ranges.get(0).getRangeStart(size);
+                        end = ranges.get(0).getRangeEnd(size);
+                    } catch (IllegalArgumentException e) {
+                        start = size;
+                    }
+                    if (start >= size || start > end) {
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        return;
+                    }
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+                }
+            }
+
+            response.setContentType(sniffContentType(path, blob).toString());
+            response.setHeader("X-Content-Type-Options", "nosniff");
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(immutable).getHeaderValue());
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder(download ? "attachment" : "inline")
+                    .filename(fileName(path), StandardCharsets.UTF_8).build().toString());
+            long length = Math.max(0, end - start + 1);
+            response.setContentLengthLong(length);
+
+            try (InputStream in = blob.openStream()) {
+                in.skipNBytes(start);
+                copyRange(in, response.getOutputStream(), length);
+            }
+        }
+    }
+
+    /**
+     * Streams a zip or tar.gz snapshot of {@code ref}, optionally limited to {@code path}. Archives are
+     * cached by tree sha, so the ETag is shared by all commits with the same tree.
+     */
+    @GetMapping("/archive")
+    public void getArchive(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref,
+                           @RequestParam(value = "format", defaultValue = "zip") String format,
+                           @RequestParam(value = "path", required = false) String path,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        GitArchiveService.Format archiveFormat = GitArchiveService.Format.of(format);
+        if (archiveFormat == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported archive format: " + format);
+            return;
+        }
+        GitArchiveService.Target target;
+        try {
+            target = archives.resolve(repoId, ref, path, archiveFormat);
+        } catch (FileNotFoundException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        boolean immutable = isFullSha(ref);
+        // entry times come from the commit, so two commits with the same tree may still differ
+        String etag = etag("archive-" + archiveFormat.extension(), target.treeId().name() + ":" + target.commitTime(), target.path());
+        if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            writeNotModified(response, etag, immutable);
+            return;
+        }
+
+        String name = ref.replaceAll("[^A-Za-z0-9._-]+", "-") + (target.path() == null ? "" : "-" + fileName(target.path()));
+        response.setContentType(archiveFormat.contentType());
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(immutable).getHeaderValue());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(name + "." + archiveFormat.extension(), StandardCharsets.UTF_8).build().toString());
+
+        try (GitArchiveService.Cached cached = archives.openCached(target)) {
+            if (cached != null) {
+                response.setContentLengthLong(cached.size());
+                cached.transferTo(response.getOutputStream());
+                return;
+            }
+        }
+        archives.write(target, response.getOutputStream());
+    }
+
+    /**
+     * Line attribution of a file: ranges of consecutive lines with the commit they come from, plus the
+     * details of those commits.
+     */
+    @GetMapping("/blame")
+    public ResponseEntity<Object> blame(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref, @RequestParam("path") String path,
+                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
+        boolean immutable = isFullSha(ref);
+        if (immutable && etagMatches(ifNoneMatch, etag("blame", ref, path))) {
+            return notModified(etag("blame", ref, path), true);
+        }
+        GitBlameService.Blame blame;
+        try {
+            blame = blames.blame(repoId, ref, path);
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.unprocessableEntity().body(Map.of("error", e.getMessage()));
+        }
+        String etag = immutable ? etag("blame", ref, path) : etag("blame", blame.lastCommitId() + ":" + blame.blobId(), path);
+        if (!immutable && etagMatches(ifNoneMatch, etag)) {
+            return notModified(etag, false);
+        }
+        Map<String, Object> commits = new LinkedHashMap<>();
+        for (GitBlameService.CommitInfo c : blame.commits()) {
+            commits.put(c.id(), Map.of(
+                    "author", c.author(),
+                    "email", c.email(),
+                    "date", Instant.ofEpochSecond(c.time()).toString(),
+                    "message", c.summary()));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("path", blame.path());
+        body.put("blob", blame.blobId());
+        body.put("last_commit", blame.lastCommitId());
+        body.put("lines", blame.lines());
+        body.put("ranges", GitBlameService.ranges(blame));
+        body.put("commits", commits);
+        return cacheable(ResponseEntity.ok(), etag, immutable).body(body);
     }
 
     @GetMapping("/commits")
-    public ResponseEntity<Object> listCommits(@PathVariable("repoId") UUID repoId, @RequestParam("ref") String ref) throws IOException {
-        return ResponseEntity.ok(git.commits(repoId, ref));
+    public ResponseEntity<Object> listCommits(
+            @PathVariable("repoId") UUID repoId,
+            @RequestParam("ref") String ref,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "path", required = false) String path) throws IOException {
+        int pageSize = Math.max(1, Math.min(limit, MAX_COMMITS_LIMIT));
+        GitService.CommitPage page = git.commits(repoId, ref, after, pageSize, path);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.next() != null) {
+            String nextUrl = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.next())
+                    .toUriString();
+            response.header(NEXT_CURSOR_HEADER, page.next())
+                    .header(HttpHeaders.LINK, "<" + nextUrl + ">; rel=\"next\"");
+        }
+        return response.body(page.commits());
+    }
+
+    /**
+     * Commits that changed one file, following renames. Paged like {@code /commits}: the cursor for the
+     * next page comes back in {@code X-Next-Cursor} and a {@code Link: rel="next"} header.
+     */
+    @GetMapping("/history")
+    public ResponseEntity<Object> fileHistory(
+            @PathVariable("repoId") UUID repoId,
+            @RequestParam("ref") String ref,
+            @RequestParam("path") String path,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) throws IOException {
+        if (path.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "path is required"));
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_COMMITS_LIMIT));
+        FileHistoryService.Page page;
+        try {
+            page = history.history(repoId, ref, path, after, pageSize);
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.next() != null) {
+            String nextUrl = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.next())
+                    .toUriString();
+            response.header(NEXT_CURSOR_HEADER, page.next())
+                    .header(HttpHeaders.LINK, "<" + nextUrl + ">; rel=\"next\"");
+        }
+        return response.body(page.entries());
     }
 
     @GetMapping("/commits/{sha}/diff")
@@ -98,8 +364,143 @@ public class RepositoryContentController {
     public ResponseEntity<Map<String, Object>> commitDiffDetails(
             @PathVariable("repoId") UUID repoId,
             @PathVariable("sha") String sha) throws IOException {
-        return ResponseEntity.ok(git.getCommitDiffDetails(repoId, sha));
+        try {
+            return ResponseEntity.ok(diffs.details(repoId, sha));
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/commits/{sha}/diff-summary")
+    public ResponseEntity<Map<String, Object>> commitDiffSummary(
+            @PathVariable("repoId") UUID repoId,
+            @PathVariable("sha") String sha,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
+        boolean immutable = isFullSha(sha);
+        String etag = etag("diff-summary", sha, null);
+        if (immutable && etagMatches(ifNoneMatch, etag)) {
+            return notModified(etag, true);
+        }
+        try {
+            Map<String, Object> summary = diffs.summary(repoId, sha);
+            if (Boolean.TRUE.equals(summary.get("statsTruncated"))) {
+                // cut by the time budget: a later request may get further
+                return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(summary);
+            }
+            return immutable ? cacheable(ResponseEntity.ok(), etag, true).body(summary) : ResponseEntity.ok(summary);
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/commits/{sha}/diff-file")
+    public ResponseEntity<Map<String, Object>> commitFileDiff(
+            @PathVariable("repoId") UUID repoId,
+            @PathVariable("sha") String sha,
+            @RequestParam("path") String path,
+            @RequestParam(value = "contents", defaultValue = "false") boolean contents,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
+        if (path.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "path is required"));
+        }
+        boolean immutable = isFullSha(sha);
+        String etag = etag(contents ? "diff-file-contents" : "diff-file", sha, path);
+        if (immutable && etagMatches(ifNoneMatch, etag)) {
+            return notModified(etag, true);
+        }
+        try {
+            Map<String, Object> diff = diffs.fileDiff(repoId, sha, path, contents);
+            if (GitDiffService.TRUNCATED_TIME.equals(diff.get("truncatedReason"))) {
+                return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(diff);
+            }
+            return immutable ? cacheable(ResponseEntity.ok(), etag, true).body(diff) : ResponseEntity.ok(diff);
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    private static boolean isFullSha(String ref) {
+        return ref != null && FULL_SHA.matcher(ref).matches();
+    }
+
+    /**
+     * Strong validator derived from immutable inputs only: a full commit sha or an object id, plus the path.
+     */
+    private static String etag(String kind, String objectOrCommitId, String path) {
+        String key = kind + "\n" + objectOrCommitId + "\n" + (path == null ? "" : path);
+        return "\"" + DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8)) + "\"";
     }
-}
 
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            if (candidate.trim().equals(etag)) return true;
+        }
+        return false;
+    }
+
+    private static ResponseEntity.BodyBuilder cacheable(ResponseEntity.BodyBuilder builder, String etag, boolean immutable) {
+        if (etag == null) return builder;
+        return builder.eTag(etag).cacheControl(cacheControl(immutable));
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag, boolean immutable) {
+        return cacheable(ResponseEntity.status(HttpStatus.NOT_MODIFIED), etag, immutable).build();
+    }
+
+    private static MediaType sniffContentType(String path, GitService.BlobStream blob) throws IOException {
+        MediaType byName = MediaTypeFactory.getMediaType(path).orElse(null);
+        if (byName != null && isPassThroughType(byName)) {
+            return byName;
+        }
+        byte[] head = new byte[SNIFF_BYTES];
+        int n;
+        try (InputStream in = blob.openStream()) {
+            n = in.readNBytes(head, 0, head.length);
+        }
+        if (RawText.isBinary(head, n, blob.size() <= n)) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+        // html, svg, js and friends are never rendered from the repository origin
+        return new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+    }
 
+    private static boolean isPassThroughType(MediaType type) {
+        if (type.getSubtype().contains("svg")) return false;
+        return switch (type.getType()) {
+            case "image", "audio", "video", "font" -> true;
+            case "application" -> type.getSubtype().equals("pdf") || type.getSubtype().equals("zip")
+                    || type.getSubtype().equals("gzip") || type.getSubtype().equals("octet-stream");
+            default -> false;
+        };
+    }
+
+    private static void copyRange(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) break;
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        out.flush();
+    }
+
+    private static String fileName(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash >= 0 ? path.substring(slash + 1) : path;
+    }
+
+    private static void writeNotModified(HttpServletResponse response, String etag, boolean immutable) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(immutable).getHeaderValue());
+    }
+
+    private static CacheControl cacheControl(boolean immutable) {
+        return immutable
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable()
+                : CacheControl.noCache().cachePrivate();
+    }
+}
@@ -2,6 +2,7 @@ package tech.nicorp.pm.repositories.api;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -9,7 +10,13 @@ import org.springframework.web.bind.annotation.*;
 import tech.nicorp.pm.git.GitService;
 import tech.nicorp.pm.users.domain.User;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 
@@ -50,6 +57,10 @@ public class RepositoryFilesController {
         try {
             git.commitFile(repoId, branch, path, content, message, author);
             return ResponseEntity.ok(Map.of("success", true));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", "invalid_path", "message", e.getMessage()));
+        } catch (GitService.CommitConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "conflict", "message", e.getMessage()));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", "commit_failed", "message", e.getMessage()));
@@ -78,10 +89,83 @@ public class RepositoryFilesController {
         try {
             git.deleteFile(repoId, branch, path, message, author);
             return ResponseEntity.noContent().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", "invalid_path", "message", e.getMessage()));
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "not_found", "message", e.getMessage()));
+        } catch (GitService.CommitConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "conflict", "message", e.getMessage()));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", "delete_failed", "message", e.getMessage()));
         }
     }
-}
 
+    /**
+     * Body: {@code {"branch", "message", "expected_head"?, "actions": [{"action": "create|update|delete|move",
+     * "path", "previous_path"?, "content"?, "encoding": "text|base64"?}]}}. All actions land in one commit.
+     */
+    @PostMapping("/commit")
+    @Operation(summary = "Атомарный коммит нескольких файлов")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<Object> commitFiles(
+            @PathVariable("repoId") UUID repoId,
+            @RequestBody Map<String, Object> body,
+            @AuthenticationPrincipal Object principal) {
+        String branch = (String) body.get("branch");
+        String message = (String) body.get("message");
+        String expectedHead = (String) body.get("expected_head");
+        Object rawActions = body.get("actions");
+        if (branch == null || branch.isBlank()) branch = "main";
+        if (!(rawActions instanceof List<?> actions) || actions.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", "invalid_actions"));
+        }
+        if (message == null || message.isBlank()) message = "Update " + actions.size() + " files";
+
+        List<GitService.FileChange> changes = new ArrayList<>();
+        try {
+            for (Object raw : actions) {
+                changes.add(toChange((Map<String, Object>) raw));
+            }
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", "invalid_actions", "message", String.valueOf(e.getMessage())));
+        }
+
+        String author = "user";
+        if (principal instanceof User) {
+            author = ((User) principal).getUsername();
+        }
+
+        try {
+            String sha = git.commitFiles(repoId, branch, changes, message, new PersonIdent(author, author + "@nicorp.tech"), expectedHead);
+            return ResponseEntity.ok(Map.of("success", true, "commit_sha", sha));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", "invalid_path", "message", e.getMessage()));
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "not_found", "message", e.getMessage()));
+        } catch (GitService.CommitConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "conflict", "message", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "commit_failed", "message", e.getMessage()));
+        }
+    }
+
+    private static GitService.FileChange toChange(Map<String, Object> action) {
+        String type = String.valueOf(action.getOrDefault("action", "update")).toLowerCase(Locale.ROOT);
+        String path = (String) action.get("path");
+        String content = (String) action.get("content");
+        byte[] bytes = null;
+        if (content != null) {
+            bytes = "base64".equals(action.get("encoding"))
+                    ? Base64.getDecoder().decode(content)
+                    : content.getBytes(StandardCharsets.UTF_8);
+        }
+        return switch (type) {
+            case "create", "update", "upsert" -> new GitService.FileChange(GitService.FileAction.UPSERT, path, null, bytes);
+            case "delete" -> new GitService.FileChange(GitService.FileAction.DELETE, path, null, null);
+            case "move" -> new GitService.FileChange(GitService.FileAction.MOVE, path, (String) action.get("previous_path"), bytes);
+            default -> throw new IllegalArgumentException("Unknown action: " + type);
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package tech.nicorp.pm.repositories.api;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import tech.nicorp.pm.git.GitMaintenanceService;
+import tech.nicorp.pm.git.GitRepositoryPool;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/repositories/{repoId}/maintenance")
+@Tag(name = "Repository Maintenance", description = "Обслуживание git-репозитория (gc, bitmap)")
+public class RepositoryMaintenanceController {
+
+    private final GitMaintenanceService maintenance;
+    private final GitRepositoryPool pool;
+
+    public RepositoryMaintenanceController(GitMaintenanceService maintenance, GitRepositoryPool pool) {
+        this.maintenance = maintenance;
+        this.pool = pool;
+    }
+
+    @GetMapping
+    @Operation(summary = "Статистика хранилища и последнего обслуживания")
+    public ResponseEntity<Object> stats(@PathVariable("repoId") UUID repoId) throws IOException {
+        if (!pool.exists(repoId.toString())) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "repository_not_found"));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("stats", maintenance.stats(repoId));
+        body.put("running", maintenance.isRunning(repoId));
+        body.put("last_run", maintenance.lastRun(repoId).orElse(null));
+        return ResponseEntity.ok(body);
+    }
+
+    @PostMapping
+    @Operation(summary = "Запустить обслуживание вне расписания")
+    public ResponseEntity<Object> run(@PathVariable("repoId") UUID repoId) {
+        if (!pool.exists(repoId.toString())) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "repository_not_found"));
+        }
+        if (!maintenance.schedule(repoId.toString(), "manual")) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "repository_busy"));
+        }
+        return ResponseEntity.accepted().body(Map.of("status", "scheduled"));
+    }
+}
@@ -0,0 +1,112 @@
+package tech.nicorp.pm.repositories.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import tech.nicorp.pm.git.CodeSearchService;
+import tech.nicorp.pm.git.GitRepositoryPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.PatternSyntaxException;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/repositories/{repoId}/search")
+@Tag(name = "Repository Search", description = "Поиск по коду ветки по умолчанию")
+public class RepositorySearchController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final int MAX_LIMIT = 1000;
+
+    private final CodeSearchService search;
+    private final GitRepositoryPool pool;
+    private final ObjectMapper mapper;
+
+    public RepositorySearchController(CodeSearchService search, GitRepositoryPool pool, ObjectMapper mapper) {
+        this.search = search;
+        this.pool = pool;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Streams one JSON object per line: {@code {"type":"match","path","line","text"}} for every matching
+     * line as it is found, then a final {@code {"type":"summary",...}}.
+     */
+    @GetMapping
+    @Operation(summary = "Поиск строк по подстроке или регулярному выражению (NDJSON-поток)")
+    public ResponseEntity<?> search(@PathVariable("repoId") UUID repoId,
+                                    @RequestParam("q") String query,
+                                    @RequestParam(name = "regex", defaultValue = "false") boolean regex,
+                                    @RequestParam(name = "case", defaultValue = "false") boolean caseSensitive,
+                                    @RequestParam(name = "path", required = false) String path,
+                                    @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        if (query.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "empty_query"));
+        }
+        try {
+            CodeSearchService.compile(query, regex, caseSensitive);
+        } catch (PatternSyntaxException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_regex", "message", e.getDescription()));
+        }
+        if (!pool.exists(repoId.toString())) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "repository_not_found"));
+        }
+        int max = Math.max(1, Math.min(limit, MAX_LIMIT));
+        StreamingResponseBody body = out -> {
+            try {
+                CodeSearchService.Result result = search.search(repoId, query, regex, caseSensitive, path, max, match -> {
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("type", "match");
+                    line.put("path", match.path());
+                    line.put("line", match.line());
+                    line.put("text", match.text());
+                    write(out, line);
+                });
+                Map<String, Object> summary = new LinkedHashMap<>();
+                summary.put("type", "summary");
+                summary.put("branch", result.branch());
+                summary.put("commit", result.commit());
+                summary.put("matches", result.matches());
+                summary.put("files_scanned", result.scanned());
+                summary.put("truncated", result.truncated());
+                summary.put("indexing", result.indexing());
+                summary.put("duration_ms", result.durationMillis());
+                write(out, summary);
+            } catch (UncheckedIOException e) {
+                // client went away
+                log.debug("Search stream for repository {} closed: {}", repoId, e.getMessage());
+            } catch (IOException e) {
+                log.warn("Search in repository {} failed: {}", repoId, e.getMessage());
+                write(out, Map.of("type", "error", "error", "search_failed"));
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    @GetMapping("/index")
+    @Operation(summary = "Состояние поискового индекса")
+    public ResponseEntity<Object> index(@PathVariable("repoId") UUID repoId) {
+        return ResponseEntity.ok(search.stats(repoId));
+    }
+
+    private void write(OutputStream out, Map<String, Object> line) {
+        try {
+            out.write(mapper.writeValueAsBytes(line));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
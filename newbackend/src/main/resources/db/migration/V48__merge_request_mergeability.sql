@@ -0,0 +1,10 @@
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS merge_status VARCHAR(32) NOT NULL DEFAULT 'UNCHECKED';
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS merge_base_sha VARCHAR(64) NULL;
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS source_sha VARCHAR(64) NULL;
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS target_sha VARCHAR(64) NULL;
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS commits_ahead INT NULL;
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS commits_behind INT NULL;
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS conflict_paths TEXT NULL;
+ALTER TABLE merge_requests ADD COLUMN IF NOT EXISTS merge_status_checked_at TIMESTAMPTZ NULL;
+
+CREATE INDEX IF NOT EXISTS idx_mr_repo_status ON merge_requests(repository_id, status);
@@ -0,0 +1,16 @@
+CREATE TABLE IF NOT EXISTS post_receive_events (
+    id UUID PRIMARY KEY,
+    repository_id UUID NOT NULL,
+    ref_name VARCHAR(500) NOT NULL,
+    old_sha VARCHAR(64) NOT NULL,
+    new_sha VARCHAR(64) NOT NULL,
+    revision INT NOT NULL DEFAULT 0,
+    attempts INT NOT NULL DEFAULT 0,
+    last_error TEXT NULL,
+    next_attempt_at TIMESTAMPTZ NOT NULL,
+    created_at TIMESTAMPTZ NOT NULL
+);
+
+-- one pending event per ref: later pushes are folded into it
+CREATE UNIQUE INDEX IF NOT EXISTS ux_post_receive_events_ref ON post_receive_events(repository_id, ref_name);
+CREATE INDEX IF NOT EXISTS idx_post_receive_events_due ON post_receive_events(next_attempt_at);
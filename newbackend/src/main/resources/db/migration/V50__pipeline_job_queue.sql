@@ -0,0 +1,15 @@
+-- when a queued job may start: creation time, creation + delay for delayed jobs,
+-- release time for manual jobs (NULL until released)
+ALTER TABLE pipeline_jobs ADD COLUMN IF NOT EXISTS ready_at TIMESTAMPTZ NULL;
+
+UPDATE pipeline_jobs SET ready_at = CASE
+        WHEN when_type = 'MANUAL' AND NOT manual_released THEN NULL
+        WHEN when_type = 'DELAYED' AND start_after_seconds IS NOT NULL
+            THEN created_at + make_interval(secs => start_after_seconds)
+        ELSE created_at
+    END
+WHERE status = 'QUEUED';
+
+-- only the runnable part of the table, which stays small however many jobs have finished
+CREATE INDEX IF NOT EXISTS idx_pipeline_jobs_runnable ON pipeline_jobs(ready_at)
+    WHERE status = 'QUEUED' AND ready_at IS NOT NULL;
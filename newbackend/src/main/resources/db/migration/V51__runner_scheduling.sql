@@ -0,0 +1,12 @@
+ALTER TABLE pipeline_jobs ADD COLUMN IF NOT EXISTS tags TEXT NULL;
+ALTER TABLE pipeline_jobs ADD COLUMN IF NOT EXISTS runner_id UUID NULL;
+
+-- running jobs per runner, for concurrency limits
+CREATE INDEX IF NOT EXISTS idx_pipeline_jobs_running_runner ON pipeline_jobs(runner_id)
+    WHERE status = 'RUNNING' AND runner_id IS NOT NULL;
+
+ALTER TABLE runners ADD COLUMN IF NOT EXISTS max_jobs INT NULL;
+ALTER TABLE runners ADD COLUMN IF NOT EXISTS cached_images TEXT NULL;
+ALTER TABLE runners ADD COLUMN IF NOT EXISTS cached_repos TEXT NULL;
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_runners_name ON runners(name);
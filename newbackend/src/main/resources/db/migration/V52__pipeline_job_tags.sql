@@ -0,0 +1,12 @@
+-- job tags one per row, so leasing can filter by a runner's tags in SQL
+CREATE TABLE IF NOT EXISTS pipeline_job_tags (
+    job_id UUID NOT NULL REFERENCES pipeline_jobs(id) ON DELETE CASCADE,
+    tag TEXT NOT NULL,
+    PRIMARY KEY (job_id, tag)
+);
+
+INSERT INTO pipeline_job_tags (job_id, tag)
+SELECT j.id, trim(t)
+FROM pipeline_jobs j, unnest(string_to_array(j.tags, ',')) AS t
+WHERE j.tags IS NOT NULL AND trim(t) <> ''
+ON CONFLICT DO NOTHING;
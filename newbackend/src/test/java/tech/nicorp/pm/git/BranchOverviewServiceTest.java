@@ -0,0 +1,108 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class BranchOverviewServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitService gitService;
+    private BranchOverviewService overview;
+    private UUID repoId;
+    private long clock = 1_700_000_000L;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        gitService = new GitService(config, pool, commitGraphs, new GitObjectCache(1 << 20, 64 * 1024),
+                new GitDiffService(pool, new GitDiffCache(1 << 20), 1 << 20, 256 * 1024, 2000, 5000, 512 * 1024, 8 << 20));
+        overview = new BranchOverviewService(pool, commitGraphs, gitService, 1 << 20);
+
+        repoId = UUID.randomUUID();
+        gitService.initRepository(repoId, "demo");
+    }
+
+    @AfterEach
+    void tearDown() {
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void reportsLastCommitAndDivergenceSortedByRecency() throws Exception {
+        commit("master", "base");
+        gitService.createBranch(repoId, "feature", "master");
+        gitService.createBranch(repoId, "stale", "master");
+        commit("feature", "feature 1");
+        commit("feature", "feature 2");
+        commit("master", "master 1");
+        gitService.createBranch(repoId, "fresh", "master");
+        commit("fresh", "fresh 1");
+
+        BranchOverviewService.Page page = overview.overview(repoId, BranchOverviewService.Sort.RECENT, null, 10);
+
+        assertThat(page.defaultBranch()).isEqualTo("master");
+        assertThat(page.total()).isEqualTo(4);
+        assertThat(page.branches()).extracting(b -> b.get("name")).containsExactly("fresh", "master", "feature", "stale");
+        Map<String, Object> feature = page.branches().get(2);
+        assertThat(feature).contains(entry("message", "feature 2"), entry("ahead", 2), entry("behind", 1));
+        assertThat(page.branches().get(0)).contains(entry("ahead", 1), entry("behind", 0));
+        assertThat(page.branches().get(1)).contains(entry("default", true), entry("ahead", 0), entry("behind", 0));
+        assertThat(page.branches().get(3)).contains(entry("ahead", 0), entry("behind", 1));
+        assertThat(page.next()).isNull();
+    }
+
+    @Test
+    void paginatesWithCursor() throws Exception {
+        commit("master", "base");
+        for (int i = 0; i < 7; i++) {
+            gitService.createBranch(repoId, "b" + i, "master");
+            commit("b" + i, "work " + i);
+        }
+
+        for (BranchOverviewService.Sort sort : BranchOverviewService.Sort.values()) {
+            List<Object> names = new ArrayList<>();
+            String after = null;
+            do {
+                BranchOverviewService.Page page = overview.overview(repoId, sort, after, 3);
+                page.branches().forEach(b -> names.add(b.get("name")));
+                after = page.next();
+            } while (after != null);
+            assertThat(names).as(sort.name()).hasSize(8).doesNotHaveDuplicates();
+            if (sort == BranchOverviewService.Sort.NAME) {
+                assertThat(names).containsExactly("b0", "b1", "b2", "b3", "b4", "b5", "b6", "master");
+            } else {
+                assertThat(names).startsWith("b6", "b5").endsWith("master");
+            }
+        }
+    }
+
+    private void commit(String branch, String message) throws Exception {
+        // strictly increasing commit times, so recency order does not depend on wall clock resolution
+        PersonIdent ident = new PersonIdent("Test", "test@nicorp.tech", Instant.ofEpochSecond(clock++), ZoneOffset.UTC);
+        gitService.commitFiles(repoId, branch, List.of(GitService.FileChange.upsert(branch + ".txt", message.getBytes())),
+                message, ident, null);
+    }
+}
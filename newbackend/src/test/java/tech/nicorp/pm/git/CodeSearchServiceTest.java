@@ -0,0 +1,186 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CodeSearchServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitService gitService;
+    private CodeSearchService search;
+    private UUID repoId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        gitService = new GitService(config, pool, commitGraphs, new GitObjectCache(1 << 20, 64 * 1024),
+                new GitDiffService(pool, new GitDiffCache(1 << 20), 1 << 20, 256 * 1024, 2000, 5000, 512 * 1024, 8 << 20));
+        search = new CodeSearchService(pool, gitService, 256 * 1024, 64 << 20, 4, 5000);
+
+        repoId = UUID.randomUUID();
+        gitService.initRepository(repoId, "demo");
+        commit(List.of(
+                GitService.FileChange.upsert("src/Main.java", "class Main {\n  void run() { startServer(8080); }\n}\n".getBytes(StandardCharsets.UTF_8)),
+                GitService.FileChange.upsert("src/Util.java", "class Util {\n  static int parsePort(String s) { return 0; }\n}\n".getBytes(StandardCharsets.UTF_8)),
+                GitService.FileChange.upsert("docs/guide.md", "Call StartServer before anything else.\n".getBytes(StandardCharsets.UTF_8)),
+                GitService.FileChange.upsert("logo.png", new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, 0, 's', 't', 'a', 'r', 't'})));
+    }
+
+    @AfterEach
+    void tearDown() {
+        search.shutdown();
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void firstSearchScansWhileTheIndexIsBuiltInTheBackground() throws Exception {
+        List<CodeSearchService.Match> matches = new ArrayList<>();
+        CodeSearchService.Result result = search.search(repoId, "startserver", false, false, null, 100, matches::add);
+
+        assertThat(result.indexing()).isTrue();
+        assertThat(matches).extracting(CodeSearchService.Match::path).containsExactlyInAnyOrder("src/Main.java", "docs/guide.md");
+
+        awaitIndex();
+        result = search.search(repoId, "startserver", false, false, null, 100, m -> {});
+        assertThat(result.indexing()).isFalse();
+        assertThat(result.scanned()).isEqualTo(2);
+    }
+
+    @Test
+    void literalSearchIsCaseInsensitiveByDefault() throws Exception {
+        awaitIndex();
+        List<CodeSearchService.Match> matches = new ArrayList<>();
+        CodeSearchService.Result result = search.search(repoId, "startserver", false, false, null, 100, matches::add);
+
+        assertThat(matches).extracting(CodeSearchService.Match::path).containsExactlyInAnyOrder("src/Main.java", "docs/guide.md");
+        assertThat(matches).filteredOn(m -> m.path().equals("src/Main.java")).singleElement()
+                .satisfies(m -> assertThat(m.line()).isEqualTo(2));
+        // only files holding every trigram of the query are read
+        assertThat(result.scanned()).isEqualTo(2);
+        assertThat(result.truncated()).isFalse();
+
+        matches.clear();
+        search.search(repoId, "startServer", false, true, "src/", 100, matches::add);
+        assertThat(matches).extracting(CodeSearchService.Match::path).containsExactly("src/Main.java");
+    }
+
+    @Test
+    void regexSearchUsesRequiredLiterals() throws Exception {
+        awaitIndex();
+        assertThat(CodeSearchService.requiredLiterals("parse\\w+\\(String")).containsExactly("parse", "(String");
+        assertThat(CodeSearchService.requiredLiterals("foo|bar")).isEmpty();
+        assertThat(CodeSearchService.requiredLiterals("colou?r(ful)?")).containsExactly("colo");
+
+        List<CodeSearchService.Match> matches = new ArrayList<>();
+        search.search(repoId, "parse\\w+\\(String", true, true, null, 100, matches::add);
+        assertThat(matches).singleElement().satisfies(m -> {
+            assertThat(m.path()).isEqualTo("src/Util.java");
+            assertThat(m.text()).contains("parsePort");
+        });
+    }
+
+    @Test
+    void indexFollowsDefaultBranchIncrementally() throws Exception {
+        awaitIndex();
+
+        commit(List.of(
+                GitService.FileChange.upsert("src/Util.java", "class Util {\n  static int readPort() { return 0; }\n}\n".getBytes(StandardCharsets.UTF_8)),
+                GitService.FileChange.delete("docs/guide.md"),
+                GitService.FileChange.upsert("src/Server.java", "class Server { void startServer(int port) {} }\n".getBytes(StandardCharsets.UTF_8))));
+
+        List<CodeSearchService.Match> matches = new ArrayList<>();
+        CodeSearchService.Result result = search.search(repoId, "startServer", false, false, null, 100, matches::add);
+        assertThat(result.commit()).isEqualTo(gitService.resolveRefSha(repoId, "master"));
+        assertThat(matches).extracting(CodeSearchService.Match::path).containsExactlyInAnyOrder("src/Main.java", "src/Server.java");
+
+        matches.clear();
+        search.search(repoId, "parsePort", false, false, null, 100, matches::add);
+        assertThat(matches).isEmpty();
+        assertThat(search.stats(repoId)).containsEntry("files", 4);
+    }
+
+    @Test
+    void filesOverIndexBudgetAreStillSearchedAndLimitTruncates() throws Exception {
+        search.shutdown();
+        // room for the postings of the first few files only
+        search = new CodeSearchService(pool, gitService, 256 * 1024, 64, 4, 5000);
+        List<GitService.FileChange> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            files.add(GitService.FileChange.upsert("gen/File" + i + ".txt", ("value = " + i + "\nneedle here\n").getBytes(StandardCharsets.UTF_8)));
+        }
+        commit(files);
+        awaitIndex();
+
+        List<CodeSearchService.Match> matches = new ArrayList<>();
+        CodeSearchService.Result result = search.search(repoId, "needle", false, false, "gen/", 10, matches::add);
+        assertThat(matches).hasSize(10);
+        assertThat(result.truncated()).isTrue();
+        assertThat((int) search.stats(repoId).get("unindexedFiles")).isGreaterThan(0);
+    }
+
+    @Test
+    void indexBudgetCountsPerTrigramOverhead() throws Exception {
+        search.shutdown();
+        // the encoded postings of all files below fit in a few KiB; their heap cost does not
+        search = new CodeSearchService(pool, gitService, 256 * 1024, 16 * 1024, 4, 5000);
+        List<GitService.FileChange> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            files.add(GitService.FileChange.upsert("gen/File" + i + ".txt", UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        commit(files);
+        awaitIndex();
+
+        Map<String, Object> stats = search.stats(repoId);
+        assertThat((long) stats.get("postingBytes")).isLessThan(16 * 1024);
+        assertThat((long) stats.get("heapBytes")).isGreaterThanOrEqualTo(100L * (int) stats.get("trigrams"));
+        assertThat((int) stats.get("unindexedFiles")).isGreaterThan(0);
+    }
+
+    @Test
+    void catastrophicBacktrackingStopsAtTheTimeBudget() throws Exception {
+        commit(List.of(GitService.FileChange.upsert("long.txt",
+                ("a".repeat(200) + "!\n").getBytes(StandardCharsets.UTF_8))));
+        search.shutdown();
+        search = new CodeSearchService(pool, gitService, 256 * 1024, 64 << 20, 4, 200);
+        awaitIndex();
+
+        long start = System.nanoTime();
+        CodeSearchService.Result result = search.search(repoId, "(.*a){20}$", true, true, null, 100, m -> {});
+
+        assertThat(result.truncated()).isTrue();
+        assertThat(result.matches()).isZero();
+        assertThat(System.nanoTime() - start).isLessThan(5_000_000_000L);
+    }
+
+    private void awaitIndex() throws Exception {
+        search.search(repoId, "class", false, false, null, 1, m -> {});
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!Boolean.TRUE.equals(search.stats(repoId).get("loaded")) && System.nanoTime() < deadline) Thread.sleep(10);
+        assertThat(search.stats(repoId)).containsEntry("loaded", true);
+    }
+
+    private void commit(List<GitService.FileChange> changes) throws Exception {
+        gitService.commitFiles(repoId, "master", changes, "change", new PersonIdent("Test", "test@nicorp.tech"), null);
+    }
+}
@@ -0,0 +1,154 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileHistoryServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitService gitService;
+    private FileHistoryService history;
+    private UUID repoId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        gitService = new GitService(config, pool, commitGraphs, new GitObjectCache(1 << 20, 64 * 1024),
+                new GitDiffService(pool, new GitDiffCache(1 << 20), 1 << 20, 256 * 1024, 2000, 5000, 512 * 1024, 8 << 20));
+        history = new FileHistoryService(pool, commitGraphs, 1 << 20);
+
+        repoId = UUID.randomUUID();
+        gitService.initRepository(repoId, "demo");
+    }
+
+    @AfterEach
+    void tearDown() {
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void followsRenameAcrossPages() throws Exception {
+        String body = "alpha\nbeta\ngamma\ndelta\nepsilon\n";
+        commit(List.of(GitService.FileChange.upsert("old/name.txt", bytes(body))), "create");
+        commit(List.of(GitService.FileChange.upsert("old/name.txt", bytes(body + "zeta\n"))), "append");
+        commit(List.of(GitService.FileChange.upsert("unrelated.txt", bytes("x\n"))), "noise");
+        commit(List.of(GitService.FileChange.delete("old/name.txt"),
+                GitService.FileChange.upsert("new/name.txt", bytes(body + "zeta\n"))), "move");
+        commit(List.of(GitService.FileChange.upsert("new/name.txt", bytes("alpha\nbeta\ngamma\ndelta\nepsilon\nzeta\neta\n"))), "append again");
+
+        List<Map<String, Object>> all = new ArrayList<>();
+        List<String> cursors = new ArrayList<>();
+        String after = null;
+        do {
+            FileHistoryService.Page page = history.history(repoId, "master", "/new/name.txt", after, 2);
+            all.addAll(page.entries());
+            after = page.next();
+            if (after != null) cursors.add(after);
+        } while (after != null);
+
+        assertThat(all).extracting(e -> e.get("message")).containsExactly("append again", "move", "append", "create");
+        assertThat(all).extracting(e -> e.get("change_type")).containsExactly("MODIFY", "RENAME", "MODIFY", "ADD");
+        assertThat(all.get(1)).containsEntry("path", "new/name.txt").containsEntry("old_path", "old/name.txt");
+        assertThat(all.get(2)).containsEntry("path", "old/name.txt").containsEntry("additions", 1).containsEntry("deletions", 0);
+        assertThat(all.get(3)).containsEntry("additions", 5);
+        assertThat(cursors).singleElement().asString().endsWith(":old/name.txt");
+    }
+
+    @Test
+    void mergedSideBranchSpanningPageBoundaryIsListed() throws Exception {
+        try (Repository repo = pool.open(repoId); RevWalk walk = new RevWalk(repo)) {
+            RevCommit base = walk.parseCommit(repo.resolve("master"));
+            long t = base.getCommitTime();
+            ObjectId x = GitServiceTest.commitAt(repo, tree(repo, "x\n"), t + 10, "base X", base);
+            ObjectId b = GitServiceTest.commitAt(repo, tree(repo, "b\n"), t + 20, "side B", x);
+            ObjectId a = GitServiceTest.commitAt(repo, tree(repo, "a\n"), t + 30, "main A", x);
+            ObjectId m = GitServiceTest.commitAt(repo, tree(repo, "m\n"), t + 40, "merge M", a, b);
+            RefUpdate update = repo.updateRef("refs/heads/master");
+            update.setNewObjectId(m);
+            update.forceUpdate();
+        }
+
+        FileHistoryService.Page first = history.history(repoId, "master", "f.txt", null, 2);
+        FileHistoryService.Page second = history.history(repoId, "master", "f.txt", first.next(), 2);
+
+        assertThat(first.entries()).extracting(e -> e.get("message")).containsExactly("merge M", "main A");
+        assertThat(second.entries()).extracting(e -> e.get("message")).containsExactly("side B", "base X");
+        assertThat(second.next()).isNull();
+    }
+
+    @Test
+    void pathLimitedWalkSkipsCommitsThroughBloomFilters() throws Exception {
+        commit(List.of(GitService.FileChange.upsert("tracked.txt", bytes("v0\n"))), "tracked 0");
+        for (int i = 0; i < 30; i++) {
+            commit(List.of(GitService.FileChange.upsert("src/file" + i + ".txt", bytes("n" + i + "\n"))), "noise " + i);
+        }
+        commit(List.of(GitService.FileChange.upsert("tracked.txt", bytes("v1\n"))), "tracked 1");
+        try (Repository r = pool.open(repoId)) {
+            commitGraphs.write(r);
+        }
+
+        FileHistoryService.Page page = history.history(repoId, "master", "tracked.txt", null, 10);
+
+        assertThat(page.entries()).extracting(e -> e.get("message")).containsExactly("tracked 1", "tracked 0");
+        assertThat(page.next()).isNull();
+        assertThat(page.filterSkipped()).isGreaterThan(20);
+    }
+
+    @Test
+    void unknownRefOrCursorIsNotFound() throws Exception {
+        assertThatThrownBy(() -> history.history(repoId, "nope", "README.md", null, 10))
+                .isInstanceOf(FileNotFoundException.class);
+        assertThatThrownBy(() -> history.history(repoId, "master", "README.md", "abc:README.md", 10))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    private void commit(List<GitService.FileChange> changes, String message) throws Exception {
+        gitService.commitFiles(repoId, "master", changes, message, new PersonIdent("Test", "test@nicorp.tech"), null);
+    }
+
+    private static ObjectId tree(Repository repo, String content) throws Exception {
+        try (ObjectInserter ins = repo.newObjectInserter()) {
+            TreeFormatter tree = new TreeFormatter();
+            tree.append("f.txt", FileMode.REGULAR_FILE, ins.insert(Constants.OBJ_BLOB, bytes(content)));
+            ObjectId id = ins.insert(tree);
+            ins.flush();
+            return id;
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
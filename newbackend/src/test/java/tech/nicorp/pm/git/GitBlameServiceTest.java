@@ -0,0 +1,87 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GitBlameServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitService gitService;
+    private GitBlameService blames;
+    private UUID repoId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        gitService = new GitService(config, pool, commitGraphs, new GitObjectCache(1 << 20, 64 * 1024),
+                new GitDiffService(pool, new GitDiffCache(1 << 20), 1 << 20, 256 * 1024, 2000, 5000, 512 * 1024, 8 << 20));
+        blames = new GitBlameService(pool, 8 << 20, 1 << 20);
+
+        repoId = UUID.randomUUID();
+        gitService.initRepository(repoId, "demo");
+    }
+
+    @AfterEach
+    void tearDown() {
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void changedFileIsReblamedIncrementallyAndMatchesFullBlame() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 40; i++) lines.add("line " + i);
+        commit("src/app.txt", lines, "initial");
+        blames.blame(repoId, "master", "src/app.txt");
+        assertThat(blames.fullBlames()).isEqualTo(1);
+
+        Random random = new Random(42);
+        for (int round = 0; round < 15; round++) {
+            int at = random.nextInt(lines.size());
+            switch (round % 3) {
+                case 0 -> lines.set(at, "changed " + round);
+                case 1 -> lines.add(at, "inserted " + round);
+                default -> lines.remove(at);
+            }
+            commit("src/app.txt", lines, "edit " + round);
+            if (round % 5 == 0) commit("other.txt", List.of("noise " + round), "unrelated " + round);
+
+            GitBlameService.Blame derived = blames.blame(repoId, "master", "src/app.txt");
+            GitBlameService.Blame full = new GitBlameService(pool, 8 << 20, 1 << 20).blame(repoId, "master", "src/app.txt");
+            assertThat(GitBlameService.ranges(derived)).as("round %d", round).isEqualTo(GitBlameService.ranges(full));
+        }
+        assertThat(blames.fullBlames()).isEqualTo(1);
+        assertThat(blames.incrementalBlames()).isEqualTo(15);
+
+        // later commits that do not touch the file share the cached entry
+        commit("other.txt", List.of("more noise"), "unrelated again");
+        blames.blame(repoId, "master", "src/app.txt");
+        assertThat(blames.fullBlames() + blames.incrementalBlames()).isEqualTo(16);
+    }
+
+    private void commit(String path, List<String> lines, String message) throws Exception {
+        byte[] content = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        gitService.commitFiles(repoId, "master", List.of(GitService.FileChange.upsert(path, content)),
+                message, new PersonIdent("Test", "test@nicorp.tech"), null);
+    }
+}
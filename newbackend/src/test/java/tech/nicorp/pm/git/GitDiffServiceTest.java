@@ -0,0 +1,142 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GitDiffServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private GitDiffCache diffCache;
+    private UUID repoId;
+    private Path workDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        diffCache = new GitDiffCache(1 << 20);
+        repoId = UUID.randomUUID();
+        workDir = reposRoot.resolve(repoId.toString());
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("master").call()) {
+            Files.writeString(workDir.resolve("a.txt"), "one\ntwo\nthree\n");
+            Files.write(workDir.resolve("img.bin"), new byte[]{0, 1, 2, 3});
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("initial").setAuthor("Test", "test@nicorp.tech").call();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.closeAll();
+    }
+
+    @Test
+    void summaryHasLineStatsAndBinaryFlagWithoutPatches() throws Exception {
+        String sha = commit(Map.of("a.txt", "one\n2\nthree\nfour\n"), new byte[]{0, 9, 9, 9});
+
+        Map<String, Object> summary = service(256 * 1024).summary(repoId, sha);
+
+        List<Map<String, Object>> files = files(summary);
+        Map<String, Object> text = byPath(files, "a.txt");
+        assertThat(text).containsEntry("changeType", "MODIFY").containsEntry("binary", false)
+                .containsEntry("additions", 2).containsEntry("deletions", 1)
+                .doesNotContainKeys("patch", "oldContent", "newContent");
+        assertThat(byPath(files, "img.bin")).containsEntry("binary", true).doesNotContainKey("additions");
+        assertThat(summary).containsEntry("additions", 2).containsEntry("statsTruncated", false);
+    }
+
+    @Test
+    void fileDiffIsTruncatedAtPatchBudget() throws Exception {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 2000; i++) big.append("line ").append(i).append('\n');
+        String sha = commit(Map.of("a.txt", big.toString()), null);
+
+        Map<String, Object> diff = service(1024).fileDiff(repoId, sha, "a.txt", false);
+
+        assertThat(diff).containsEntry("truncated", true).containsEntry("truncatedReason", GitDiffService.TRUNCATED_SIZE)
+                .doesNotContainKey("oldContent");
+        assertThat((String) diff.get("patch")).hasSizeLessThan(1100).endsWith("\\ Diff truncated (size)\n");
+    }
+
+    @Test
+    void fileDiffPastTimeBudgetIsNotFormatted() throws Exception {
+        String sha = commit(Map.of("a.txt", "one\ntwo\n"), null);
+        GitDiffService noTime = new GitDiffService(pool, diffCache, 1 << 20, 256 * 1024, 0, 0, 512 * 1024, 8 << 20);
+
+        Map<String, Object> diff = noTime.fileDiff(repoId, sha, "a.txt", false);
+
+        assertThat(diff).containsEntry("truncated", true).containsEntry("truncatedReason", GitDiffService.TRUNCATED_TIME)
+                .doesNotContainKey("additions");
+        assertThat((String) diff.get("patch")).isEqualTo("\\ Diff truncated (time)\n");
+        assertThat(noTime.summary(repoId, sha)).containsEntry("statsTruncated", true);
+    }
+
+    @Test
+    void fileDiffReturnsContentsOnlyOnDemand() throws Exception {
+        String sha = commit(Map.of("a.txt", "one\ntwo\n"), null);
+
+        Map<String, Object> diff = service(256 * 1024).fileDiff(repoId, sha, "a.txt", true);
+
+        assertThat(diff).containsEntry("truncated", false)
+                .containsEntry("oldContent", "one\ntwo\nthree\n")
+                .containsEntry("newContent", "one\ntwo\n");
+        assertThat((String) diff.get("patch")).contains("-three");
+    }
+
+    @Test
+    void diffsAreCachedByTreePair() throws Exception {
+        String sha = commit(Map.of("a.txt", "one\ntwo\nthree\nfour\n"), null);
+        GitDiffService service = service(256 * 1024);
+
+        Map<String, Object> first = service.fileDiff(repoId, sha, "a.txt", false);
+        Map<String, Object> second = service.fileDiff(repoId, sha, "a.txt", false);
+        service.summary(repoId, sha);
+        service.summary(repoId, sha);
+
+        assertThat(second).isSameAs(first);
+        // scan misses once, then hits for the repeat and both summaries; the summary itself misses once
+        assertThat(diffCache.misses()).isEqualTo(3);
+        assertThat(diffCache.hits()).isEqualTo(5);
+        assertThat(diffCache.usedBytes()).isPositive();
+    }
+
+    private GitDiffService service(int maxPatchBytes) {
+        return new GitDiffService(pool, diffCache, 1 << 20, maxPatchBytes, 2000, 5000, 512 * 1024, 8 << 20);
+    }
+
+    private String commit(Map<String, String> files, byte[] binary) throws Exception {
+        for (Map.Entry<String, String> f : files.entrySet()) {
+            Files.writeString(workDir.resolve(f.getKey()), f.getValue());
+        }
+        if (binary != null) Files.write(workDir.resolve("img.bin"), binary);
+        try (Git git = Git.open(workDir.toFile())) {
+            git.add().addFilepattern(".").call();
+            return git.commit().setMessage("change").setAuthor("Test", "test@nicorp.tech").call().getName();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> files(Map<String, Object> summary) {
+        return (List<Map<String, Object>>) summary.get("files");
+    }
+
+    private static Map<String, Object> byPath(List<Map<String, Object>> files, String path) {
+        return files.stream().filter(f -> path.equals(f.get("newPath"))).findFirst().orElseThrow();
+    }
+}
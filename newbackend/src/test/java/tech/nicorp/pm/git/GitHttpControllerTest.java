@@ -0,0 +1,193 @@
+package tech.nicorp.pm.git;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class GitHttpControllerTest {
+
+    // Size of the synthetic blob; raise with -Dgit.test.largeRepoBytes=... for a heavier run
+    private static final int PAYLOAD_BYTES = Integer.getInteger("git.test.largeRepoBytes", 32 * 1024 * 1024);
+
+    // One side-band-64k frame plus slack; anything larger means the pack was buffered
+    private static final int MAX_WRITE_BYTES = 128 * 1024;
+
+    @TempDir
+    static Path reposRoot;
+
+    private static GitHttpController controller;
+    private static String repoId;
+    private static ObjectId head;
+
+    @BeforeAll
+    static void createLargeRepository() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        GitRepositoryPool pool = new GitRepositoryPool(config, 4, 60);
+        controller = new GitHttpController(config, pool, new CommitGraphService(pool), mock(PostReceiveQueue.class),
+                new GitMaintenanceService(config, pool, 6700, 50, 1000, 1), new RefAdvertisementCache(1 << 20));
+
+        repoId = UUID.randomUUID().toString();
+        Path workDir = reposRoot.resolve(repoId);
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("master").call()) {
+            byte[] payload = new byte[PAYLOAD_BYTES];
+            new Random(42).nextBytes(payload);
+            Files.write(workDir.resolve("large.bin"), payload);
+            git.add().addFilepattern("large.bin").call();
+            git.commit().setMessage("large blob").setAuthor("Test", "test@nicorp.tech").call();
+            Files.writeString(workDir.resolve("small.txt"), "small");
+            git.add().addFilepattern("small.txt").call();
+            head = git.commit().setMessage("small file").setAuthor("Test", "test@nicorp.tech").call().getId();
+        }
+    }
+
+    @Test
+    void uploadPackStreamsLargePackInBoundedWrites() throws Exception {
+        MockHttpServletRequest request = uploadPackRequest(wantRequest(head));
+        CountingResponse response = new CountingResponse();
+
+        controller.uploadPack(repoId, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentType()).isEqualTo("application/x-git-upload-pack-result");
+        assertThat(response.getHeader("Content-Length")).isNull();
+        assertThat(response.out.total).isGreaterThan(PAYLOAD_BYTES);
+        assertThat(response.out.maxWrite).isLessThanOrEqualTo(MAX_WRITE_BYTES);
+    }
+
+    @Test
+    void uploadPackAcceptsGzipRequestBody() throws Exception {
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(wantRequest(head));
+        }
+        MockHttpServletRequest request = uploadPackRequest(gz.toByteArray());
+        request.addHeader("Content-Encoding", "gzip");
+        CountingResponse response = new CountingResponse();
+
+        controller.uploadPack(repoId, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.out.total).isGreaterThan(PAYLOAD_BYTES);
+    }
+
+    @Test
+    void uploadPackReturnsNotFoundForUnknownRepository() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.uploadPack(UUID.randomUUID().toString(), uploadPackRequest(wantRequest(head)), response);
+
+        assertThat(response.getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    void infoRefsAdvertisesProtocolV2WithFilterAndShallow() throws Exception {
+        String body = new String(controller.infoRefs(repoId, "git-upload-pack", "version=2").getBody(), StandardCharsets.UTF_8);
+
+        assertThat(body).startsWith("001e# service=git-upload-pack\n0000");
+        assertThat(body).contains("version 2").contains("ls-refs");
+        assertThat(body).containsPattern("fetch=[a-z -]*shallow").containsPattern("fetch=[a-z -]*filter");
+        assertThat(body).doesNotContain("refs/heads/master");
+    }
+
+    @Test
+    void shallowBloblessFetchMovesFarFewerBytes() throws Exception {
+        CountingResponse full = new CountingResponse();
+        controller.uploadPack(repoId, v2FetchRequest(head, false), full);
+
+        CountingResponse partial = new CountingResponse();
+        controller.uploadPack(repoId, v2FetchRequest(head, true), partial);
+
+        assertThat(full.getStatus()).isEqualTo(200);
+        assertThat(partial.getStatus()).isEqualTo(200);
+        assertThat(full.out.total).isGreaterThan(PAYLOAD_BYTES);
+        // commit and tree of the tip only: no history, no 32 MiB blob
+        assertThat(partial.out.total).isLessThan(4096);
+    }
+
+    private static MockHttpServletRequest v2FetchRequest(ObjectId want, boolean shallowBlobless) {
+        StringBuilder body = new StringBuilder(pktLine("command=fetch\n")).append("0001")
+                .append(pktLine("ofs-delta\n"));
+        if (shallowBlobless) {
+            body.append(pktLine("deepen 1\n")).append(pktLine("filter blob:none\n"));
+        }
+        body.append(pktLine("want " + want.name() + "\n")).append(pktLine("done\n")).append("0000");
+        MockHttpServletRequest request = uploadPackRequest(body.toString().getBytes(StandardCharsets.UTF_8));
+        request.addHeader("Git-Protocol", "version=2");
+        return request;
+    }
+
+    private static MockHttpServletRequest uploadPackRequest(byte[] body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/git/repo.git/git-upload-pack");
+        request.setContentType("application/x-git-upload-pack-request");
+        request.setContent(body);
+        return request;
+    }
+
+    private static byte[] wantRequest(ObjectId want) {
+        return (pktLine("want " + want.name() + " side-band-64k ofs-delta\n") + "0000" + pktLine("done\n"))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String pktLine(String payload) {
+        return String.format("%04x", payload.length() + 4) + payload;
+    }
+
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+        final CountingOutputStream out = new CountingOutputStream();
+
+        CountingResponse() {
+            super(new MockHttpServletResponse());
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream {
+        long total;
+        int maxWrite;
+
+        @Override
+        public void write(int b) {
+            total++;
+            maxWrite = Math.max(maxWrite, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            total += len;
+            maxWrite = Math.max(maxWrite, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
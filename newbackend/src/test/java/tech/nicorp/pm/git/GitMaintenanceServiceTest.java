@@ -0,0 +1,76 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GitMaintenanceServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private GitMaintenanceService maintenance;
+    private UUID repoId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        maintenance = new GitMaintenanceService(config, pool, 20, 50, 1_000_000, 1);
+
+        repoId = UUID.randomUUID();
+        Path workDir = reposRoot.resolve(repoId.toString());
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("master").call()) {
+            for (int i = 0; i < 10; i++) {
+                Files.writeString(workDir.resolve("file" + i + ".txt"), "content " + i);
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("commit " + i).setAuthor("Test", "test@nicorp.tech").call();
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        maintenance.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void repacksRepositoryOverLooseObjectThresholdWithBitmap() throws Exception {
+        assertThat(maintenance.stats(repoId).looseObjects()).isGreaterThanOrEqualTo(20);
+        assertThat(maintenance.reason(repoId.toString())).isEqualTo("loose_objects");
+
+        maintenance.run(repoId.toString(), "loose_objects");
+
+        GitMaintenanceService.Stats after = maintenance.stats(repoId);
+        assertThat(after.looseObjects()).isZero();
+        assertThat(after.packFiles()).isEqualTo(1);
+        assertThat(after.bitmaps()).isPositive();
+        assertThat(maintenance.lastRun(repoId)).hasValueSatisfying(run -> {
+            assertThat(run.error()).isNull();
+            assertThat(run.before().looseObjects()).isGreaterThanOrEqualTo(20);
+        });
+        assertThat(maintenance.reason(repoId.toString())).isNull();
+    }
+
+    @Test
+    void skipsRepositoryWithPushInProgress() throws Exception {
+        try (GitMaintenanceService.PushHandle push = maintenance.pushStarted(repoId.toString())) {
+            assertThat(maintenance.reason(repoId.toString())).isNull();
+            assertThat(maintenance.schedule(repoId.toString(), "manual")).isFalse();
+        }
+        assertThat(maintenance.pushInProgress(repoId.toString())).isFalse();
+        assertThat(maintenance.reason(repoId.toString())).isEqualTo("loose_objects");
+    }
+}
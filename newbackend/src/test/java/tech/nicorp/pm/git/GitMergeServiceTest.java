@@ -0,0 +1,181 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GitMergeServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitMergeService mergeService;
+    private UUID repoId;
+    private Path workDir;
+    private final PersonIdent ident = new PersonIdent("Merger", "merger@nicorp.tech");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        mergeService = new GitMergeService(pool, commitGraphs);
+
+        repoId = UUID.randomUUID();
+        workDir = reposRoot.resolve(repoId.toString());
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("master").call()) {
+            commit(git, "shared.txt", "base\n");
+            git.branchCreate().setName("feature").call();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void fastForwardsWhenTargetIsAncestor() throws Exception {
+        RevCommit featureTip = onBranch("feature", "feature.txt", "f\n");
+
+        GitMergeService.Result result = mergeService.merge(repoId, "feature", "master", GitMergeService.Mode.MERGE, null, ident);
+
+        assertThat(result.status()).isEqualTo(GitMergeService.Status.FAST_FORWARD);
+        assertThat(tip("master")).isEqualTo(featureTip);
+    }
+
+    @Test
+    void createsMergeCommitWithoutTouchingWorkingTree() throws Exception {
+        RevCommit featureTip = onBranch("feature", "feature.txt", "f\n");
+        RevCommit masterTip = onBranch("master", "master.txt", "m\n");
+        Files.delete(workDir.resolve("master.txt"));
+
+        GitMergeService.Result result = mergeService.merge(repoId, "feature", "master", GitMergeService.Mode.MERGE, null, ident);
+
+        assertThat(result.status()).isEqualTo(GitMergeService.Status.MERGED);
+        RevCommit merge = tip("master");
+        assertThat(merge.getParents()).containsExactly(masterTip, featureTip);
+        assertThat(paths(merge)).contains("feature.txt", "master.txt", "shared.txt");
+        assertThat(workDir.resolve("feature.txt")).doesNotExist();
+    }
+
+    @Test
+    void squashCreatesSingleParentCommit() throws Exception {
+        onBranch("feature", "feature.txt", "f\n");
+        RevCommit masterTip = onBranch("master", "master.txt", "m\n");
+
+        GitMergeService.Result result = mergeService.merge(repoId, "feature", "master", GitMergeService.Mode.SQUASH, "Add feature", ident);
+
+        RevCommit squash = tip("master");
+        assertThat(result.status()).isEqualTo(GitMergeService.Status.SQUASHED);
+        assertThat(squash.getParents()).containsExactly(masterTip);
+        assertThat(squash.getFullMessage()).isEqualTo("Add feature");
+        assertThat(paths(squash)).contains("feature.txt", "master.txt");
+    }
+
+    @Test
+    void conflictsLeaveTargetUntouched() throws Exception {
+        onBranch("feature", "shared.txt", "theirs\n");
+        RevCommit masterTip = onBranch("master", "shared.txt", "ours\n");
+
+        assertThatThrownBy(() -> mergeService.merge(repoId, "feature", "master", GitMergeService.Mode.MERGE, null, ident))
+                .isInstanceOf(GitMergeService.MergeFailedException.class)
+                .satisfies(e -> assertThat(((GitMergeService.MergeFailedException) e).conflicts()).containsExactly("shared.txt"));
+        assertThat(tip("master")).isEqualTo(masterTip);
+    }
+
+    @Test
+    void fastForwardModeRejectsDivergedBranches() throws Exception {
+        onBranch("feature", "feature.txt", "f\n");
+        onBranch("master", "master.txt", "m\n");
+
+        assertThatThrownBy(() -> mergeService.merge(repoId, "feature", "master", GitMergeService.Mode.FAST_FORWARD, null, ident))
+                .isInstanceOf(GitMergeService.MergeFailedException.class);
+    }
+
+    @Test
+    void checkLeavesNoObjectsBehind() throws Exception {
+        // criss-cross history: two merge bases, so the recursive merger builds and reads back a virtual one
+        RevCommit f1 = onBranch("feature", "feature.txt", "f1\n");
+        RevCommit m1 = onBranch("master", "master.txt", "m1\n");
+        try (Git git = Git.open(workDir.toFile())) {
+            git.merge().include(f1).setFastForward(MergeCommand.FastForwardMode.NO_FF).call();
+            git.checkout().setName("feature").call();
+            git.merge().include(m1).setFastForward(MergeCommand.FastForwardMode.NO_FF).call();
+        }
+        onBranch("feature", "feature.txt", "f2\n");
+        onBranch("master", "master.txt", "m2\n");
+        Path objects = workDir.resolve(".git/objects");
+
+        long before = countFiles(objects);
+        GitMergeService.Mergeability clean = mergeService.check(repoId, "feature", "master");
+        assertThat(countFiles(objects)).isEqualTo(before);
+        assertThat(clean.ahead()).isPositive();
+        assertThat(clean.behind()).isPositive();
+        assertThat(clean.conflicts()).isEmpty();
+
+        onBranch("feature", "master.txt", "theirs\n");
+        before = countFiles(objects);
+        GitMergeService.Mergeability conflicting = mergeService.check(repoId, "feature", "master");
+        assertThat(countFiles(objects)).isEqualTo(before);
+        assertThat(conflicting.conflicts()).containsExactly("master.txt");
+    }
+
+    private RevCommit onBranch(String branch, String path, String content) throws Exception {
+        try (Git git = Git.open(workDir.toFile())) {
+            git.checkout().setName(branch).call();
+            return commit(git, path, content);
+        }
+    }
+
+    private RevCommit commit(Git git, String path, String content) throws Exception {
+        Files.writeString(workDir.resolve(path), content);
+        git.add().addFilepattern(path).call();
+        return git.commit().setMessage("edit " + path).setAuthor("Test", "test@nicorp.tech").call();
+    }
+
+    private RevCommit tip(String branch) throws Exception {
+        try (Repository repo = pool.open(repoId); RevWalk walk = new RevWalk(repo)) {
+            return walk.parseCommit(repo.resolve("refs/heads/" + branch));
+        }
+    }
+
+    private static long countFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private List<String> paths(RevCommit commit) throws Exception {
+        List<String> paths = new ArrayList<>();
+        try (Repository repo = pool.open(repoId); TreeWalk tw = new TreeWalk(repo)) {
+            tw.addTree(commit.getTree());
+            tw.setRecursive(true);
+            while (tw.next()) paths.add(tw.getPathString());
+        }
+        return paths;
+    }
+}
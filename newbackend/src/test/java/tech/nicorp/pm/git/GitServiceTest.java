@@ -0,0 +1,230 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GitServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitObjectCache objectCache;
+    private GitService gitService;
+    private UUID repoId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        objectCache = new GitObjectCache(1 << 20, 64 * 1024);
+        gitService = new GitService(config, pool, commitGraphs, objectCache,
+                new GitDiffService(pool, new GitDiffCache(1 << 20), 1 << 20, 256 * 1024, 2000, 5000, 512 * 1024, 8 << 20));
+
+        repoId = UUID.randomUUID();
+        gitService.initRepository(repoId, "demo");
+    }
+
+    @AfterEach
+    void tearDown() {
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void commitsArePagedWithCursor() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            commit("file.txt", "v" + i, "change " + i);
+        }
+
+        List<String> messages = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            GitService.CommitPage page = gitService.commits(repoId, "master", cursor, 2, null);
+            page.commits().forEach(c -> messages.add(((String) c.get("message")).trim()));
+            cursor = page.next();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(3);
+        assertThat(messages).containsExactly("change 5", "change 4", "change 3", "change 2", "change 1", "Initial commit");
+    }
+
+    @Test
+    void mergedSideBranchSpanningPageBoundaryIsListed() throws Exception {
+        try (Repository repo = pool.open(repoId); RevWalk walk = new RevWalk(repo)) {
+            RevCommit x = walk.parseCommit(repo.resolve("master"));
+            long t = x.getCommitTime();
+            ObjectId tree = x.getTree();
+            ObjectId b = commitAt(repo, tree, t + 10, "side B", x);
+            ObjectId a = commitAt(repo, tree, t + 20, "main A", x);
+            ObjectId m = commitAt(repo, tree, t + 30, "merge M", a, b);
+            RefUpdate update = repo.updateRef("refs/heads/master");
+            update.setNewObjectId(m);
+            update.forceUpdate();
+        }
+
+        GitService.CommitPage first = gitService.commits(repoId, "master", null, 2, null);
+        GitService.CommitPage second = gitService.commits(repoId, "master", first.next(), 2, null);
+
+        assertThat(first.commits()).extracting(c -> ((String) c.get("message")).trim()).containsExactly("merge M", "main A");
+        assertThat(second.commits()).extracting(c -> ((String) c.get("message")).trim()).containsExactly("side B", "Initial commit");
+        assertThat(second.next()).isNull();
+    }
+
+    @Test
+    void commitsCanBeLimitedToPath() throws Exception {
+        commit("a.txt", "a", "touch a");
+        commit("b.txt", "b", "touch b");
+        commit("a.txt", "a2", "touch a again");
+
+        GitService.CommitPage page = gitService.commits(repoId, "master", null, 10, "a.txt");
+
+        assertThat(page.commits()).extracting(c -> ((String) c.get("message")).trim())
+                .containsExactly("touch a again", "touch a");
+        assertThat(page.next()).isNull();
+    }
+
+    @Test
+    void commitGraphIsWrittenAndEnabled() throws Exception {
+        commit("file.txt", "v1", "change 1");
+
+        try (var repo = pool.open(repoId)) {
+            commitGraphs.write(repo);
+
+            assertThat(Files.exists(repo.getDirectory().toPath().resolve("objects/info/commit-graph"))).isTrue();
+            assertThat(repo.getConfig().getBoolean("core", "commitGraph", false)).isTrue();
+            assertThat(repo.getObjectDatabase().newReader().getCommitGraph()).isPresent();
+        }
+        assertThat(gitService.commits(repoId, "master", null, 10, null).commits()).hasSize(2);
+    }
+
+    @Test
+    void unknownRefYieldsEmptyPage() throws Exception {
+        GitService.CommitPage page = gitService.commits(repoId, "does-not-exist", null, 10, null);
+
+        assertThat(page.commits()).isEmpty();
+        assertThat(page.next()).isNull();
+    }
+
+    @Test
+    void listingsAndSmallBlobsAreServedFromObjectCache() throws Exception {
+        commit("file.txt", "hello", "add file");
+
+        GitService.Listing first = gitService.listing(repoId, "master", null);
+        GitService.Listing second = gitService.listing(repoId, "master", null);
+        GitService.Blob blob = gitService.blob(repoId, "master", "file.txt");
+        GitService.Blob again = gitService.blob(repoId, "master", "file.txt");
+
+        assertThat(second.objectId()).isEqualTo(first.objectId());
+        assertThat(second.entries()).isSameAs(first.entries());
+        assertThat(again.bytes()).isSameAs(blob.bytes());
+        assertThat(new String(blob.bytes())).isEqualTo("hello");
+        assertThat(objectCache.hits()).isEqualTo(2);
+        assertThat(objectCache.misses()).isEqualTo(2);
+    }
+
+    @Test
+    void commitFilesWritesOneCommit() throws Exception {
+        commit("old.txt", "old", "add old");
+        String head = gitService.resolveRefSha(repoId, "master");
+
+        String sha = gitService.commitFiles(repoId, "master", List.of(
+                GitService.FileChange.upsert("src/new.txt", "new".getBytes()),
+                GitService.FileChange.delete("README.md"),
+                new GitService.FileChange(GitService.FileAction.MOVE, "moved.txt", "old.txt", null)
+        ), "batch", new PersonIdent("Editor", "editor@nicorp.tech"), head);
+
+        assertThat(gitService.resolveRefSha(repoId, "master")).isEqualTo(sha);
+        assertThat(gitService.listFiles(repoId, sha, null)).extracting(f -> f.get("name"))
+                .containsExactlyInAnyOrder("src", "moved.txt");
+        assertThat(gitService.fileContent(repoId, sha, "moved.txt")).isEqualTo("old");
+        assertThat(gitService.commits(repoId, "master", null, 10, null).commits()).hasSize(3);
+        assertThat(reposRoot.resolve(repoId + ".git")).isDirectory();
+        assertThat(reposRoot.resolve(repoId.toString())).doesNotExist();
+    }
+
+    @Test
+    void commitFilesRejectsStaleExpectedHead() throws Exception {
+        String stale = gitService.resolveRefSha(repoId, "master");
+        gitService.commitFile(repoId, "master", "a.txt", "a", "add a", "editor");
+
+        assertThatThrownBy(() -> gitService.commitFiles(repoId, "master", List.of(GitService.FileChange.upsert("b.txt", new byte[0])),
+                "add b", new PersonIdent("Editor", "editor@nicorp.tech"), stale))
+                .isInstanceOf(GitService.CommitConflictException.class);
+        assertThatThrownBy(() -> gitService.deleteFile(repoId, "master", "missing.txt", "rm", "editor"))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    void concurrentCommitsOnSameBranchAreAllKept() throws Exception {
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                int n = i;
+                futures.add(executor.submit(() -> {
+                    gitService.commitFile(repoId, "master", "f" + n + ".txt", "v" + n, "write " + n, "editor");
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(gitService.listFiles(repoId, "master", null)).extracting(f -> f.get("name"))
+                .contains("f0.txt", "f1.txt", "f2.txt", "f3.txt");
+    }
+
+    static ObjectId commitAt(Repository repo, ObjectId tree, long seconds, String message, ObjectId... parents) throws Exception {
+        PersonIdent ident = new PersonIdent("Test", "test@nicorp.tech", Instant.ofEpochSecond(seconds), ZoneOffset.UTC);
+        CommitBuilder cb = new CommitBuilder();
+        cb.setTreeId(tree);
+        cb.setParentIds(parents);
+        cb.setAuthor(ident);
+        cb.setCommitter(ident);
+        cb.setMessage(message);
+        try (ObjectInserter ins = repo.newObjectInserter()) {
+            ObjectId id = ins.insert(cb);
+            ins.flush();
+            return id;
+        }
+    }
+
+    private void commit(String path, String content, String message) throws Exception {
+        gitService.commitFiles(repoId, "master", List.of(GitService.FileChange.upsert(path, content.getBytes())),
+                message, new PersonIdent("Test", "test@nicorp.tech"), null);
+    }
+}
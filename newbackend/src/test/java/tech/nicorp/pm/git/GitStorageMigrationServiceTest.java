@@ -0,0 +1,86 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GitStorageMigrationServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitConfig config;
+    private GitRepositoryPool pool;
+    private GitMaintenanceService maintenance;
+    private GitStorageMigrationService migration;
+    private String repoId;
+    private String head;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        maintenance = new GitMaintenanceService(config, pool, 6700, 50, 1000, 1);
+        migration = new GitStorageMigrationService(config, pool, maintenance, 0);
+
+        repoId = UUID.randomUUID().toString();
+        Path workDir = reposRoot.resolve(repoId);
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("master").call()) {
+            Files.writeString(workDir.resolve("README.md"), "# demo\n");
+            git.add().addFilepattern(".").call();
+            head = git.commit().setMessage("init").setAuthor("Test", "test@nicorp.tech").call().getName();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        maintenance.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void migratesLegacyRepositoryWhileHandlesAreOpen() throws Exception {
+        try (Repository before = pool.open(repoId)) {
+            assertThat(migration.migrate(repoId)).isTrue();
+
+            // a handle opened before the move still reads through the compatibility link
+            assertThat(before.resolve("master").getName()).isEqualTo(head);
+            try (Repository after = pool.open(repoId)) {
+                assertThat(after).isNotSameAs(before);
+                assertThat(after.isBare()).isTrue();
+                assertThat(after.getDirectory().toPath()).isEqualTo(config.getBareRepoPath(repoId));
+                assertThat(after.resolve("master").getName()).isEqualTo(head);
+            }
+        }
+        assertThat(reposRoot.resolve(repoId).resolve("README.md")).doesNotExist();
+        assertThat(migration.migrate(repoId)).isFalse();
+
+        migration.sweep();
+
+        assertThat(reposRoot.resolve(repoId)).doesNotExist();
+        assertThat(pool.exists(repoId)).isTrue();
+    }
+
+    @Test
+    void skipsRepositoryWithPushInProgress() throws Exception {
+        try (GitMaintenanceService.PushHandle push = maintenance.pushStarted(repoId)) {
+            assertThat(migration.migrate(repoId)).isFalse();
+        }
+        assertThat(config.getRepoPath(repoId)).isEqualTo(reposRoot.resolve(repoId).resolve(".git"));
+
+        migration.sweep();
+
+        assertThat(config.getRepoPath(repoId)).isEqualTo(config.getBareRepoPath(repoId));
+    }
+}
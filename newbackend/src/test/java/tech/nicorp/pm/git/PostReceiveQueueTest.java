@@ -0,0 +1,171 @@
+package tech.nicorp.pm.git;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.nicorp.pm.merge.service.MergeabilityService;
+import tech.nicorp.pm.notifications.WebhookService;
+import tech.nicorp.pm.pipelines.service.PipelineService;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PostReceiveQueueTest {
+    private static final String A = "1111111111111111111111111111111111111111";
+    private static final String B = "2222222222222222222222222222222222222222";
+    private static final String C = "3333333333333333333333333333333333333333";
+
+    // stands in for the post_receive_events table
+    private final Map<UUID, PostReceiveEvent> table = new ConcurrentHashMap<>();
+    private volatile boolean workersPaused = true;
+
+    private PipelineService pipelines;
+    private MergeabilityService mergeability;
+    private WebhookService webhooks;
+    private PostReceiveQueue queue;
+    private UUID repoId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        PostReceiveEventRepository events = mock(PostReceiveEventRepository.class);
+        when(events.findByRepositoryIdAndRefName(any(), anyString())).thenAnswer(inv -> table.values().stream()
+                .filter(e -> e.getRepositoryId().equals(inv.getArgument(0)) && e.getRefName().equals(inv.getArgument(1)))
+                .findFirst().map(PostReceiveQueueTest::copy));
+        when(events.findById(any())).thenAnswer(inv -> Optional.ofNullable(table.get(inv.<UUID>getArgument(0))).map(PostReceiveQueueTest::copy));
+        when(events.save(any())).thenAnswer(inv -> {
+            PostReceiveEvent e = inv.getArgument(0);
+            table.put(e.getId(), copy(e));
+            return e;
+        });
+        when(events.deleteProcessed(any(), anyInt())).thenAnswer(inv -> {
+            PostReceiveEvent e = table.get(inv.<UUID>getArgument(0));
+            return e != null && e.getRevision() == inv.<Integer>getArgument(1) && table.remove(e.getId()) != null ? 1 : 0;
+        });
+        when(events.findByNextAttemptAtLessThanEqualOrderByCreatedAtAsc(any(), any())).thenAnswer(inv -> workersPaused
+                ? List.of()
+                : table.values().stream().filter(e -> !e.getNextAttemptAt().isAfter(inv.getArgument(0))).map(PostReceiveQueueTest::copy).toList());
+
+        GitService git = mock(GitService.class);
+        when(git.listChangedPaths(any(), anyString(), anyString())).thenReturn(List.of("src/app.txt"));
+        pipelines = mock(PipelineService.class);
+        mergeability = mock(MergeabilityService.class);
+        webhooks = mock(WebhookService.class);
+        queue = new PostReceiveQueue(events, git, pipelines, mergeability, webhooks, mock(CodeSearchService.class), 1, 16, 3);
+        repoId = UUID.randomUUID();
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void pushesToSameRefAreFoldedIntoOneEvent() {
+        queue.enqueue(repoId, List.of(update(A, B, "refs/heads/master"), update(ObjectId.zeroId().name(), A, "refs/tags/v1")));
+        queue.enqueue(repoId, List.of(update(B, C, "refs/heads/master")));
+
+        assertThat(table).hasSize(2);
+        PostReceiveEvent master = table.values().stream().filter(e -> e.getRefName().equals("refs/heads/master")).findFirst().orElseThrow();
+        assertThat(master.getOldSha()).isEqualTo(A);
+        assertThat(master.getNewSha()).isEqualTo(C);
+        assertThat(master.getRevision()).isEqualTo(1);
+
+        workersPaused = false;
+        queue.dispatch();
+
+        verify(pipelines, timeout(2000)).trigger(argThat(req -> "master".equals(req.get("ref")) && C.equals(req.get("commit_sha"))));
+        verify(pipelines, timeout(2000)).trigger(argThat(req -> "refs/tags/v1".equals(req.get("ref"))));
+        verify(mergeability, timeout(2000)).branchesUpdated(repoId, List.of("master"));
+        verify(webhooks, timeout(2000).times(2)).emit(eq("push"), any());
+        verify(pipelines, times(2)).trigger(any());
+        waitUntilEmpty();
+    }
+
+    @Test
+    void failedEventIsKeptForRetryWithBackoff() {
+        when(pipelines.trigger(any())).thenThrow(new IllegalStateException("database is down"));
+        workersPaused = false;
+
+        queue.enqueue(repoId, List.of(update(A, B, "refs/heads/master")));
+
+        verify(pipelines, timeout(2000)).trigger(any());
+        PostReceiveEvent event = awaitAttempts();
+        verify(mergeability, never()).branchesUpdated(any(), any());
+        assertThat(event.getLastError()).isEqualTo("database is down");
+        assertThat(event.getNextAttemptAt()).isAfter(OffsetDateTime.now());
+    }
+
+    @Test
+    void staleCopyOfProcessedEventIsNotDeliveredAgain() {
+        queue.enqueue(repoId, List.of(update(A, B, "refs/heads/master")));
+        // what a concurrent dispatch() read before the event was completed
+        PostReceiveEvent stale = copy(table.values().iterator().next());
+
+        workersPaused = false;
+        queue.dispatch();
+        verify(webhooks, timeout(2000)).emit(eq("push"), any());
+        waitUntilEmpty();
+
+        queue.process(stale);
+        verify(pipelines, times(1)).trigger(any());
+        verify(webhooks, times(1)).emit(eq("push"), any());
+    }
+
+    private PostReceiveEvent awaitAttempts() {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            PostReceiveEvent e = table.values().stream().findFirst().orElseThrow();
+            if (e.getAttempts() > 0) return e;
+            Thread.onSpinWait();
+        }
+        throw new AssertionError("event was not retried");
+    }
+
+    private void waitUntilEmpty() {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!table.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(table).isEmpty();
+    }
+
+    private static ReceiveCommand update(String oldSha, String newSha, String ref) {
+        ReceiveCommand cmd = new ReceiveCommand(ObjectId.fromString(oldSha), ObjectId.fromString(newSha), ref);
+        cmd.setResult(ReceiveCommand.Result.OK);
+        return cmd;
+    }
+
+    private static PostReceiveEvent copy(PostReceiveEvent e) {
+        PostReceiveEvent c = new PostReceiveEvent();
+        c.setId(e.getId());
+        c.setRepositoryId(e.getRepositoryId());
+        c.setRefName(e.getRefName());
+        c.setOldSha(e.getOldSha());
+        c.setNewSha(e.getNewSha());
+        c.setRevision(e.getRevision());
+        c.setAttempts(e.getAttempts());
+        c.setLastError(e.getLastError());
+        c.setNextAttemptAt(e.getNextAttemptAt());
+        c.setCreatedAt(e.getCreatedAt());
+        return c;
+    }
+}
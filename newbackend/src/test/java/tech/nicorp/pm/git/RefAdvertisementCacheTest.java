@@ -0,0 +1,156 @@
+package tech.nicorp.pm.git;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+@Slf4j
+class RefAdvertisementCacheTest {
+
+    // Number of annotated tags in the test repository; raise with -Dgit.test.refAdvertisementTags=...
+    private static final int TAGS = Integer.getInteger("git.test.refAdvertisementTags", 2000);
+    private static final int ROUNDS = 20;
+
+    @TempDir
+    Path reposRoot;
+
+    private GitConfig config;
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitMaintenanceService maintenance;
+    private RefAdvertisementCache cache;
+    private RefAdvertisementCache disabled;
+    private String repoId;
+    private ObjectId head;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        maintenance = new GitMaintenanceService(config, pool, 6700, 50, 1000, 1);
+        cache = new RefAdvertisementCache(16 << 20);
+        // nothing is ever admitted: every request builds the advertisement like before caching
+        disabled = new RefAdvertisementCache(0);
+
+        repoId = UUID.randomUUID().toString();
+        Path workDir = reposRoot.resolve(repoId);
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("master").call()) {
+            Files.writeString(workDir.resolve("README.md"), "# demo\n");
+            git.add().addFilepattern(".").call();
+            head = git.commit().setMessage("init").setAuthor("Test", "test@nicorp.tech").call().getId();
+        }
+        // tags written straight into packed-refs, as gc leaves them on a long-lived repository
+        try (Repository repo = pool.open(repoId); ObjectInserter inserter = ((FileRepository) repo).getObjectDatabase().newPackInserter()) {
+            StringBuilder packedRefs = new StringBuilder("# pack-refs with: peeled fully-peeled sorted \n");
+            PersonIdent ident = new PersonIdent("Test", "test@nicorp.tech");
+            TreeMap<String, ObjectId> tags = new TreeMap<>();
+            for (int i = 0; i < TAGS; i++) {
+                TagBuilder tag = new TagBuilder();
+                tag.setObjectId(head, Constants.OBJ_COMMIT);
+                tag.setTag("v1." + i);
+                tag.setTagger(ident);
+                tag.setMessage("release " + i);
+                tags.put(Constants.R_TAGS + tag.getTag(), inserter.insert(tag));
+            }
+            inserter.flush();
+            tags.forEach((name, id) -> packedRefs.append(id.name()).append(' ').append(name).append('\n')
+                    .append('^').append(head.name()).append('\n'));
+            Files.writeString(reposRoot.resolve(repoId).resolve(".git/packed-refs"), packedRefs);
+        }
+        pool.invalidate(repoId);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+        disabled.close();
+        commitGraphs.shutdown();
+        maintenance.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void refUpdateInvalidatesCachedAdvertisement() throws Exception {
+        GitHttpController controller = controller(cache);
+        byte[] first = controller.infoRefs(repoId, "git-upload-pack", null).getBody();
+        byte[] second = controller.infoRefs(repoId, "git-upload-pack", null).getBody();
+        assertThat(second).isSameAs(first);
+
+        try (Repository repo = pool.open(repoId)) {
+            RefUpdate update = repo.updateRef(Constants.R_HEADS + "feature");
+            update.setNewObjectId(head);
+            assertThat(update.update()).isEqualTo(RefUpdate.Result.NEW);
+        }
+
+        byte[] third = controller.infoRefs(repoId, "git-upload-pack", null).getBody();
+        assertThat(new String(third, StandardCharsets.UTF_8)).contains("refs/heads/feature");
+        assertThat(new String(first, StandardCharsets.UTF_8)).doesNotContain("refs/heads/feature");
+        // services are cached separately
+        assertThat(new String(controller.infoRefs(repoId, "git-receive-pack", null).getBody(), StandardCharsets.UTF_8))
+                .startsWith("001f# service=git-receive-pack");
+    }
+
+    @Test
+    void noOpFetchIsServedFromCache() throws Exception {
+        GitHttpController uncached = controller(disabled);
+        GitHttpController cached = controller(cache);
+        byte[] expected = uncached.infoRefs(repoId, "git-upload-pack", null).getBody();
+        byte[] first = cached.infoRefs(repoId, "git-upload-pack", null).getBody();
+        assertThat(first).isEqualTo(expected);
+        long misses = cache.misses();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            assertThat(cached.infoRefs(repoId, "git-upload-pack", null).getBody()).isSameAs(first);
+        }
+        assertThat(cache.misses()).isEqualTo(misses);
+        assertThat(cache.hits()).isGreaterThanOrEqualTo(ROUNDS);
+        try (Repository repo = pool.open(repoId)) {
+            assertThat(cache.get(repo, "git-upload-pack", () -> {
+                throw new AssertionError("advertisement rebuilt");
+            })).isSameAs(first);
+        }
+
+        // informational only, wall-clock timings do not fail the build
+        log.info("info/refs with {} tags ({} KiB): uncached {} us, cached {} us",
+                TAGS, expected.length / 1024, medianNanos(uncached) / 1000, medianNanos(cached) / 1000);
+    }
+
+    private long medianNanos(GitHttpController controller) throws Exception {
+        long[] samples = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            controller.infoRefs(repoId, "git-upload-pack", null);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[ROUNDS / 2];
+    }
+
+    private GitHttpController controller(RefAdvertisementCache refs) {
+        return new GitHttpController(config, pool, commitGraphs, mock(PostReceiveQueue.class), maintenance, refs);
+    }
+}
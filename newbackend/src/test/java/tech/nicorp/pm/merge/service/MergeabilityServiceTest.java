@@ -0,0 +1,108 @@
+package tech.nicorp.pm.merge.service;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import tech.nicorp.pm.git.CommitGraphService;
+import tech.nicorp.pm.git.GitConfig;
+import tech.nicorp.pm.git.GitMergeService;
+import tech.nicorp.pm.git.GitRepositoryPool;
+import tech.nicorp.pm.merge.domain.MergeRequest;
+import tech.nicorp.pm.merge.domain.MergeRequestStatus;
+import tech.nicorp.pm.merge.domain.MergeabilityStatus;
+import tech.nicorp.pm.merge.repo.MergeRequestRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MergeabilityServiceTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private MergeRequestRepository mrs;
+    private MergeabilityService service;
+    private UUID repoId;
+    private Path workDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        mrs = mock(MergeRequestRepository.class);
+        service = new MergeabilityService(mrs, new GitMergeService(pool, commitGraphs), 1, 4);
+
+        repoId = UUID.randomUUID();
+        workDir = reposRoot.resolve(repoId.toString());
+        try (Git git = Git.init().setDirectory(workDir.toFile()).setInitialBranch("master").call()) {
+            commit(git, "shared.txt", "base\n");
+            git.branchCreate().setName("feature").call();
+            commit(git, "shared.txt", "ours\n");
+            git.checkout().setName("feature").call();
+            commit(git, "shared.txt", "theirs\n");
+            commit(git, "other.txt", "x\n");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void pushRecordsConflictsAndCountsOnAffectedMergeRequests() {
+        MergeRequest affected = mergeRequest("feature", "master");
+        MergeRequest unrelated = mergeRequest("topic", "release");
+        when(mrs.findByRepositoryIdAndStatus(repoId, MergeRequestStatus.OPEN)).thenReturn(List.of(affected, unrelated));
+
+        service.branchesUpdated(repoId, List.of("feature"));
+
+        verify(mrs, timeout(5000)).updateMergeability(eq(affected.getId()), eq(MergeabilityStatus.CANNOT_BE_MERGED),
+                any(), any(), any(), eq(2), eq(1), eq("shared.txt"), any());
+        verify(mrs, never()).updateMergeability(eq(unrelated.getId()), any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void missingBranchIsRecorded() {
+        MergeRequest mr = mergeRequest("gone", "master");
+        when(mrs.findByRepositoryIdAndStatus(repoId, MergeRequestStatus.OPEN)).thenReturn(List.of(mr));
+
+        service.branchesUpdated(repoId, List.of("master"));
+
+        verify(mrs, timeout(5000)).updateMergeability(eq(mr.getId()), eq(MergeabilityStatus.BRANCH_MISSING),
+                isNull(), isNull(), any(), isNull(), isNull(), isNull(), any());
+    }
+
+    private static MergeRequest mergeRequest(String source, String target) {
+        MergeRequest mr = new MergeRequest();
+        mr.setSourceBranch(source);
+        mr.setTargetBranch(target);
+        return mr;
+    }
+
+    private void commit(Git git, String path, String content) throws Exception {
+        Files.writeString(workDir.resolve(path), content);
+        git.add().addFilepattern(path).call();
+        git.commit().setMessage("edit " + path).setAuthor("Test", "test@nicorp.tech").call();
+    }
+}
@@ -0,0 +1,103 @@
+package tech.nicorp.pm.pipelines.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+import tech.nicorp.pm.pipelines.domain.PipelineJob;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JobLeaseDispatcherTest {
+
+    private final AtomicReference<PipelineJob> queued = new AtomicReference<>();
+    private RunnerService runners;
+    private JobLeaseDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        runners = mock(RunnerService.class);
+        when(runners.leaseJob(any())).thenAnswer(inv -> Optional.ofNullable(queued.getAndSet(null)));
+        dispatcher = new JobLeaseDispatcher(runners);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void returnsImmediatelyWithoutWait() {
+        DeferredResult<Optional<UUID>> result = dispatcher.lease(Map.of(), Duration.ZERO, job -> job.map(PipelineJob::getId));
+
+        assertThat(result.getResult()).isEqualTo(Optional.empty());
+        assertThat(dispatcher.waiting()).isZero();
+    }
+
+    @Test
+    void parkedRunnerIsWokenWhenJobsAreQueued() throws Exception {
+        DeferredResult<Optional<UUID>> first = dispatcher.lease(Map.of(), Duration.ofSeconds(30), job -> job.map(PipelineJob::getId));
+        DeferredResult<Optional<UUID>> second = dispatcher.lease(Map.of(), Duration.ofSeconds(30), job -> job.map(PipelineJob::getId));
+        assertThat(first.hasResult()).isFalse();
+        assertThat(dispatcher.waiting()).isEqualTo(2);
+
+        PipelineJob job = new PipelineJob();
+        queued.set(job);
+        dispatcher.jobsReady();
+
+        // oldest waiter first; the other keeps waiting
+        awaitResult(first);
+        assertThat(first.getResult()).isEqualTo(Optional.of(job.getId()));
+        assertThat(second.hasResult()).isFalse();
+        assertThat(dispatcher.waiting()).isEqualTo(1);
+    }
+
+    @Test
+    void delayedJobWakesRunnerWhenReady() throws Exception {
+        DeferredResult<Optional<UUID>> result = dispatcher.lease(Map.of(), Duration.ofSeconds(30), job -> job.map(PipelineJob::getId));
+        PipelineJob job = new PipelineJob();
+        queued.set(job);
+
+        dispatcher.jobReadyAt(OffsetDateTime.now().plusNanos(300_000_000));
+
+        assertThat(result.hasResult()).isFalse();
+        awaitResult(result);
+        assertThat(result.getResult()).isEqualTo(Optional.of(job.getId()));
+    }
+
+    @Test
+    void jobClaimedForAnExpiredRequestGoesBackToTheQueue() {
+        DeferredResult<Optional<UUID>> result = dispatcher.lease(Map.of(), Duration.ofSeconds(30), job -> job.map(PipelineJob::getId));
+        PipelineJob job = new PipelineJob();
+        when(runners.leaseJob(any())).thenAnswer(inv -> {
+            // the request completes (e.g. times out) while the dispatcher is claiming a job for it
+            result.setResult(Optional.empty());
+            return Optional.of(job);
+        });
+
+        dispatcher.jobsReady();
+
+        verify(runners, timeout(5000)).releaseLease(job.getId());
+        // once when parking, once for the wake-up; no retry for the completed request
+        verify(runners, times(2)).leaseJob(any());
+    }
+
+    private static void awaitResult(DeferredResult<?> result) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!result.hasResult() && System.nanoTime() < deadline) Thread.sleep(10);
+        assertThat(result.hasResult()).isTrue();
+    }
+}
@@ -0,0 +1,120 @@
+package tech.nicorp.pm.pipelines.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.nicorp.pm.pipelines.repo.PipelineJobRepository;
+import tech.nicorp.pm.websocket.WebSocketSessionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PipelineLogBufferTest {
+
+    private final UUID jobId = UUID.randomUUID();
+    @TempDir
+    Path dir;
+    private PipelineLogStore store;
+    private WebSocketSessionManager sessions;
+    private PipelineLogBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        PipelineJobRepository jobs = mock(PipelineJobRepository.class);
+        when(jobs.existsById(jobId)).thenReturn(true);
+        store = spy(new PipelineLogStore(null, dir.toString(), 1 << 20, 60));
+        sessions = mock(WebSocketSessionManager.class);
+        // flushes are driven by the test; the reorder window is 50ms
+        buffer = new PipelineLogBuffer(jobs, store, sessions,
+                60_000, 1 << 20, 50, 30);
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.shutdown();
+    }
+
+    @Test
+    void reordersAndDeduplicatesIntoOneAppendPerFlush() throws IOException {
+        buffer.ingest(jobId, "{\"seq\": 0, \"content\": \"a\"}");
+        buffer.ingest(jobId, "{\"seq\": 2, \"content\": \"c\"}");
+        buffer.ingest(jobId, "{\"seq\": 0, \"content\": \"a\"}");
+        buffer.ingest(jobId, "[{\"seq\": 1, \"content\": \"b\"}, {\"seq\": 2, \"content\": \"c\"}, {\"seq\": 3, \"content\": \"d\"}]");
+        buffer.flush();
+
+        assertThat(stored()).isEqualTo("abcd");
+        verify(sessions).sendPipelineLogToJob(jobId, "log", "abcd");
+
+        buffer.flush();
+        verify(sessions, times(1)).sendPipelineLogToJob(eq(jobId), eq("log"), any());
+    }
+
+    @Test
+    void missingChunkIsSkippedAfterReorderWindow() throws Exception {
+        buffer.ingest(jobId, "{\"seq\": 0, \"content\": \"a\"}");
+        buffer.ingest(jobId, "{\"seq\": 2, \"content\": \"c\"}");
+        buffer.flush();
+        assertThat(stored()).isEqualTo("a");
+
+        Thread.sleep(80);
+        buffer.flush();
+        buffer.ingest(jobId, "{\"seq\": 1, \"content\": \"late\"}");
+        buffer.flush();
+
+        assertThat(stored()).isEqualTo("ac");
+    }
+
+    @Test
+    void finishWritesPendingOutputAndPlainTextIsAppended() throws IOException {
+        buffer.ingest(jobId, "plain line\n");
+        buffer.ingest(jobId, "{\"seq\": 5, \"content\": \"tail\"}");
+
+        buffer.finish(jobId);
+
+        assertThat(stored()).isEqualTo("plain line\ntail");
+        verify(sessions, times(1)).sendPipelineLogToJob(eq(jobId), eq("log"), any());
+    }
+
+    @Test
+    void failedFinalFlushKeepsOutputForTheNextFlush() throws IOException {
+        buffer.ingest(jobId, "{\"seq\": 0, \"content\": \"last words\"}");
+        doThrow(new UncheckedIOException(new IOException("disk full"))).doCallRealMethod()
+                .when(store).append(eq(jobId), any());
+
+        assertThatCode(() -> buffer.finish(jobId)).doesNotThrowAnyException();
+        assertThat(stored()).isEmpty();
+
+        buffer.flush();
+        assertThat(stored()).isEqualTo("last words");
+    }
+
+    @Test
+    void unknownJobIsRejected() {
+        assertThatThrownBy(() -> buffer.ingest(UUID.randomUUID(), "x")).isInstanceOf(NoSuchElementException.class);
+    }
+
+    private String stored() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.transferTo(jobId, 0, Long.MAX_VALUE, Channels.newChannel(out));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
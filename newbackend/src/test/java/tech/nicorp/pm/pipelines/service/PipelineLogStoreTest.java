@@ -0,0 +1,140 @@
+package tech.nicorp.pm.pipelines.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PipelineLogStoreTest {
+
+    @TempDir
+    Path dir;
+    private final UUID jobId = UUID.randomUUID();
+    private PipelineLogStore store;
+
+    @BeforeEach
+    void setUp() {
+        // tiny segments so that reads and writes cross segment boundaries
+        store = new PipelineLogStore(null, dir.toString(), 4, 60);
+    }
+
+    @Test
+    void appendsAcrossSegmentsAndReadsRanges() throws IOException {
+        store.append(jobId, "hello ");
+        store.append(jobId, "world\n");
+
+        assertThat(store.size(jobId)).isEqualTo(12);
+        try (var files = Files.list(dir.resolve(jobId.toString()))) {
+            assertThat(files.filter(f -> f.toString().endsWith(".log")).count()).isEqualTo(3);
+        }
+        assertThat(read(0, Long.MAX_VALUE)).isEqualTo("hello world\n");
+        assertThat(read(3, 5)).isEqualTo("lo wo");
+        assertThat(read(10, 100)).isEqualTo("d\n");
+        assertThat(read(12, 100)).isEmpty();
+        assertThat(store.size(UUID.randomUUID())).isZero();
+    }
+
+    @Test
+    void uncommittedTailIsInvisibleAndDroppedOnNextAppend() throws IOException {
+        store.append(jobId, "abc");
+        store.close(jobId);
+        Path jobDir = dir.resolve(jobId.toString());
+        // a crash after writing data but before the index entry, with half an entry written
+        Files.writeString(jobDir.resolve("%020d.log".formatted(0)), "X", StandardOpenOption.APPEND);
+        Files.write(jobDir.resolve("index"), new byte[5], StandardOpenOption.APPEND);
+
+        assertThat(store.size(jobId)).isEqualTo(3);
+        assertThat(read(0, 100)).isEqualTo("abc");
+
+        store.append(jobId, "def");
+        assertThat(read(0, 100)).isEqualTo("abcdef");
+    }
+
+    @Test
+    void indexAheadOfDataIsCutBackOnReopen() throws IOException {
+        store = new PipelineLogStore(null, dir.toString(), 1 << 20, 60);
+        store.append(jobId, "abc");
+        store.close(jobId);
+        // a power loss kept the index entry but only part of the data
+        try (FileChannel segment = FileChannel.open(dir.resolve(jobId.toString()).resolve("%020d.log".formatted(0)),
+                StandardOpenOption.WRITE)) {
+            segment.truncate(1);
+        }
+
+        store.append(jobId, "def");
+        assertThat(store.size(jobId)).isEqualTo(4);
+        assertThat(read(0, 100)).isEqualTo("adef");
+    }
+
+    @Test
+    void writerStaysOpenUntilClosedOrIdle() throws IOException {
+        store.append(jobId, "ab");
+        store.append(jobId, "cd");
+        store.sync();
+        assertThat(read(0, 100)).isEqualTo("abcd");
+        store.close(jobId);
+
+        // idle right away: sync closes the writer, the next append reopens it
+        PipelineLogStore idle = new PipelineLogStore(null, dir.toString(), 4, 0);
+        idle.append(jobId, "ef");
+        idle.sync();
+        idle.append(jobId, "gh");
+        idle.close(jobId);
+        assertThat(read(0, 100)).isEqualTo("abcdefgh");
+    }
+
+    @Test
+    void legacyImportGoesBeforeEarlierAppendsAndHappensOnce() throws IOException {
+        store.append(jobId, "new");
+
+        store.importLegacy(jobId, out -> {
+            for (String chunk : List.of("old 1\n", "old 2\n")) out.append(chunk);
+        });
+        store.importLegacy(jobId, out -> out.append("again"));
+        store.append(jobId, "!");
+
+        assertThat(store.imported(jobId)).isTrue();
+        assertThat(read(0, Long.MAX_VALUE)).isEqualTo("old 1\nold 2\nnew!");
+    }
+
+    @Test
+    void appendsAreNotBlockedWhileLegacyContentIsImported() throws Exception {
+        store.append(jobId, "new ");
+
+        store.importLegacy(jobId, out -> {
+            out.append("old\n");
+            // a flush arriving mid-import must not wait for it, and ends up after the legacy content
+            Thread live = new Thread(() -> store.append(jobId, "live"));
+            live.start();
+            try {
+                live.join(5000);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            assertThat(live.isAlive()).isFalse();
+        });
+
+        assertThat(read(0, Long.MAX_VALUE)).isEqualTo("old\nnew live");
+        try (var files = Files.list(dir)) {
+            assertThat(files.map(f -> f.getFileName().toString())).containsExactly(jobId.toString());
+        }
+    }
+
+    private String read(long position, long count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.transferTo(jobId, position, count, Channels.newChannel(out));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -66,6 +66,32 @@ class PipelineYamlParserTest {
                 });
     }
 
+    @Test
+    void parseReadsDefaultAndJobTags() {
+        String yaml = """
+                default:
+                  tags: [linux]
+                jobs:
+                  unit:
+                    script: make test
+                  gpu:
+                    tags:
+                      - linux
+                      - gpu
+                    script: make train
+                  anywhere:
+                    tags: []
+                    script: echo hi
+                """;
+
+        PipelineYamlParser.PipelineSpec spec = parser.parse(yaml);
+
+        assertThat(spec.defaults.tags).containsExactly("linux");
+        assertThat(spec.jobs.get(0).tags).isNull();
+        assertThat(spec.jobs.get(1).tags).containsExactly("linux", "gpu");
+        assertThat(spec.jobs.get(2).tags).isEmpty();
+    }
+
     @Test
     void parseReturnsEmptySpecForBlankYaml() {
         PipelineYamlParser.PipelineSpec spec = parser.parse("   ");
@@ -0,0 +1,74 @@
+package tech.nicorp.pm.pipelines.service;
+
+import org.junit.jupiter.api.Test;
+import tech.nicorp.pm.pipelines.domain.PipelineJob;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RunnerSchedulerTest {
+
+    private static final Duration GRACE = Duration.ofSeconds(10);
+    private final OffsetDateTime now = OffsetDateTime.now();
+
+    @Test
+    void runnerOnlyGetsJobsWhoseTagsItHas() {
+        RunnerScheduler.Candidate gpu = candidate("gpu,linux", "cuda:12", now.minusMinutes(2));
+        RunnerScheduler.Candidate plain = candidate(null, "alpine", now.minusMinutes(1));
+
+        assertThat(RunnerScheduler.choose(runner("linux", 0, 0), List.of(gpu, plain), List.of(), now, GRACE))
+                .contains(plain.job());
+        assertThat(RunnerScheduler.choose(runner("linux,gpu", 0, 0), List.of(gpu, plain), List.of(), now, GRACE))
+                .contains(gpu.job());
+        assertThat(RunnerScheduler.choose(RunnerScheduler.RunnerState.anonymous(), List.of(gpu), List.of(), now, GRACE))
+                .isEmpty();
+    }
+
+    @Test
+    void runnerAtItsLimitGetsNothing() {
+        RunnerScheduler.Candidate job = candidate(null, "alpine", now.minusMinutes(1));
+
+        assertThat(RunnerScheduler.choose(runner("", 2, 2), List.of(job), List.of(), now, GRACE)).isEmpty();
+        assertThat(RunnerScheduler.choose(runner("", 2, 1), List.of(job), List.of(), now, GRACE)).contains(job.job());
+    }
+
+    @Test
+    void cachedImagePreferredAndFreshJobsLeftForRunnersThatHaveThem() {
+        RunnerScheduler.Candidate oldest = candidate(null, "maven:3", now.minusSeconds(2));
+        RunnerScheduler.Candidate cached = candidate(null, "node:20", now.minusSeconds(1));
+        RunnerScheduler.RunnerState nodeRunner = new RunnerScheduler.RunnerState(UUID.randomUUID(), Set.of(), 0, 0,
+                Set.of("node:20"), Set.of());
+        RunnerScheduler.RunnerState mavenRunner = new RunnerScheduler.RunnerState(UUID.randomUUID(), Set.of(), 4, 0,
+                Set.of("maven:3"), Set.of());
+
+        // its own cache wins over readiness order
+        assertThat(RunnerScheduler.choose(nodeRunner, List.of(oldest, cached), List.of(), now, GRACE)).contains(cached.job());
+        // a cold runner leaves fresh jobs to idle runners that have their image
+        RunnerScheduler.RunnerState cold = runner("", 0, 0);
+        assertThat(RunnerScheduler.choose(cold, List.of(oldest, cached), List.of(nodeRunner, mavenRunner), now, GRACE)).isEmpty();
+        // ... unless those runners are full or the grace period is over
+        RunnerScheduler.RunnerState busyMaven = new RunnerScheduler.RunnerState(mavenRunner.id(), Set.of(), 1, 1,
+                Set.of("maven:3"), Set.of());
+        assertThat(RunnerScheduler.choose(cold, List.of(oldest, cached), List.of(nodeRunner, busyMaven), now, GRACE))
+                .contains(oldest.job());
+        assertThat(RunnerScheduler.choose(cold, List.of(oldest, cached), List.of(nodeRunner, mavenRunner), now.plusMinutes(1), GRACE))
+                .contains(oldest.job());
+    }
+
+    private static RunnerScheduler.RunnerState runner(String tags, int maxJobs, long running) {
+        return new RunnerScheduler.RunnerState(UUID.randomUUID(), RunnerScheduler.split(tags), maxJobs, running, Set.of(), Set.of());
+    }
+
+    private static RunnerScheduler.Candidate candidate(String tags, String image, OffsetDateTime readyAt) {
+        PipelineJob job = new PipelineJob();
+        job.setTags(tags);
+        job.setImage(image);
+        job.setReadyAt(readyAt);
+        return new RunnerScheduler.Candidate(job, RunnerScheduler.split(tags), image, null);
+    }
+}
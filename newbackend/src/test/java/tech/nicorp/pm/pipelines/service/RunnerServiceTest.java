@@ -0,0 +1,182 @@
+package tech.nicorp.pm.pipelines.service;
+
+import jakarta.persistence.LockModeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.QueryHints;
+import tech.nicorp.pm.pipelines.domain.JobStatus;
+import tech.nicorp.pm.pipelines.domain.PipelineJob;
+import tech.nicorp.pm.pipelines.repo.PipelineJobRepository;
+import tech.nicorp.pm.pipelines.repo.RunnerRepository;
+import tech.nicorp.pm.websocket.WebSocketSessionManager;
+
+import java.lang.reflect.Method;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RunnerServiceTest {
+
+    private final List<PipelineJob> table = new ArrayList<>();
+    // row locks held by in-flight leases, released when the lease commits (next claim or save on that thread)
+    private final Set<UUID> locked = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<List<UUID>> held = ThreadLocal.withInitial(ArrayList::new);
+    private RunnerService service;
+
+    @BeforeEach
+    void setUp() {
+        PipelineJobRepository jobs = mock(PipelineJobRepository.class);
+        // emulates SELECT ... WHERE status = ? AND ready_at <= ? AND <tags within runner tags>
+        //   ORDER BY ready_at FOR UPDATE SKIP LOCKED LIMIT ?
+        when(jobs.lockRunnable(eq(JobStatus.QUEUED), any(), any(), any())).thenAnswer(inv -> {
+            OffsetDateTime now = inv.getArgument(1);
+            Collection<String> tags = inv.getArgument(2);
+            Pageable page = inv.getArgument(3);
+            release();
+            synchronized (table) {
+                List<PipelineJob> rows = table.stream()
+                        .filter(j -> j.getStatus() == JobStatus.QUEUED)
+                        .filter(j -> j.getReadyAt() != null && !j.getReadyAt().isAfter(now))
+                        .filter(j -> tags.containsAll(j.getTagSet()))
+                        .sorted(Comparator.comparing(PipelineJob::getReadyAt))
+                        .filter(j -> locked.add(j.getId()))
+                        // like Postgres, re-check the row once locked: another lease may have just taken it
+                        .filter(j -> j.getStatus() == JobStatus.QUEUED || !locked.remove(j.getId()))
+                        .limit(page.getPageSize())
+                        .toList();
+                rows.forEach(j -> held.get().add(j.getId()));
+                return rows;
+            }
+        });
+        when(jobs.save(any())).thenAnswer(inv -> {
+            release();
+            return inv.getArgument(0);
+        });
+        service = new RunnerService(jobs, mock(RunnerRepository.class), mock(PipelineLogBuffer.class),
+                mock(WebSocketSessionManager.class), 16, 10, 90);
+    }
+
+    @Test
+    void leasesOldestReadyJobAndSkipsUnreleasedOrDelayedOnes() {
+        OffsetDateTime now = OffsetDateTime.now();
+        PipelineJob manual = job(null);
+        PipelineJob delayed = job(now.plusHours(1));
+        PipelineJob newer = job(now.minusSeconds(5));
+        PipelineJob older = job(now.minusSeconds(30));
+
+        assertThat(service.leaseJob(Map.of())).contains(older);
+        assertThat(older.getStatus()).isEqualTo(JobStatus.RUNNING);
+        assertThat(older.getStartedAt()).isNotNull();
+        assertThat(service.leaseJob(Map.of())).contains(newer);
+        assertThat(service.leaseJob(Map.of())).isEmpty();
+        assertThat(manual.getStatus()).isEqualTo(JobStatus.QUEUED);
+        assertThat(delayed.getStatus()).isEqualTo(JobStatus.QUEUED);
+    }
+
+    @Test
+    void jobsNoRunnerCanTakeDoNotStarveTheQueue() {
+        OffsetDateTime base = OffsetDateTime.now().minusMinutes(10);
+        // more unmatchable jobs at the head of the queue than the 16-row candidate window
+        for (int i = 0; i < 40; i++) job(base.plusSeconds(i)).setTagSet(Set.of("gpu"));
+        PipelineJob untagged = job(base.plusMinutes(5));
+
+        assertThat(service.leaseJob(Map.of())).contains(untagged);
+        assertThat(table).filteredOn(j -> j.getStatus() == JobStatus.RUNNING).containsExactly(untagged);
+    }
+
+    @Test
+    void claimQueryLocksRowsAndSkipsLockedOnes() throws Exception {
+        Method claim = PipelineJobRepository.class.getMethod("lockRunnable",
+                JobStatus.class, OffsetDateTime.class, Collection.class, Pageable.class);
+
+        // FOR UPDATE SKIP LOCKED: the mock in setUp() assumes exactly these semantics
+        assertThat(claim.getAnnotation(Lock.class).value()).isEqualTo(LockModeType.PESSIMISTIC_WRITE);
+        assertThat(claim.getAnnotation(QueryHints.class).value())
+                .anySatisfy(hint -> {
+                    assertThat(hint.name()).isEqualTo("jakarta.persistence.lock.timeout");
+                    assertThat(hint.value()).isEqualTo("-2");
+                });
+    }
+
+    // Not a database concurrency test: exclusivity here comes from the SKIP LOCKED emulation in setUp(),
+    // this only checks that the lease logic on top of such a query never hands a job out twice.
+    @Test
+    void competingRunnersNeverLeaseTheSameJob() throws Exception {
+        int jobCount = 500;
+        int runners = 32;
+        OffsetDateTime base = OffsetDateTime.now().minusMinutes(10);
+        for (int i = 0; i < jobCount; i++) job(base.plusNanos(i * 1000L));
+
+        Set<UUID> leased = ConcurrentHashMap.newKeySet();
+        List<UUID> duplicates = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(runners);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int r = 0; r < runners; r++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                int mine = 0;
+                while (true) {
+                    Optional<PipelineJob> job = service.leaseJob(Map.of());
+                    if (job.isEmpty()) {
+                        synchronized (table) {
+                            boolean pending = table.stream().anyMatch(j -> j.getStatus() == JobStatus.QUEUED);
+                            if (!pending) return mine;
+                        }
+                        continue;
+                    }
+                    if (!leased.add(job.get().getId())) {
+                        synchronized (duplicates) {
+                            duplicates.add(job.get().getId());
+                        }
+                    }
+                    mine++;
+                }
+            }));
+        }
+        start.countDown();
+        int total = 0;
+        for (Future<Integer> f : results) total += f.get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertThat(duplicates).isEmpty();
+        assertThat(total).isEqualTo(jobCount);
+        assertThat(leased).hasSize(jobCount);
+        assertThat(table).allMatch(j -> j.getStatus() == JobStatus.RUNNING);
+    }
+
+    private void release() {
+        held.get().forEach(locked::remove);
+        held.get().clear();
+    }
+
+    private PipelineJob job(OffsetDateTime readyAt) {
+        PipelineJob job = new PipelineJob();
+        job.setName("job");
+        job.setReadyAt(readyAt);
+        synchronized (table) {
+            table.add(job);
+        }
+        return job;
+    }
+}
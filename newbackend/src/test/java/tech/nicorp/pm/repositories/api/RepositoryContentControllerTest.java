@@ -0,0 +1,271 @@
+package tech.nicorp.pm.repositories.api;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import tech.nicorp.pm.git.CommitGraphService;
+import tech.nicorp.pm.git.FileHistoryService;
+import tech.nicorp.pm.git.GitArchiveService;
+import tech.nicorp.pm.git.GitBlameService;
+import tech.nicorp.pm.git.GitConfig;
+import tech.nicorp.pm.git.GitDiffCache;
+import tech.nicorp.pm.git.GitDiffService;
+import tech.nicorp.pm.git.GitObjectCache;
+import tech.nicorp.pm.git.GitRepositoryPool;
+import tech.nicorp.pm.git.GitService;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RepositoryContentControllerTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitRepositoryPool pool;
+    private CommitGraphService commitGraphs;
+    private GitService gitService;
+    private GitArchiveService archives;
+    private RepositoryContentController controller;
+    private UUID repoId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        GitConfig config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        commitGraphs = new CommitGraphService(pool);
+        GitDiffService diffs = new GitDiffService(pool, new GitDiffCache(1 << 20), 1 << 20, 256 * 1024, 2000, 5000, 512 * 1024, 8 << 20);
+        gitService = new GitService(config, pool, commitGraphs, new GitObjectCache(1 << 20, 64 * 1024), diffs);
+        archives = new GitArchiveService(config, pool, reposRoot.resolve("archives").toString(), 1 << 20);
+        controller = new RepositoryContentController(gitService, diffs, archives,
+                new GitBlameService(pool, 1 << 20, 1 << 20), new FileHistoryService(pool, commitGraphs, 1 << 20));
+
+        repoId = UUID.randomUUID();
+        gitService.initRepository(repoId, "demo");
+        gitService.commitFiles(repoId, "master", List.of(
+                GitService.FileChange.upsert("notes.txt", "0123456789abcdef".getBytes()),
+                GitService.FileChange.upsert("data.bin", new byte[]{1, 0, 2, 0, 3}),
+                GitService.FileChange.upsert("docs/" + "nested/".repeat(15) + "deep.md", "# deep\n".getBytes())
+        ), "add files", new PersonIdent("Test", "test@nicorp.tech"), null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        commitGraphs.shutdown();
+        pool.closeAll();
+    }
+
+    @Test
+    void timeTruncatedDiffsAreNotCachedAsImmutable() throws Exception {
+        // no time budget at all: every stat and patch is cut by time
+        GitDiffService slow = new GitDiffService(pool, new GitDiffCache(1 << 20), 1 << 20, 256 * 1024, 0, 0, 512 * 1024, 8 << 20);
+        RepositoryContentController c = new RepositoryContentController(gitService, slow, archives,
+                new GitBlameService(pool, 1 << 20, 1 << 20), new FileHistoryService(pool, commitGraphs, 1 << 20));
+        String sha = gitService.resolveRefSha(repoId, "master");
+
+        ResponseEntity<Map<String, Object>> summary = c.commitDiffSummary(repoId, sha, null);
+        ResponseEntity<Map<String, Object>> file = c.commitFileDiff(repoId, sha, "notes.txt", false, null);
+
+        assertThat(summary.getBody()).containsEntry("statsTruncated", true);
+        assertThat(file.getBody()).containsEntry("truncatedReason", GitDiffService.TRUNCATED_TIME);
+        for (ResponseEntity<?> response : List.of(summary, file)) {
+            assertThat(response.getHeaders().getETag()).isNull();
+            assertThat(response.getHeaders().getCacheControl()).isEqualTo("no-cache");
+        }
+    }
+
+    @Test
+    void rawServesSingleRange() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Range", "bytes=4-7");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.getRawFile(repoId, "master", "notes.txt", false, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes 4-7/16");
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+        assertThat(response.getContentAsString()).isEqualTo("4567");
+        assertThat(response.getContentType()).startsWith("text/plain");
+    }
+
+    @Test
+    void rawRejectsUnsatisfiableRange() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Range", "bytes=100-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.getRawFile(repoId, "master", "notes.txt", false, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes */16");
+    }
+
+    @Test
+    void rawSniffsBinaryAndHonoursEtag() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.getRawFile(repoId, "master", "data.bin", true, new MockHttpServletRequest(), response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentType()).isEqualTo("application/octet-stream");
+        assertThat(response.getHeader("Content-Disposition")).startsWith("attachment");
+        assertThat(response.getContentAsByteArray()).containsExactly(1, 0, 2, 0, 3);
+
+        MockHttpServletRequest conditional = new MockHttpServletRequest();
+        conditional.addHeader("If-None-Match", response.getHeader("ETag"));
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        controller.getRawFile(repoId, "master", "data.bin", false, conditional, notModified);
+
+        assertThat(notModified.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    void rawReturnsNotFoundForMissingPath() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.getRawFile(repoId, "master", "missing.txt", false, new MockHttpServletRequest(), response);
+
+        assertThat(response.getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    void archiveIsStreamedThenServedFromCache() throws Exception {
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        controller.getArchive(repoId, "master", "zip", null, new MockHttpServletRequest(), first);
+
+        assertThat(first.getStatus()).isEqualTo(200);
+        assertThat(first.getContentType()).isEqualTo("application/zip");
+        assertThat(first.getHeader("Content-Length")).isNull();
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(first.getContentAsByteArray()))) {
+            for (ZipEntry e = zip.getNextEntry(); e != null; e = zip.getNextEntry()) {
+                if (!e.isDirectory()) files.put(e.getName(), zip.readAllBytes());
+            }
+        }
+        assertThat(files).containsKeys("README.md", "notes.txt", "data.bin");
+        assertThat(files.get("data.bin")).containsExactly(1, 0, 2, 0, 3);
+
+        MockHttpServletResponse second = new MockHttpServletResponse();
+        controller.getArchive(repoId, "master", "zip", null, new MockHttpServletRequest(), second);
+        assertThat(second.getContentLengthLong()).isEqualTo(first.getContentAsByteArray().length);
+        assertThat(second.getContentAsByteArray()).isEqualTo(first.getContentAsByteArray());
+
+        MockHttpServletRequest conditional = new MockHttpServletRequest();
+        conditional.addHeader("If-None-Match", second.getHeader("ETag"));
+        MockHttpServletResponse third = new MockHttpServletResponse();
+        controller.getArchive(repoId, "master", "zip", null, conditional, third);
+        assertThat(third.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    void archivesOfCommitsSharingATreeKeepTheirOwnEntryTimes() throws Exception {
+        MockHttpServletResponse master = new MockHttpServletResponse();
+        controller.getArchive(repoId, "master", "zip", null, new MockHttpServletRequest(), master);
+        String later;
+        try (Repository repo = pool.open(repoId); ObjectInserter inserter = repo.newObjectInserter(); RevWalk walk = new RevWalk(repo)) {
+            RevCommit tip = walk.parseCommit(repo.resolve("master"));
+            PersonIdent ident = new PersonIdent(new PersonIdent("Test", "test@nicorp.tech"), tip.getCommitterIdent().getWhenAsInstant().plusSeconds(3600));
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(tip.getTree());
+            commit.setParentId(tip);
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage("empty");
+            later = inserter.insert(commit).name();
+            inserter.flush();
+        }
+
+        MockHttpServletResponse same = new MockHttpServletResponse();
+        controller.getArchive(repoId, later, "zip", null, new MockHttpServletRequest(), same);
+
+        assertThat(same.getHeader("ETag")).isNotEqualTo(master.getHeader("ETag"));
+        assertThat(same.getContentAsByteArray()).isNotEqualTo(master.getContentAsByteArray());
+        long masterTime = zipTimes(master.getContentAsByteArray()).get(0);
+        assertThat(zipTimes(same.getContentAsByteArray())).allMatch(t -> t > masterTime);
+    }
+
+    @Test
+    void tarGzArchiveHonoursPathPrefix() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.getArchive(repoId, "master", "tar.gz", "docs/", new MockHttpServletRequest(), response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader("Content-Disposition")).contains("master-docs.tar.gz");
+        List<String> names = tarEntries(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray())));
+        String deep = "docs/" + "nested/".repeat(15) + "deep.md";
+        assertThat(names).contains(deep).allMatch(n -> n.startsWith("docs/"));
+
+        MockHttpServletResponse missing = new MockHttpServletResponse();
+        controller.getArchive(repoId, "master", "tar.gz", "nope", new MockHttpServletRequest(), missing);
+        assertThat(missing.getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void blameReturnsRangesAndRejectsBinaryFiles() throws Exception {
+        ResponseEntity<Object> response = controller.blame(repoId, "master", "notes.txt", null);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        Map<String, Object> body = (Map<String, Object>) response.getBody();
+        assertThat(body).containsEntry("lines", 1);
+        List<Map<String, Object>> ranges = (List<Map<String, Object>>) body.get("ranges");
+        assertThat(ranges).singleElement().satisfies(range -> assertThat((Map<String, Object>) body.get("commits"))
+                .containsKey((String) range.get("commit")));
+
+        assertThat(controller.blame(repoId, "master", "data.bin", null).getStatusCode().value()).isEqualTo(422);
+        assertThat(controller.blame(repoId, "master", "missing.txt", null).getStatusCode().value()).isEqualTo(404);
+    }
+
+    // entry names of a tar stream, taking pax path records into account
+    private static List<Long> zipTimes(byte[] zip) throws Exception {
+        List<Long> times = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry()) times.add(e.getTime());
+        }
+        return times;
+    }
+
+    private static List<String> tarEntries(InputStream in) throws Exception {
+        List<String> names = new ArrayList<>();
+        String paxPath = null;
+        while (true) {
+            byte[] header = in.readNBytes(512);
+            if (header.length < 512 || header[0] == 0) break;
+            String name = new String(header, 0, 100, StandardCharsets.UTF_8).replace("\0", "");
+            long size = Long.parseLong(new String(header, 124, 11, StandardCharsets.US_ASCII), 8);
+            byte[] data = in.readNBytes((int) ((size + 511) / 512 * 512));
+            if (header[156] == 'x') {
+                String records = new String(data, 0, (int) size, StandardCharsets.UTF_8);
+                paxPath = records.substring(records.indexOf("path=") + 5, records.indexOf('\n', records.indexOf("path=")));
+                continue;
+            }
+            names.add(paxPath != null ? paxPath : name);
+            paxPath = null;
+        }
+        return names;
+    }
+}
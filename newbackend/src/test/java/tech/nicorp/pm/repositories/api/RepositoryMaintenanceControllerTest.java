@@ -0,0 +1,65 @@
+package tech.nicorp.pm.repositories.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import tech.nicorp.pm.git.GitConfig;
+import tech.nicorp.pm.git.GitMaintenanceService;
+import tech.nicorp.pm.git.GitRepositoryPool;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RepositoryMaintenanceControllerTest {
+
+    @TempDir
+    Path reposRoot;
+
+    private GitConfig config;
+    private GitRepositoryPool pool;
+    private GitMaintenanceService maintenance;
+    private RepositoryMaintenanceController controller;
+
+    @BeforeEach
+    void setUp() {
+        config = new GitConfig();
+        ReflectionTestUtils.setField(config, "reposRoot", reposRoot.toString());
+        pool = new GitRepositoryPool(config, 4, 60);
+        maintenance = mock(GitMaintenanceService.class);
+        controller = new RepositoryMaintenanceController(maintenance, pool);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.closeAll();
+    }
+
+    @Test
+    void unknownRepositoryIsNotFound() throws Exception {
+        UUID missing = UUID.randomUUID();
+
+        assertThat(controller.stats(missing).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(controller.run(missing).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        verify(maintenance, never()).schedule(any(), any());
+    }
+
+    @Test
+    void existingRepositoryIsScheduled() throws Exception {
+        UUID repoId = UUID.randomUUID();
+        Files.createDirectories(config.getRepoPath(repoId.toString()));
+        when(maintenance.schedule(repoId.toString(), "manual")).thenReturn(true);
+
+        assertThat(controller.run(repoId).getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    }
+}
@@ -1,3 +1,4 @@
+import json
 import os
 import time
 import requests
@@ -12,6 +13,12 @@ API = os.environ.get("API_URL", "http://localhost:7671/api").rstrip("/")
 TOKEN = os.environ.get("RUNNER_TOKEN", "dev-runner-token")
 RUNNER_NAME = os.environ.get("RUNNER_NAME", "default-runner")
 WORKSPACE_ROOT = os.environ.get("WORKSPACE_ROOT", "/git-repos")
+# seconds the server may hold a lease request open while no job is runnable
+LEASE_WAIT = int(os.environ.get("LEASE_WAIT_SECONDS", "30"))
+RUNNER_TAGS = [t.strip() for t in os.environ.get("RUNNER_TAGS", "").split(",") if t.strip()]
+# jobs run one at a time in this process
+MAX_JOBS = 1
+HEARTBEAT_SECONDS = int(os.environ.get("HEARTBEAT_SECONDS", "30"))
 
 session = requests.Session()
 session.headers["Authorization"] = f"Bearer {TOKEN}"
@@ -20,23 +27,49 @@ docker_client = docker.from_env()
 
 
 def lease():
+    """Returns (job, ok): job is None when nothing is runnable, ok is False when the request failed."""
     try:
-        r = session.post(f"{API}/pipelines/runners/lease", json={"tags": []}, timeout=15)
+        r = session.post(f"{API}/pipelines/runners/lease", params={"wait": LEASE_WAIT},
+                         json={"name": RUNNER_NAME, "tags": RUNNER_TAGS, "max_jobs": MAX_JOBS},
+                         timeout=LEASE_WAIT + 15)
         if r.status_code == 204 or not r.text:
-            return None
+            return None, True
         if r.status_code == 200:
             data = r.json()
-            if not data:
-                return None
-            return data
+            if not data or not data.get("jobId"):
+                return None, True
+            return data, True
     except Exception:
-        return None
-    return None
+        return None, False
+    return None, False
 
 
-def post_log(job_id: str, seq: int, content: str):
+def cached_images():
     try:
-        session.post(f"{API}/pipelines/jobs/{job_id}/logs", json={"seq": seq, "content": content}, timeout=10)
+        return sorted({tag for image in docker_client.images.list() for tag in image.tags})
+    except Exception:
+        return []
+
+
+def heartbeat_loop():
+    while True:
+        try:
+            session.post(f"{API}/pipelines/runners/heartbeat", json={
+                "name": RUNNER_NAME,
+                "tags": RUNNER_TAGS,
+                "max_jobs": MAX_JOBS,
+                "images": cached_images(),
+            }, timeout=10)
+        except Exception:
+            pass
+        time.sleep(HEARTBEAT_SECONDS)
+
+
+def post_log(job_id: str, seq: int | None, content: str):
+    # numbered chunks are deduplicated and reordered by the server; unnumbered ones are appended as they come
+    body = {"content": content} if seq is None else {"seq": seq, "content": content}
+    try:
+        session.post(f"{API}/pipelines/jobs/{job_id}/logs", json=body, timeout=10)
     except Exception:
         pass
 
@@ -51,20 +84,29 @@ def post_status(job_id: str, status: str, exit_code: int | None = None):
         pass
 
 
+def job_env(job: dict) -> dict:
+    # the server sends the job environment as its stored JSON string
+    env = job.get("env") or {}
+    if isinstance(env, str):
+        env = json.loads(env) if env.strip() else {}
+    return {str(k): "" if v is None else str(v) for k, v in env.items()}
+
+
 def run_job(job: dict):
-    job_id = job["job_id"]
-    repo_path = job.get("repo_path") or ""
+    job_id = job["jobId"]
     image = job["image"]
-    script_lines = job.get("script") or []
+    script_lines = (job.get("script") or "").splitlines()
     script = " && ".join([line for line in script_lines if line and line.strip()]) or "echo nothing"
-    env = job.get("env") or {}
-    timeout = job.get("timeout_seconds") or None
+    env = job_env(job)
+    timeout = job.get("timeoutSeconds") or None
+    repo_id = env.get("CI_REPO_ID") or ""
+    repo_path = os.path.join(WORKSPACE_ROOT, repo_id) if repo_id else ""
 
     # Ensure repo checkout best-effort (commit optional)
     if repo_path and os.path.isdir(repo_path):
         try:
             subprocess.run(["git", "-C", repo_path, "fetch", "--all", "-p"], check=False)
-            commit = (job.get("commit_sha") or "").strip()
+            commit = (env.get("CI_COMMIT_SHA") or "").strip()
             if commit:
                 subprocess.run(["git", "-C", repo_path, "checkout", "-f", commit], check=False)
         except Exception:
@@ -138,9 +180,9 @@ def run_job(job: dict):
         exit_code = res.get("StatusCode", 1)
     except APIError as e:
         detail = getattr(e, 'explanation', None) or str(e)
-        post_log(job_id, 0, f"Runner error (Docker API): {detail}\n{traceback.format_exc()}\n")
+        post_log(job_id, None, f"Runner error (Docker API): {detail}\n{traceback.format_exc()}\n")
     except Exception as e:
-        post_log(job_id, 0, f"Runner error: {e}\n{traceback.format_exc()}\n")
+        post_log(job_id, None, f"Runner error: {e}\n{traceback.format_exc()}\n")
     finally:
         try:
             if container is not None:
@@ -151,12 +193,23 @@ def run_job(job: dict):
 
 
 def main():
+    threading.Thread(target=heartbeat_loop, daemon=True).start()
     while True:
-        job = lease()
+        job, ok = lease()
         if not job:
-            time.sleep(5)
+            # a long-poll that came back empty can be retried at once; back off only on errors
+            if not ok or LEASE_WAIT <= 0:
+                time.sleep(5)
             continue
-        run_job(job)
+        try:
+            run_job(job)
+        except Exception:
+            # a job the runner cannot even start must not end the loop or stay RUNNING on the server
+            traceback.print_exc()
+            job_id = job.get("jobId")
+            if job_id:
+                post_log(job_id, None, f"Runner error: {traceback.format_exc()}\n")
+                post_status(job_id, "failed", exit_code=1)
 
 
 if __name__ == "__main__":